@@ -0,0 +1,146 @@
+package js.gitutil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.Hunk;
+
+/**
+ * Generates the synthetic inputs the benchmarks run on. Each generator is
+ * seeded, so a given size always produces the same data
+ */
+final class BenchData {
+
+  private static final long SEED = 1234;
+
+  /**
+   * Generate `git status --porcelain=v2 -z` output with a mix of record types:
+   * mostly ordinary changes, with some renames, untracked and unmerged files
+   */
+  static byte[] porcelainOutput(int entries) {
+    Random r = new Random(SEED);
+    StringBuilder sb = new StringBuilder(entries * 140);
+    sb.append("# branch.oid ").append(objectId(r)).append('\0');
+    sb.append("# branch.head main\0");
+    for (int i = 0; i < entries; i++) {
+      int kind = r.nextInt(100);
+      String path = path(r, i);
+      if (kind < 70) {
+        sb.append("1 .M N... 100644 100644 100644 ").append(objectId(r)).append(' ').append(objectId(r)).append(' ')
+            .append(path).append('\0');
+      } else if (kind < 80) {
+        sb.append("2 R. N... 100644 100644 100644 ").append(objectId(r)).append(' ').append(objectId(r))
+            .append(" R100 ").append(path).append('\0').append(path(r, i + entries)).append('\0');
+      } else if (kind < 95) {
+        sb.append("? ").append(path).append('\0');
+      } else {
+        sb.append("u UU N... 100644 100644 100644 100644 ").append(objectId(r)).append(' ').append(objectId(r))
+            .append(' ').append(objectId(r)).append(' ').append(path).append('\0');
+      }
+    }
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Generate content to search for markers: "text" is source-like ASCII with
+   * no markers, "dense" is the same with a marker (and many partial matches)
+   * every few KB, "binary" is random bytes, and "utf8" is mostly multi-byte
+   * text
+   */
+  static byte[] markerContent(String kind, int size, byte[] marker) {
+    Random r = new Random(SEED);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(size + 256);
+    switch (kind) {
+    case "binary": {
+      byte[] b = new byte[size];
+      r.nextBytes(b);
+      return b;
+    }
+    case "utf8":
+      while (out.size() < size)
+        write(out, "    // Größe ändern: ×" + r.nextInt(1000) + " — σ² ≈ λ·τ, 日本語のコメント\n");
+      break;
+    case "text":
+    case "dense":
+      int line = 0;
+      while (out.size() < size) {
+        write(out, "    int value" + r.nextInt(1000) + " = compute(x, y) * 31 + offset; /* note */\n");
+        if (kind.equals("dense") && ++line % 50 == 0) {
+          // A near miss, then the marker itself
+          write(out, "*/      %%% // gitdiff\n");
+          out.write(marker, 0, marker.length);
+          write(out, "\n");
+        }
+      }
+      break;
+    default:
+      throw new IllegalArgumentException(kind);
+    }
+    byte[] b = out.toByteArray();
+    return (b.length == size) ? b : java.util.Arrays.copyOf(b, size);
+  }
+
+  /**
+   * Generate a single hunk of the given number of lines
+   */
+  static Hunk hunk(int lineCount) {
+    Random r = new Random(SEED);
+    List<String> lines = new ArrayList<>(lineCount);
+    for (int i = 0; i < lineCount; i++) {
+      char type = " -+".charAt(r.nextInt(3));
+      lines.add(type + "    result.add(item" + r.nextInt(100000) + ".toString());");
+    }
+    return Hunk.newBuilder().filename("src/main/java/Big.java").r1Begin(1).r1Count(lineCount).r2Begin(1)
+        .r2Count(lineCount).lines(lines).build();
+  }
+
+  /**
+   * Generate the same hunk as hunk(lineCount), with its lines packed
+   */
+  static PackedHunk packedHunk(int lineCount) {
+    return PackedHunk.of(hunk(lineCount));
+  }
+
+  /**
+   * Generate status entries for modified files, each with a few small hunks
+   */
+  static List<FileEntry> fileEntries(int count) {
+    Random r = new Random(SEED);
+    List<FileEntry> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String path = path(r, i);
+      List<Hunk> hunks = new ArrayList<>();
+      for (int j = 0; j < 2; j++) {
+        List<String> lines = new ArrayList<>();
+        for (int k = 0; k < 20; k++)
+          lines.add(" -+".charAt(r.nextInt(3)) + "  line " + r.nextInt(100000) + " of " + path);
+        hunks.add(Hunk.newBuilder().filename(path).r1Begin(10 + j * 40).r1Count(15).r2Begin(10 + j * 40).r2Count(15)
+            .lines(lines).build());
+      }
+      result.add(FileEntry.newBuilder().state(FileState.MODIFIED).path(path).oldMode("100644").mode("100644")
+          .hunks(hunks).build());
+    }
+    return result;
+  }
+
+  private static String path(Random r, int i) {
+    return "src/module" + r.nextInt(20) + "/pkg" + r.nextInt(50) + "/File" + i + ".java";
+  }
+
+  private static String objectId(Random r) {
+    StringBuilder sb = new StringBuilder(40);
+    for (int i = 0; i < 40; i++)
+      sb.append(Character.forDigit(r.nextInt(16), 16));
+    return sb.toString();
+  }
+
+  private static void write(ByteArrayOutputStream out, String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.write(b, 0, b.length);
+  }
+}
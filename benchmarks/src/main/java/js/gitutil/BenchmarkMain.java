@@ -0,0 +1,32 @@
+package js.gitutil;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, accepting the usual JMH command line options, but
+ * writing the results as JSON to target/jmh-result.json unless told otherwise
+ */
+public final class BenchmarkMain {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    ChainedOptionsBuilder b = new OptionsBuilder().parent(cmd);
+    if (!cmd.getResultFormat().hasValue())
+      b.resultFormat(ResultFormatType.JSON);
+    if (!cmd.getResult().hasValue())
+      b.result("target/jmh-result.json");
+    Runner runner = new Runner(b.build());
+    if (cmd.shouldList())
+      runner.list();
+    else
+      runner.run();
+  }
+}
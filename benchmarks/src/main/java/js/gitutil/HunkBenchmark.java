@@ -0,0 +1,73 @@
+package js.gitutil;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gitutil.gen.Hunk;
+
+/**
+ * hashCode(), equals() and the builder round trip on large hunks, with the
+ * lines stored as Strings (a Hunk's builder, which doesn't cache its hash code)
+ * or packed (a PackedHunk, which computes it once)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HunkBenchmark {
+
+  @Param({ "10000", "1000000" })
+  public int lines;
+
+  @Param({ "strings", "packed" })
+  public String storage;
+
+  @Setup
+  public void setup() {
+    mPacked = storage.equals("packed");
+    if (mPacked) {
+      mPackedHunk = BenchData.packedHunk(lines);
+      mOtherPackedHunk = BenchData.packedHunk(lines);
+    } else {
+      mHunk = BenchData.hunk(lines);
+      // Builders don't cache their hash codes, so each call does the work
+      mBuilder = mHunk.toBuilder();
+      mOtherBuilder = BenchData.hunk(lines).toBuilder();
+    }
+  }
+
+  @Benchmark
+  public int hashCodeOfHunk() {
+    return mPacked ? mPackedHunk.hashCode() : mBuilder.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsEqualHunk() {
+    return mPacked ? mPackedHunk.equals(mOtherPackedHunk) : mBuilder.equals(mOtherBuilder);
+  }
+
+  @Benchmark
+  public Object builderRoundTrip() {
+    return mPacked ? mPackedHunk.toBuilder().build() : mHunk.toBuilder().build();
+  }
+
+  private boolean mPacked;
+  private Hunk mHunk;
+  private Hunk.Builder mBuilder;
+  private Hunk.Builder mOtherBuilder;
+  private PackedHunk mPackedHunk;
+  private PackedHunk mOtherPackedHunk;
+}
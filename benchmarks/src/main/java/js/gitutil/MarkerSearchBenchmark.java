@@ -0,0 +1,80 @@
+package js.gitutil;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import js.data.DataUtil;
+
+/**
+ * Searching a buffer for the marker sentinel alone (the single-pattern engine)
+ * or along with other patterns (the multi-pattern engine), over different
+ * kinds of content
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkerSearchBenchmark {
+
+  private static final int SIZE = 8 * 1024 * 1024;
+
+  private static final List<String> OTHER_PATTERNS = List.of("TODO(", "FIXME", "<<<<<<< ", ">>>>>>> ",
+      "=======\n", "@Deprecated", "XXX:");
+
+  @Param({ "text", "dense", "binary", "utf8" })
+  public String content;
+
+  @Param({ "1", "8" })
+  public int patterns;
+
+  @Setup
+  public void setup() {
+    byte[] marker = DataUtil.toByteArray(GitRepo.MARK_SENTINEL_TEXT);
+    List<byte[]> p = new java.util.ArrayList<>();
+    p.add(marker);
+    for (int i = 0; i < patterns - 1; i++)
+      p.add(DataUtil.toByteArray(OTHER_PATTERNS.get(i)));
+    mEngine = MarkerEngine.forPatterns(p);
+    mBuffer = ByteBuffer.wrap(BenchData.markerContent(content, SIZE, marker));
+  }
+
+  /**
+   * Count every match in the buffer (the throughput is in buffers per second;
+   * each is 8MB)
+   */
+  @Benchmark
+  public int findAll() {
+    int[] count = new int[1];
+    mEngine.scan(mBuffer, 0, SIZE, 0, (pattern, offset) -> {
+      count[0]++;
+      return true;
+    });
+    return count[0];
+  }
+
+  /**
+   * Stop at the first match, as checking whether a file is marked does
+   */
+  @Benchmark
+  public boolean containsAny() {
+    return !mEngine.scan(mBuffer, 0, SIZE, 0, (pattern, offset) -> false);
+  }
+
+  private MarkerEngine mEngine;
+  private ByteBuffer mBuffer;
+}
@@ -0,0 +1,49 @@
+package js.gitutil;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing `git status --porcelain=v2 -z` output of various sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PorcelainParserBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  public int entries;
+
+  @Setup
+  public void setup() {
+    mOutput = BenchData.porcelainOutput(entries);
+  }
+
+  @Benchmark
+  public int parse() {
+    PorcelainParser parser = new PorcelainParser(new ByteArrayInputStream(mOutput));
+    int count = 0;
+    while (parser.hasNext()) {
+      parser.next();
+      count++;
+    }
+    return count;
+  }
+
+  private byte[] mOutput;
+}
@@ -0,0 +1,107 @@
+package js.gitutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gitutil.gen.FileEntry;
+
+/**
+ * The status and marker queries of a GitRepo, end to end, on a synthetic
+ * repository (created in a temporary directory) in which a tenth of the files
+ * are modified and a few contain markers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepoStatusBenchmark {
+
+  @Param({ "1000", "10000" })
+  public int files;
+
+  @Setup
+  public void setup() throws IOException {
+    mDirectory = java.nio.file.Files.createTempDirectory("gitutil-bench").toFile();
+    git("init", "-q");
+    for (int i = 0; i < files; i++)
+      write(i, "file " + i + "\n");
+    git("add", ".");
+    git("-c", "user.name=bench", "-c", "user.email=bench@example.com", "commit", "-q", "-m", "initial");
+    for (int i = 0; i < files; i += 10)
+      write(i, "file " + i + " changed\n" + (i % 100 == 0 ? GitRepo.MARK_SENTINEL_TEXT + "\n" : ""));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = java.nio.file.Files.walk(mDirectory.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Benchmark
+  public List<FileEntry> fileEntries() {
+    GitRepo repo = new GitRepo(mDirectory);
+    try {
+      return repo.fileEntries();
+    } finally {
+      repo.close();
+    }
+  }
+
+  @Benchmark
+  public List<FileEntry> markedFiles() {
+    GitRepo repo = new GitRepo(mDirectory);
+    try {
+      return repo.markedFiles();
+    } finally {
+      repo.close();
+    }
+  }
+
+  private void write(int i, String content) throws IOException {
+    File f = new File(mDirectory, "dir" + (i % 100) + "/file" + i + ".txt");
+    f.getParentFile().mkdirs();
+    java.nio.file.Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void git(String... args) {
+    List<String> command = new ArrayList<>();
+    command.add("git");
+    for (String a : args)
+      command.add(a);
+    try {
+      Process p = new ProcessBuilder(command).directory(mDirectory).inheritIO().start();
+      if (p.waitFor() != 0)
+        throw new IllegalStateException("git failed: " + command);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private File mDirectory;
+}
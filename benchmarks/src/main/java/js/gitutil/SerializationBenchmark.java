@@ -0,0 +1,81 @@
+package js.gitutil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gitutil.gen.FileEntry;
+import js.json.JSMap;
+
+/**
+ * Converting lists of FileEntries (with hunks) to and from JSON, and to and
+ * from EntryCodec's binary form
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({ "100", "10000" })
+  public int files;
+
+  @Setup
+  public void setup() {
+    mEntries = BenchData.fileEntries(files);
+    mJson = toJson();
+    mBinary = EntryCodec.encode(mEntries);
+  }
+
+  @Benchmark
+  public List<JSMap> toJson() {
+    List<JSMap> result = new ArrayList<>(mEntries.size());
+    for (FileEntry ent : mEntries)
+      result.add(ent.toJson());
+    return result;
+  }
+
+  @Benchmark
+  public List<String> toJsonText() {
+    List<String> result = new ArrayList<>(mEntries.size());
+    for (FileEntry ent : mEntries)
+      result.add(ent.toJson().toString());
+    return result;
+  }
+
+  @Benchmark
+  public List<FileEntry> parseJson() {
+    List<FileEntry> result = new ArrayList<>(mJson.size());
+    for (JSMap m : mJson)
+      result.add(FileEntry.DEFAULT_INSTANCE.parse(m));
+    return result;
+  }
+
+  @Benchmark
+  public byte[] encodeBinary() {
+    return EntryCodec.encode(mEntries);
+  }
+
+  @Benchmark
+  public List<FileEntry> decodeBinary() {
+    return EntryCodec.decode(mBinary);
+  }
+
+  private List<FileEntry> mEntries;
+  private List<JSMap> mJson;
+  private byte[] mBinary;
+}
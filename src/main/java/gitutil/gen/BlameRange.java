@@ -0,0 +1,262 @@
+package gitutil.gen;
+
+import js.data.AbstractData;
+import js.json.JSMap;
+
+public class BlameRange implements AbstractData {
+
+  public String commit() {
+    return mCommit;
+  }
+
+  public int line() {
+    return mLine;
+  }
+
+  public int count() {
+    return mCount;
+  }
+
+  public String origPath() {
+    return mOrigPath;
+  }
+
+  public int origLine() {
+    return mOrigLine;
+  }
+
+  public String author() {
+    return mAuthor;
+  }
+
+  public String authorMail() {
+    return mAuthorMail;
+  }
+
+  public long authorTime() {
+    return mAuthorTime;
+  }
+
+  public String summary() {
+    return mSummary;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String COMMIT = "commit";
+  public static final String LINE = "line";
+  public static final String COUNT = "count";
+  public static final String ORIG_PATH = "orig_path";
+  public static final String ORIG_LINE = "orig_line";
+  public static final String AUTHOR = "author";
+  public static final String AUTHOR_MAIL = "author_mail";
+  public static final String AUTHOR_TIME = "author_time";
+  public static final String SUMMARY = "summary";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    m.put(COMMIT, mCommit);
+    m.put(LINE, mLine);
+    m.put(COUNT, mCount);
+    m.put(ORIG_PATH, mOrigPath);
+    m.put(ORIG_LINE, mOrigLine);
+    m.put(AUTHOR, mAuthor);
+    m.put(AUTHOR_MAIL, mAuthorMail);
+    m.put(AUTHOR_TIME, mAuthorTime);
+    m.put(SUMMARY, mSummary);
+    return m;
+  }
+
+  @Override
+  public BlameRange build() {
+    return this;
+  }
+
+  @Override
+  public BlameRange parse(Object obj) {
+    return new BlameRange((JSMap) obj);
+  }
+
+  private BlameRange(JSMap m) {
+    mCommit = m.opt(COMMIT, "");
+    mLine = m.opt(LINE, 0);
+    mCount = m.opt(COUNT, 0);
+    mOrigPath = m.opt(ORIG_PATH, "");
+    mOrigLine = m.opt(ORIG_LINE, 0);
+    mAuthor = m.opt(AUTHOR, "");
+    mAuthorMail = m.opt(AUTHOR_MAIL, "");
+    mAuthorTime = m.opt(AUTHOR_TIME, 0L);
+    mSummary = m.opt(SUMMARY, "");
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof BlameRange))
+      return false;
+    BlameRange other = (BlameRange) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mCommit.equals(other.mCommit)))
+      return false;
+    if (!(mLine == other.mLine))
+      return false;
+    if (!(mCount == other.mCount))
+      return false;
+    if (!(mOrigPath.equals(other.mOrigPath)))
+      return false;
+    if (!(mOrigLine == other.mOrigLine))
+      return false;
+    if (!(mAuthor.equals(other.mAuthor)))
+      return false;
+    if (!(mAuthorMail.equals(other.mAuthorMail)))
+      return false;
+    if (!(mAuthorTime == other.mAuthorTime))
+      return false;
+    if (!(mSummary.equals(other.mSummary)))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      r = r * 37 + mCommit.hashCode();
+      r = r * 37 + mLine;
+      r = r * 37 + mCount;
+      r = r * 37 + mOrigPath.hashCode();
+      r = r * 37 + mOrigLine;
+      r = r * 37 + mAuthor.hashCode();
+      r = r * 37 + mAuthorMail.hashCode();
+      r = r * 37 + (int) mAuthorTime;
+      r = r * 37 + mSummary.hashCode();
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected String mCommit;
+  protected int mLine;
+  protected int mCount;
+  protected String mOrigPath;
+  protected int mOrigLine;
+  protected String mAuthor;
+  protected String mAuthorMail;
+  protected long mAuthorTime;
+  protected String mSummary;
+  protected int m__hashcode;
+
+  public static final class Builder extends BlameRange {
+
+    private Builder(BlameRange m) {
+      mCommit = m.mCommit;
+      mLine = m.mLine;
+      mCount = m.mCount;
+      mOrigPath = m.mOrigPath;
+      mOrigLine = m.mOrigLine;
+      mAuthor = m.mAuthor;
+      mAuthorMail = m.mAuthorMail;
+      mAuthorTime = m.mAuthorTime;
+      mSummary = m.mSummary;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public BlameRange build() {
+      BlameRange r = new BlameRange();
+      r.mCommit = mCommit;
+      r.mLine = mLine;
+      r.mCount = mCount;
+      r.mOrigPath = mOrigPath;
+      r.mOrigLine = mOrigLine;
+      r.mAuthor = mAuthor;
+      r.mAuthorMail = mAuthorMail;
+      r.mAuthorTime = mAuthorTime;
+      r.mSummary = mSummary;
+      return r;
+    }
+
+    public Builder commit(String x) {
+      mCommit = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder line(int x) {
+      mLine = x;
+      return this;
+    }
+
+    public Builder count(int x) {
+      mCount = x;
+      return this;
+    }
+
+    public Builder origPath(String x) {
+      mOrigPath = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder origLine(int x) {
+      mOrigLine = x;
+      return this;
+    }
+
+    public Builder author(String x) {
+      mAuthor = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder authorMail(String x) {
+      mAuthorMail = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder authorTime(long x) {
+      mAuthorTime = x;
+      return this;
+    }
+
+    public Builder summary(String x) {
+      mSummary = (x == null) ? "" : x;
+      return this;
+    }
+
+  }
+
+  public static final BlameRange DEFAULT_INSTANCE = new BlameRange();
+
+  private BlameRange() {
+    mCommit = "";
+    mOrigPath = "";
+    mAuthor = "";
+    mAuthorMail = "";
+    mSummary = "";
+  }
+
+}
@@ -0,0 +1,237 @@
+package gitutil.gen;
+
+import java.util.List;
+import js.data.AbstractData;
+import js.data.DataUtil;
+import js.json.JSList;
+import js.json.JSMap;
+
+public class CommitInfo implements AbstractData {
+
+  public String hash() {
+    return mHash;
+  }
+
+  public String shortHash() {
+    return mShortHash;
+  }
+
+  public List<String> parents() {
+    return mParents;
+  }
+
+  public String authorName() {
+    return mAuthorName;
+  }
+
+  public String authorEmail() {
+    return mAuthorEmail;
+  }
+
+  public long timestamp() {
+    return mTimestamp;
+  }
+
+  public String subject() {
+    return mSubject;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String HASH = "hash";
+  public static final String SHORT_HASH = "short_hash";
+  public static final String PARENTS = "parents";
+  public static final String AUTHOR_NAME = "author_name";
+  public static final String AUTHOR_EMAIL = "author_email";
+  public static final String TIMESTAMP = "timestamp";
+  public static final String SUBJECT = "subject";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    m.put(HASH, mHash);
+    m.put(SHORT_HASH, mShortHash);
+    {
+      JSList j = new JSList();
+      for (String x : mParents)
+        j.add(x);
+      m.put(PARENTS, j);
+    }
+    m.put(AUTHOR_NAME, mAuthorName);
+    m.put(AUTHOR_EMAIL, mAuthorEmail);
+    m.put(TIMESTAMP, mTimestamp);
+    m.put(SUBJECT, mSubject);
+    return m;
+  }
+
+  @Override
+  public CommitInfo build() {
+    return this;
+  }
+
+  @Override
+  public CommitInfo parse(Object obj) {
+    return new CommitInfo((JSMap) obj);
+  }
+
+  private CommitInfo(JSMap m) {
+    mHash = m.opt(HASH, "");
+    mShortHash = m.opt(SHORT_HASH, "");
+    mParents = DataUtil.parseListOfObjects(m.optJSList(PARENTS), false);
+    mAuthorName = m.opt(AUTHOR_NAME, "");
+    mAuthorEmail = m.opt(AUTHOR_EMAIL, "");
+    mTimestamp = m.opt(TIMESTAMP, 0L);
+    mSubject = m.opt(SUBJECT, "");
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof CommitInfo))
+      return false;
+    CommitInfo other = (CommitInfo) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mHash.equals(other.mHash)))
+      return false;
+    if (!(mShortHash.equals(other.mShortHash)))
+      return false;
+    if (!(mParents.equals(other.mParents)))
+      return false;
+    if (!(mAuthorName.equals(other.mAuthorName)))
+      return false;
+    if (!(mAuthorEmail.equals(other.mAuthorEmail)))
+      return false;
+    if (!(mTimestamp == other.mTimestamp))
+      return false;
+    if (!(mSubject.equals(other.mSubject)))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      r = r * 37 + mHash.hashCode();
+      r = r * 37 + mShortHash.hashCode();
+      for (String x : mParents)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      r = r * 37 + mAuthorName.hashCode();
+      r = r * 37 + mAuthorEmail.hashCode();
+      r = r * 37 + (int) mTimestamp;
+      r = r * 37 + mSubject.hashCode();
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected String mHash;
+  protected String mShortHash;
+  protected List<String> mParents;
+  protected String mAuthorName;
+  protected String mAuthorEmail;
+  protected long mTimestamp;
+  protected String mSubject;
+  protected int m__hashcode;
+
+  public static final class Builder extends CommitInfo {
+
+    private Builder(CommitInfo m) {
+      mHash = m.mHash;
+      mShortHash = m.mShortHash;
+      mParents = DataUtil.mutableCopyOf(m.mParents);
+      mAuthorName = m.mAuthorName;
+      mAuthorEmail = m.mAuthorEmail;
+      mTimestamp = m.mTimestamp;
+      mSubject = m.mSubject;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public CommitInfo build() {
+      CommitInfo r = new CommitInfo();
+      r.mHash = mHash;
+      r.mShortHash = mShortHash;
+      r.mParents = DataUtil.immutableCopyOf(mParents);
+      r.mAuthorName = mAuthorName;
+      r.mAuthorEmail = mAuthorEmail;
+      r.mTimestamp = mTimestamp;
+      r.mSubject = mSubject;
+      return r;
+    }
+
+    public Builder hash(String x) {
+      mHash = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder shortHash(String x) {
+      mShortHash = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder parents(List<String> x) {
+      mParents = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder authorName(String x) {
+      mAuthorName = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder authorEmail(String x) {
+      mAuthorEmail = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder timestamp(long x) {
+      mTimestamp = x;
+      return this;
+    }
+
+    public Builder subject(String x) {
+      mSubject = (x == null) ? "" : x;
+      return this;
+    }
+
+  }
+
+  public static final CommitInfo DEFAULT_INSTANCE = new CommitInfo();
+
+  private CommitInfo() {
+    mHash = "";
+    mShortHash = "";
+    mParents = DataUtil.emptyList();
+    mAuthorName = "";
+    mAuthorEmail = "";
+    mSubject = "";
+  }
+
+}
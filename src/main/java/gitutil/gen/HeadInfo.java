@@ -0,0 +1,151 @@
+package gitutil.gen;
+
+import js.data.AbstractData;
+import js.json.JSMap;
+
+public class HeadInfo implements AbstractData {
+
+  public String branch() {
+    return mBranch;
+  }
+
+  public String commitId() {
+    return mCommitId;
+  }
+
+  public boolean detached() {
+    return mDetached;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String BRANCH = "branch";
+  public static final String COMMIT_ID = "commit_id";
+  public static final String DETACHED = "detached";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    m.put(BRANCH, mBranch);
+    m.put(COMMIT_ID, mCommitId);
+    m.put(DETACHED, mDetached);
+    return m;
+  }
+
+  @Override
+  public HeadInfo build() {
+    return this;
+  }
+
+  @Override
+  public HeadInfo parse(Object obj) {
+    return new HeadInfo((JSMap) obj);
+  }
+
+  private HeadInfo(JSMap m) {
+    mBranch = m.opt(BRANCH, "");
+    mCommitId = m.opt(COMMIT_ID, "");
+    mDetached = m.opt(DETACHED, false);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof HeadInfo))
+      return false;
+    HeadInfo other = (HeadInfo) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mBranch.equals(other.mBranch)))
+      return false;
+    if (!(mCommitId.equals(other.mCommitId)))
+      return false;
+    if (!(mDetached == other.mDetached))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      r = r * 37 + mBranch.hashCode();
+      r = r * 37 + mCommitId.hashCode();
+      r = r * 37 + (mDetached ? 1 : 0);
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected String mBranch;
+  protected String mCommitId;
+  protected boolean mDetached;
+  protected int m__hashcode;
+
+  public static final class Builder extends HeadInfo {
+
+    private Builder(HeadInfo m) {
+      mBranch = m.mBranch;
+      mCommitId = m.mCommitId;
+      mDetached = m.mDetached;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public HeadInfo build() {
+      HeadInfo r = new HeadInfo();
+      r.mBranch = mBranch;
+      r.mCommitId = mCommitId;
+      r.mDetached = mDetached;
+      return r;
+    }
+
+    public Builder branch(String x) {
+      mBranch = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder commitId(String x) {
+      mCommitId = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder detached(boolean x) {
+      mDetached = x;
+      return this;
+    }
+
+  }
+
+  public static final HeadInfo DEFAULT_INSTANCE = new HeadInfo();
+
+  private HeadInfo() {
+    mBranch = "";
+    mCommitId = "";
+  }
+
+}
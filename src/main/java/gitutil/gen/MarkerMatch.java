@@ -0,0 +1,150 @@
+package gitutil.gen;
+
+import js.data.AbstractData;
+import js.json.JSMap;
+
+public class MarkerMatch implements AbstractData {
+
+  public String path() {
+    return mPath;
+  }
+
+  public int pattern() {
+    return mPattern;
+  }
+
+  public long offset() {
+    return mOffset;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String PATH = "path";
+  public static final String PATTERN = "pattern";
+  public static final String OFFSET = "offset";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    m.put(PATH, mPath);
+    m.put(PATTERN, mPattern);
+    m.put(OFFSET, mOffset);
+    return m;
+  }
+
+  @Override
+  public MarkerMatch build() {
+    return this;
+  }
+
+  @Override
+  public MarkerMatch parse(Object obj) {
+    return new MarkerMatch((JSMap) obj);
+  }
+
+  private MarkerMatch(JSMap m) {
+    mPath = m.opt(PATH, "");
+    mPattern = m.opt(PATTERN, 0);
+    mOffset = m.opt(OFFSET, 0L);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof MarkerMatch))
+      return false;
+    MarkerMatch other = (MarkerMatch) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mPath.equals(other.mPath)))
+      return false;
+    if (!(mPattern == other.mPattern))
+      return false;
+    if (!(mOffset == other.mOffset))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      r = r * 37 + mPath.hashCode();
+      r = r * 37 + mPattern;
+      r = r * 37 + (int) mOffset;
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected String mPath;
+  protected int mPattern;
+  protected long mOffset;
+  protected int m__hashcode;
+
+  public static final class Builder extends MarkerMatch {
+
+    private Builder(MarkerMatch m) {
+      mPath = m.mPath;
+      mPattern = m.mPattern;
+      mOffset = m.mOffset;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public MarkerMatch build() {
+      MarkerMatch r = new MarkerMatch();
+      r.mPath = mPath;
+      r.mPattern = mPattern;
+      r.mOffset = mOffset;
+      return r;
+    }
+
+    public Builder path(String x) {
+      mPath = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder pattern(int x) {
+      mPattern = x;
+      return this;
+    }
+
+    public Builder offset(long x) {
+      mOffset = x;
+      return this;
+    }
+
+  }
+
+  public static final MarkerMatch DEFAULT_INSTANCE = new MarkerMatch();
+
+  private MarkerMatch() {
+    mPath = "";
+  }
+
+}
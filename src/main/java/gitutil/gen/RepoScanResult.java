@@ -0,0 +1,225 @@
+package gitutil.gen;
+
+import java.util.List;
+import js.data.AbstractData;
+import js.data.DataUtil;
+import js.json.JSList;
+import js.json.JSMap;
+
+public class RepoScanResult implements AbstractData {
+
+  public String root() {
+    return mRoot;
+  }
+
+  public String branch() {
+    return mBranch;
+  }
+
+  public List<FileEntry> entries() {
+    return mEntries;
+  }
+
+  public List<FileEntry> marked() {
+    return mMarked;
+  }
+
+  public long elapsedMs() {
+    return mElapsedMs;
+  }
+
+  public String error() {
+    return mError;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String ROOT = "root";
+  public static final String BRANCH = "branch";
+  public static final String ENTRIES = "entries";
+  public static final String MARKED = "marked";
+  public static final String ELAPSED_MS = "elapsed_ms";
+  public static final String ERROR = "error";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    m.put(ROOT, mRoot);
+    m.put(BRANCH, mBranch);
+    {
+      JSList j = new JSList();
+      for (FileEntry x : mEntries)
+        j.add(x.toJson());
+      m.put(ENTRIES, j);
+    }
+    {
+      JSList j = new JSList();
+      for (FileEntry x : mMarked)
+        j.add(x.toJson());
+      m.put(MARKED, j);
+    }
+    m.put(ELAPSED_MS, mElapsedMs);
+    m.put(ERROR, mError);
+    return m;
+  }
+
+  @Override
+  public RepoScanResult build() {
+    return this;
+  }
+
+  @Override
+  public RepoScanResult parse(Object obj) {
+    return new RepoScanResult((JSMap) obj);
+  }
+
+  private RepoScanResult(JSMap m) {
+    mRoot = m.opt(ROOT, "");
+    mBranch = m.opt(BRANCH, "");
+    mEntries = DataUtil.parseListOfObjects(FileEntry.DEFAULT_INSTANCE, m.optJSList(ENTRIES), false);
+    mMarked = DataUtil.parseListOfObjects(FileEntry.DEFAULT_INSTANCE, m.optJSList(MARKED), false);
+    mElapsedMs = m.opt(ELAPSED_MS, 0L);
+    mError = m.opt(ERROR, "");
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof RepoScanResult))
+      return false;
+    RepoScanResult other = (RepoScanResult) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mRoot.equals(other.mRoot)))
+      return false;
+    if (!(mBranch.equals(other.mBranch)))
+      return false;
+    if (!(mEntries.equals(other.mEntries)))
+      return false;
+    if (!(mMarked.equals(other.mMarked)))
+      return false;
+    if (!(mElapsedMs == other.mElapsedMs))
+      return false;
+    if (!(mError.equals(other.mError)))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      r = r * 37 + mRoot.hashCode();
+      r = r * 37 + mBranch.hashCode();
+      for (FileEntry x : mEntries)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      for (FileEntry x : mMarked)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      r = r * 37 + (int) mElapsedMs;
+      r = r * 37 + mError.hashCode();
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected String mRoot;
+  protected String mBranch;
+  protected List<FileEntry> mEntries;
+  protected List<FileEntry> mMarked;
+  protected long mElapsedMs;
+  protected String mError;
+  protected int m__hashcode;
+
+  public static final class Builder extends RepoScanResult {
+
+    private Builder(RepoScanResult m) {
+      mRoot = m.mRoot;
+      mBranch = m.mBranch;
+      mEntries = DataUtil.mutableCopyOf(m.mEntries);
+      mMarked = DataUtil.mutableCopyOf(m.mMarked);
+      mElapsedMs = m.mElapsedMs;
+      mError = m.mError;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public RepoScanResult build() {
+      RepoScanResult r = new RepoScanResult();
+      r.mRoot = mRoot;
+      r.mBranch = mBranch;
+      r.mEntries = DataUtil.immutableCopyOf(mEntries);
+      r.mMarked = DataUtil.immutableCopyOf(mMarked);
+      r.mElapsedMs = mElapsedMs;
+      r.mError = mError;
+      return r;
+    }
+
+    public Builder root(String x) {
+      mRoot = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder branch(String x) {
+      mBranch = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder entries(List<FileEntry> x) {
+      mEntries = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder marked(List<FileEntry> x) {
+      mMarked = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder elapsedMs(long x) {
+      mElapsedMs = x;
+      return this;
+    }
+
+    public Builder error(String x) {
+      mError = (x == null) ? "" : x;
+      return this;
+    }
+
+  }
+
+  public static final RepoScanResult DEFAULT_INSTANCE = new RepoScanResult();
+
+  private RepoScanResult() {
+    mRoot = "";
+    mBranch = "";
+    mEntries = DataUtil.emptyList();
+    mMarked = DataUtil.emptyList();
+    mError = "";
+  }
+
+}
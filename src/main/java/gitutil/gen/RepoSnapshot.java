@@ -0,0 +1,194 @@
+package gitutil.gen;
+
+import java.util.List;
+import js.data.AbstractData;
+import js.data.DataUtil;
+import js.json.JSList;
+import js.json.JSMap;
+
+public class RepoSnapshot implements AbstractData {
+
+  public List<FileEntry> entries() {
+    return mEntries;
+  }
+
+  public List<FileEntry> untracked() {
+    return mUntracked;
+  }
+
+  public List<FileEntry> unmerged() {
+    return mUnmerged;
+  }
+
+  public long timestampMs() {
+    return mTimestampMs;
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  public static final String ENTRIES = "entries";
+  public static final String UNTRACKED = "untracked";
+  public static final String UNMERGED = "unmerged";
+  public static final String TIMESTAMP_MS = "timestamp_ms";
+
+  @Override
+  public String toString() {
+    return toJson().prettyPrint();
+  }
+
+  @Override
+  public JSMap toJson() {
+    JSMap m = new JSMap();
+    {
+      JSList j = new JSList();
+      for (FileEntry x : mEntries)
+        j.add(x.toJson());
+      m.put(ENTRIES, j);
+    }
+    {
+      JSList j = new JSList();
+      for (FileEntry x : mUntracked)
+        j.add(x.toJson());
+      m.put(UNTRACKED, j);
+    }
+    {
+      JSList j = new JSList();
+      for (FileEntry x : mUnmerged)
+        j.add(x.toJson());
+      m.put(UNMERGED, j);
+    }
+    m.put(TIMESTAMP_MS, mTimestampMs);
+    return m;
+  }
+
+  @Override
+  public RepoSnapshot build() {
+    return this;
+  }
+
+  @Override
+  public RepoSnapshot parse(Object obj) {
+    return new RepoSnapshot((JSMap) obj);
+  }
+
+  private RepoSnapshot(JSMap m) {
+    mEntries = DataUtil.parseListOfObjects(FileEntry.DEFAULT_INSTANCE, m.optJSList(ENTRIES), false);
+    mUntracked = DataUtil.parseListOfObjects(FileEntry.DEFAULT_INSTANCE, m.optJSList(UNTRACKED), false);
+    mUnmerged = DataUtil.parseListOfObjects(FileEntry.DEFAULT_INSTANCE, m.optJSList(UNMERGED), false);
+    mTimestampMs = m.opt(TIMESTAMP_MS, 0L);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(DEFAULT_INSTANCE);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object == null || !(object instanceof RepoSnapshot))
+      return false;
+    RepoSnapshot other = (RepoSnapshot) object;
+    if (other.hashCode() != hashCode())
+      return false;
+    if (!(mEntries.equals(other.mEntries)))
+      return false;
+    if (!(mUntracked.equals(other.mUntracked)))
+      return false;
+    if (!(mUnmerged.equals(other.mUnmerged)))
+      return false;
+    if (!(mTimestampMs == other.mTimestampMs))
+      return false;
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int r = m__hashcode;
+    if (r == 0) {
+      r = 1;
+      for (FileEntry x : mEntries)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      for (FileEntry x : mUntracked)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      for (FileEntry x : mUnmerged)
+        if (x != null)
+          r = r * 37 + x.hashCode();
+      r = r * 37 + (int) mTimestampMs;
+      m__hashcode = r;
+    }
+    return r;
+  }
+
+  protected List<FileEntry> mEntries;
+  protected List<FileEntry> mUntracked;
+  protected List<FileEntry> mUnmerged;
+  protected long mTimestampMs;
+  protected int m__hashcode;
+
+  public static final class Builder extends RepoSnapshot {
+
+    private Builder(RepoSnapshot m) {
+      mEntries = DataUtil.mutableCopyOf(m.mEntries);
+      mUntracked = DataUtil.mutableCopyOf(m.mUntracked);
+      mUnmerged = DataUtil.mutableCopyOf(m.mUnmerged);
+      mTimestampMs = m.mTimestampMs;
+    }
+
+    @Override
+    public Builder toBuilder() {
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      m__hashcode = 0;
+      return super.hashCode();
+    }
+
+    @Override
+    public RepoSnapshot build() {
+      RepoSnapshot r = new RepoSnapshot();
+      r.mEntries = DataUtil.immutableCopyOf(mEntries);
+      r.mUntracked = DataUtil.immutableCopyOf(mUntracked);
+      r.mUnmerged = DataUtil.immutableCopyOf(mUnmerged);
+      r.mTimestampMs = mTimestampMs;
+      return r;
+    }
+
+    public Builder entries(List<FileEntry> x) {
+      mEntries = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder untracked(List<FileEntry> x) {
+      mUntracked = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder unmerged(List<FileEntry> x) {
+      mUnmerged = DataUtil.mutableCopyOf((x == null) ? DataUtil.emptyList() : x);
+      return this;
+    }
+
+    public Builder timestampMs(long x) {
+      mTimestampMs = x;
+      return this;
+    }
+
+  }
+
+  public static final RepoSnapshot DEFAULT_INSTANCE = new RepoSnapshot();
+
+  private RepoSnapshot() {
+    mEntries = DataUtil.emptyList();
+    mUntracked = DataUtil.emptyList();
+    mUnmerged = DataUtil.emptyList();
+  }
+
+}
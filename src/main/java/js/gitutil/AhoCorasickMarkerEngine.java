@@ -0,0 +1,120 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds any number of patterns in a single pass, using an Aho-Corasick
+ * automaton.
+ *
+ * The automaton is compiled into a dense transition table with one row of 256
+ * entries per state, so each input byte costs one table lookup regardless of
+ * its value.
+ */
+final class AhoCorasickMarkerEngine implements MarkerEngine {
+
+  AhoCorasickMarkerEngine(List<byte[]> patterns) {
+    int maxStates = 1;
+    int maxLength = 0;
+    for (byte[] p : patterns) {
+      maxStates += p.length;
+      maxLength = Math.max(maxLength, p.length);
+    }
+    mMaxPatternLength = maxLength;
+    mPatternLengths = new int[patterns.size()];
+
+    // Build the trie; -1 marks a missing edge
+    int[] delta = new int[maxStates << 8];
+    Arrays.fill(delta, -1);
+    int[][] outputs = new int[maxStates][];
+    int stateCount = 1;
+    for (int p = 0; p < patterns.size(); p++) {
+      byte[] pattern = patterns.get(p);
+      mPatternLengths[p] = pattern.length;
+      int state = 0;
+      for (byte b : pattern) {
+        int slot = (state << 8) | (b & 0xff);
+        if (delta[slot] < 0)
+          delta[slot] = stateCount++;
+        state = delta[slot];
+      }
+      outputs[state] = append(outputs[state], p);
+    }
+
+    // Breadth-first, fill in the missing edges from each state's failure state,
+    // and merge in the failure state's outputs
+    int[] fail = new int[stateCount];
+    int[] queue = new int[stateCount];
+    int head = 0;
+    int tail = 0;
+    for (int c = 0; c < 256; c++) {
+      int next = delta[c];
+      if (next < 0)
+        delta[c] = 0;
+      else {
+        fail[next] = 0;
+        queue[tail++] = next;
+      }
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      int[] failOutputs = outputs[fail[state]];
+      if (failOutputs != null)
+        for (int p : failOutputs)
+          outputs[state] = append(outputs[state], p);
+      for (int c = 0; c < 256; c++) {
+        int slot = (state << 8) | c;
+        int next = delta[slot];
+        int fallback = delta[(fail[state] << 8) | c];
+        if (next < 0)
+          delta[slot] = fallback;
+        else {
+          fail[next] = fallback;
+          queue[tail++] = next;
+        }
+      }
+    }
+    mDelta = Arrays.copyOf(delta, stateCount << 8);
+    mOutputs = Arrays.copyOf(outputs, stateCount);
+  }
+
+  private static int[] append(int[] list, int value) {
+    if (list == null)
+      return new int[] { value };
+    int[] result = Arrays.copyOf(list, list.length + 1);
+    result[list.length] = value;
+    return result;
+  }
+
+  @Override
+  public int maxPatternLength() {
+    return mMaxPatternLength;
+  }
+
+  @Override
+  public boolean scan(ByteBuffer bytes, int start, int end, long baseOffset, Listener listener) {
+    checkArgument(start <= end);
+    int[] delta = mDelta;
+    int[][] outputs = mOutputs;
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      state = delta[(state << 8) | (bytes.get(i) & 0xff)];
+      int[] out = outputs[state];
+      if (out != null) {
+        for (int p : out) {
+          if (!listener.match(p, baseOffset + i + 1 - mPatternLengths[p]))
+            return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private final int[] mPatternLengths;
+  private final int mMaxPatternLength;
+  private final int[] mDelta;
+  private final int[][] mOutputs;
+}
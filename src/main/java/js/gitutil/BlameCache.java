@@ -0,0 +1,179 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import gitutil.gen.BlameRange;
+
+/**
+ * A cache of blame results that persists across runs, in a directory within
+ * the .git directory. Each result is keyed by the file's path, the object id of
+ * its working tree version, and the HEAD commit id (which determines the
+ * commits blame reports), so a file is only blamed again once its content
+ * changes or HEAD moves.
+ *
+ * Each result is a separate file (named by a hash of its key), written to a
+ * temporary file and renamed into place, as StatusCache is. Results are
+ * touched when read, and once there are more than MAX_ENTRIES, the least
+ * recently used are deleted. A result that can't be read is ignored, and one
+ * that can't be written is dropped.
+ */
+final class BlameCache {
+
+  static final String DIRECTORY_NAME = "gitutil-blame";
+
+  static final int MAX_ENTRIES = 2000;
+
+  private static final int MAGIC = 0x47554243; // "GUBC"
+  private static final int VERSION = 1;
+
+  BlameCache(File gitDirectory) {
+    mDirectory = new File(gitDirectory, DIRECTORY_NAME);
+  }
+
+  /**
+   * Construct the key for a file's blame; headCommitId is empty if HEAD is
+   * unborn
+   */
+  static String key(String path, String worktreeId, String headCommitId) {
+    return worktreeId + " " + headCommitId + " " + path;
+  }
+
+  /**
+   * Get the cached result for a key, or null if there is none
+   */
+  List<BlameRange> get(String key) {
+    File file = fileFor(key);
+    try (InputStream in = java.nio.file.Files.newInputStream(file.toPath())) {
+      List<BlameRange> result = load(new DataInputStream(new BufferedInputStream(in)), key);
+      if (result != null)
+        file.setLastModified(System.currentTimeMillis());
+      return result;
+    } catch (IOException | RuntimeException e) {
+      // No result, or an unreadable one
+      return null;
+    }
+  }
+
+  /**
+   * Record the result for a key; returns false if it couldn't be written
+   */
+  boolean put(String key, List<BlameRange> ranges) {
+    File file = fileFor(key);
+    Path temp = null;
+    try {
+      mDirectory.mkdirs();
+      temp = java.nio.file.Files.createTempFile(mDirectory.toPath(), file.getName(), ".tmp");
+      try (OutputStream out = java.nio.file.Files.newOutputStream(temp)) {
+        DataOutputStream d = new DataOutputStream(new BufferedOutputStream(out));
+        save(d, key, ranges);
+        d.flush();
+      }
+      try {
+        java.nio.file.Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        java.nio.file.Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (temp != null)
+        temp.toFile().delete();
+    }
+    prune();
+    return true;
+  }
+
+  /**
+   * Delete the least recently used results, if there are too many
+   */
+  private void prune() {
+    File[] files = mDirectory.listFiles();
+    if (files == null || files.length <= MAX_ENTRIES)
+      return;
+    long[] times = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      times[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+    for (int i = 0; i < files.length - MAX_ENTRIES * 3 / 4; i++)
+      files[order[i]].delete();
+  }
+
+  private File fileFor(String key) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+      return new File(mDirectory, BlobHasher.toHex(hash));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Binary format
+  // ------------------------------------------------------------------
+
+  // magic, version, key, range count, then for each range:
+  // commit, line, count, orig_path, orig_line, author, author_mail,
+  // author_time, summary
+
+  private static List<BlameRange> load(DataInputStream in, String key) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key))
+      return null;
+    int count = in.readInt();
+    List<BlameRange> result = arrayList();
+    for (int i = 0; i < count; i++) {
+      BlameRange.Builder b = BlameRange.newBuilder();
+      b.commit(in.readUTF());
+      b.line(in.readInt());
+      b.count(in.readInt());
+      b.origPath(in.readUTF());
+      b.origLine(in.readInt());
+      b.author(in.readUTF());
+      b.authorMail(in.readUTF());
+      b.authorTime(in.readLong());
+      b.summary(in.readUTF());
+      result.add(b.build());
+    }
+    return result;
+  }
+
+  private static void save(DataOutputStream out, String key, List<BlameRange> ranges) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(key);
+    out.writeInt(ranges.size());
+    for (BlameRange r : ranges) {
+      out.writeUTF(r.commit());
+      out.writeInt(r.line());
+      out.writeInt(r.count());
+      out.writeUTF(r.origPath());
+      out.writeInt(r.origLine());
+      out.writeUTF(r.author());
+      out.writeUTF(r.authorMail());
+      out.writeLong(r.authorTime());
+      out.writeUTF(r.summary());
+    }
+  }
+
+  private final File mDirectory;
+}
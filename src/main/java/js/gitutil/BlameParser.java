@@ -0,0 +1,148 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import gitutil.gen.BlameRange;
+
+/**
+ * Parses the output of `git blame --incremental` as it streams from the
+ * process, producing a BlameRange as soon as each group of lines is reported.
+ *
+ * See: https://git-scm.com/docs/git-blame#_the_porcelain_format
+ *
+ * Each group starts with "<commit> <orig line> <final line> <count>", and ends
+ * with a "filename" line. The author and summary lines are only given the
+ * first time a commit appears, so they are remembered for later groups. Groups
+ * are reported in the order git finds them, not by line number.
+ */
+final class BlameParser implements Iterator<BlameRange> {
+
+  BlameParser(InputStream input) {
+    mInput = input;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null)
+      mNext = parseGroup();
+    return mNext != null;
+  }
+
+  @Override
+  public BlameRange next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    BlameRange result = mNext;
+    mNext = null;
+    return result;
+  }
+
+  /**
+   * Parse the next group, or return null if there are no more
+   */
+  private BlameRange parseGroup() {
+    String header = readLine();
+    if (header == null)
+      return null;
+    String[] fields = header.split(" ");
+    checkState(fields.length == 4 && RefResolver.isObjectId(fields[0]), "Unexpected blame output:", header);
+    String commit = fields[0];
+    BlameRange.Builder b = mCommits.get(commit);
+    if (b == null) {
+      b = BlameRange.newBuilder().commit(commit);
+      mCommits.put(commit, b);
+    }
+    b.origLine(Integer.parseInt(fields[1]));
+    b.line(Integer.parseInt(fields[2]));
+    b.count(Integer.parseInt(fields[3]));
+    while (true) {
+      String line = readLine();
+      checkState(line != null, "Unexpected end of blame output");
+      int space = line.indexOf(' ');
+      String key = (space < 0) ? line : line.substring(0, space);
+      String value = (space < 0) ? "" : line.substring(space + 1);
+      switch (key) {
+      case "author":
+        b.author(value);
+        break;
+      case "author-mail":
+        if (value.startsWith("<") && value.endsWith(">"))
+          value = value.substring(1, value.length() - 1);
+        b.authorMail(value);
+        break;
+      case "author-time":
+        b.authorTime(Long.parseLong(value));
+        break;
+      case "summary":
+        b.summary(value);
+        break;
+      case "filename":
+        // Quoted if it contains special characters
+        b.origPath(DiffParser.unquote(value));
+        return b.build();
+      default:
+        // committer, previous, boundary, etc.
+        break;
+      }
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Byte-level input
+  // ------------------------------------------------------------------
+
+  private int read() {
+    if (mCursor == mLimit) {
+      try {
+        mLimit = mInput.read(mBuffer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      mCursor = 0;
+      if (mLimit <= 0) {
+        mLimit = 0;
+        return -1;
+      }
+    }
+    return mBuffer[mCursor++] & 0xff;
+  }
+
+  /**
+   * Read a line (without its terminating newline), or null if the output has
+   * ended
+   */
+  private String readLine() {
+    int length = 0;
+    while (true) {
+      int c = read();
+      if (c < 0) {
+        if (length == 0)
+          return null;
+        break;
+      }
+      if (c == '\n')
+        break;
+      if (length == mLineBuffer.length)
+        mLineBuffer = Arrays.copyOf(mLineBuffer, length * 2);
+      mLineBuffer[length++] = (byte) c;
+    }
+    return new String(mLineBuffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private final InputStream mInput;
+  private final byte[] mBuffer = new byte[8 * 1024];
+  private int mCursor;
+  private int mLimit;
+  private byte[] mLineBuffer = new byte[256];
+  private final Map<String, BlameRange.Builder> mCommits = hashMap();
+  private BlameRange mNext;
+}
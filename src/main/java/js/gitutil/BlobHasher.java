@@ -0,0 +1,185 @@
+package js.gitutil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import js.json.JSMap;
+
+/**
+ * Computes the object ids that working tree files would have as git blobs,
+ * i.e. the SHA-1 of "blob <size>\0" followed by the content.
+ *
+ * Files are spread across a fork-join pool, and each thread has its own
+ * MessageDigest and read buffer. Small files are read into the buffer; larger
+ * ones are memory mapped (a region at a time) and fed to the digest directly.
+ * The files and bytes hashed, and the time taken, are accumulated, so the
+ * throughput can be reported.
+ */
+final class BlobHasher {
+
+  /**
+   * Files no larger than this are read into a reusable buffer instead of being
+   * mapped
+   */
+  static final int SMALL_FILE_SIZE = 64 * 1024;
+
+  /**
+   * The size of the regions large files are mapped in
+   */
+  static final int REGION_SIZE = 64 * 1024 * 1024;
+
+  void setMetrics(Metrics metrics) {
+    mMetrics = metrics;
+  }
+
+  /**
+   * Hash a list of files in parallel. A symbolic link's target (rather than
+   * the file it refers to) is hashed if symbolicLinks is non-null and has its
+   * flag set. The hash of a file that doesn't exist, or can't be read as
+   * expected, is null
+   */
+  byte[][] hashAll(List<Path> paths, boolean[] symbolicLinks) {
+    byte[][] result = new byte[paths.size()][];
+    if (paths.isEmpty())
+      return result;
+    long startTime = System.nanoTime();
+    LongAdder bytes = new LongAdder();
+    ForkJoinPool.commonPool().invoke(new HashTask(0, paths.size(), i -> {
+      result[i] = hash(paths.get(i), symbolicLinks != null && symbolicLinks[i], bytes);
+    }));
+    long elapsed = System.nanoTime() - startTime;
+    mFiles.add(paths.size());
+    mBytes.add(bytes.sum());
+    mNanos.add(elapsed);
+    Metrics metrics = mMetrics;
+    metrics.count("hash.files", paths.size());
+    metrics.count("hash.bytes", bytes.sum());
+    metrics.record("hash", elapsed);
+    return result;
+  }
+
+  /**
+   * Get the number of files and bytes hashed so far, the (wall clock) time
+   * taken, and the resulting throughput in MB/s
+   */
+  JSMap stats() {
+    long bytes = mBytes.sum();
+    long nanos = mNanos.sum();
+    JSMap m = new JSMap();
+    m.put("files", mFiles.sum());
+    m.put("bytes", bytes);
+    m.put("ms", nanos / 1000000);
+    m.put("mb_per_sec", nanos == 0 ? 0 : Math.round(bytes * 1000.0 / nanos * 10) / 10.0);
+    return m;
+  }
+
+  /**
+   * Convert a hash to a hex string
+   */
+  static String toHex(byte[] hash) {
+    StringBuilder sb = new StringBuilder(2 * hash.length);
+    for (byte b : hash)
+      sb.append(HEX_DIGITS[(b >> 4) & 15]).append(HEX_DIGITS[b & 15]);
+    return sb.toString();
+  }
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // ------------------------------------------------------------------
+  // Hashing
+  // ------------------------------------------------------------------
+
+  private static byte[] hash(Path path, boolean symbolicLink, LongAdder bytes) {
+    MessageDigest digest = sDigest.get();
+    digest.reset();
+    try {
+      if (symbolicLink) {
+        byte[] target = java.nio.file.Files.readSymbolicLink(path).toString().getBytes(StandardCharsets.UTF_8);
+        bytes.add(target.length);
+        digest.update(header(target.length));
+        return digest.digest(target);
+      }
+      try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = ch.size();
+        digest.update(header(size));
+        if (size <= SMALL_FILE_SIZE) {
+          ByteBuffer buffer = sBuffer.get();
+          buffer.clear();
+          while (buffer.position() < size) {
+            if (ch.read(buffer) < 0)
+              break;
+          }
+          // The file was truncated after its size was read
+          if (buffer.position() != size)
+            return null;
+          buffer.flip();
+          digest.update(buffer);
+        } else {
+          for (long start = 0; start < size; start += REGION_SIZE)
+            digest.update(ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start)));
+        }
+        bytes.add(size);
+        return digest.digest();
+      }
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      // A directory where a file was expected, an unreadable file, etc.
+      return null;
+    }
+  }
+
+  private static byte[] header(long size) {
+    return ("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static final class HashTask extends RecursiveAction {
+
+    HashTask(int start, int end, IntConsumer action) {
+      mStart = start;
+      mEnd = end;
+      mAction = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (mEnd - mStart > 1) {
+        int mid = (mStart + mEnd) >>> 1;
+        invokeAll(new HashTask(mStart, mid, mAction), new HashTask(mid, mEnd, mAction));
+      } else
+        mAction.accept(mStart);
+    }
+
+    private final int mStart;
+    private final int mEnd;
+    private final IntConsumer mAction;
+  }
+
+  private static final ThreadLocal<MessageDigest> sDigest = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  private static final ThreadLocal<ByteBuffer> sBuffer = ThreadLocal
+      .withInitial(() -> ByteBuffer.allocate(SMALL_FILE_SIZE));
+
+  private volatile Metrics mMetrics = Metrics.DISABLED;
+  private final LongAdder mFiles = new LongAdder();
+  private final LongAdder mBytes = new LongAdder();
+  private final LongAdder mNanos = new LongAdder();
+}
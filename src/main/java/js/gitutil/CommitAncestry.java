@@ -0,0 +1,485 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers ancestry questions (is-ancestor, merge base, ahead/behind counts)
+ * in-process, using the repository's commit-graph.
+ *
+ * Commits are identified by ints: those in the graph by their graph
+ * positions, and any made since the graph was written (which we parse from the
+ * object database) by numbers following those. The walks keep their state in
+ * int arrays indexed by these numbers, and visit commits in order of
+ * decreasing generation number, which lets them stop as soon as the remaining
+ * commits can't affect the answer.
+ *
+ * The graph is reopened if git rewrites it. If the repository has no graph (or
+ * one without generation numbers), open() returns null and callers should ask
+ * git instead.
+ */
+final class CommitAncestry {
+
+  // The most commits outside the graph we'll parse before giving up
+  private static final int MAX_EXTRA_COMMITS = 10000;
+
+  private static final int PARENT1 = 1 << 0;
+  private static final int PARENT2 = 1 << 1;
+  private static final int STALE = 1 << 2;
+  private static final int RESULT = 1 << 3;
+  private static final int SEEN = 1 << 4;
+
+  /**
+   * Get the ancestry queries for an object database, or null if it has no
+   * usable commit-graph
+   */
+  static CommitAncestry open(File objectsDirectory, ObjectReader reader) {
+    CommitGraph graph = CommitGraph.open(objectsDirectory);
+    if (graph == null || !graph.generationsComplete())
+      return null;
+    return new CommitAncestry(objectsDirectory, graph, reader);
+  }
+
+  private CommitAncestry(File objectsDirectory, CommitGraph graph, ObjectReader reader) {
+    mObjectsDirectory = objectsDirectory;
+    mGraphStamp = graphStamp(objectsDirectory);
+    mGraph = graph;
+    mReader = reader;
+    mParentBuffer = new int[graph.maxParents()];
+    mFlags = new int[graph.size()];
+    mQueueCounts = new int[graph.size()];
+  }
+
+  /**
+   * Determine whether the graph files have changed since this was opened
+   */
+  boolean stale() {
+    return !graphStamp(mObjectsDirectory).equals(mGraphStamp);
+  }
+
+  /**
+   * Determine whether one commit is an ancestor of (or the same as) another
+   */
+  synchronized boolean isAncestor(String ancestorId, String descendantId) {
+    return isAncestor(node(ancestorId), node(descendantId));
+  }
+
+  /**
+   * Find the best common ancestor of two commits, or null if they have none.
+   * Where there are several, returns the one `git merge-base` would
+   */
+  synchronized String mergeBase(String idA, String idB) {
+    int a = node(idA);
+    int b = node(idB);
+    if (a == b)
+      return idA;
+
+    List<Integer> found = arrayList();
+    try {
+      push(a, PARENT1);
+      push(b, PARENT2);
+      while (mNonStale > 0) {
+        int x = pop();
+        int f = mFlags[x] & (PARENT1 | PARENT2 | STALE);
+        if ((f & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+          if ((mFlags[x] & RESULT) == 0) {
+            addFlags(x, RESULT);
+            found.add(x);
+          }
+          f |= STALE;
+        }
+        int count = parents(x);
+        for (int i = 0; i < count; i++) {
+          int p = mParentBuffer[i];
+          if ((mFlags[p] & f) == f)
+            continue;
+          push(p, f);
+        }
+      }
+      // Discard bases reachable from other bases
+      List<Integer> bases = arrayList();
+      for (int x : found)
+        if ((mFlags[x] & STALE) == 0)
+          bases.add(x);
+      reset();
+      if (bases.isEmpty())
+        return null;
+      bases.sort((x, y) -> Long.compare(commitTime(y), commitTime(x)));
+      for (int x : bases) {
+        boolean redundant = false;
+        for (int y : bases)
+          if (y != x && isAncestor(x, y)) {
+            redundant = true;
+            break;
+          }
+        if (!redundant)
+          return hex(x);
+      }
+      throw badState("no merge base found among candidates");
+    } finally {
+      reset();
+    }
+  }
+
+  /**
+   * Count the commits reachable from one commit but not another, and vice
+   * versa (as `git rev-list --left-right --count a...b` does). Returns {ahead,
+   * behind}
+   */
+  synchronized int[] aheadBehind(String idA, String idB) {
+    int a = node(idA);
+    int b = node(idB);
+    int ahead = 0;
+    int behind = 0;
+    if (a == b)
+      return new int[] { ahead, behind };
+    try {
+      push(a, PARENT1);
+      push(b, PARENT2);
+      while (mNonStale > 0) {
+        int x = pop();
+        if ((mFlags[x] & SEEN) != 0)
+          continue;
+        // All of x's descendants have greater generations, so have been
+        // visited already and x's flags are final
+        mFlags[x] |= SEEN;
+        int f = mFlags[x] & (PARENT1 | PARENT2 | STALE);
+        if (f == PARENT1)
+          ahead++;
+        else if (f == PARENT2)
+          behind++;
+        int count = parents(x);
+        for (int i = 0; i < count; i++) {
+          int p = mParentBuffer[i];
+          if ((mFlags[p] & f) == f)
+            continue;
+          // Once both sides reach a commit, nothing below it is counted
+          int g = f;
+          if (((mFlags[p] | f) & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2))
+            g |= STALE;
+          push(p, g);
+        }
+      }
+    } finally {
+      reset();
+    }
+    return new int[] { ahead, behind };
+  }
+
+  // ------------------------------------------------------------------
+  // Walks
+  // ------------------------------------------------------------------
+
+  private boolean isAncestor(int ancestor, int descendant) {
+    if (ancestor == descendant)
+      return true;
+    int minGeneration = generation(ancestor);
+    if (generation(descendant) <= minGeneration)
+      return false;
+    int[] stack = new int[64];
+    int size = 0;
+    try {
+      stack[size++] = descendant;
+      addFlags(descendant, SEEN);
+      while (size > 0) {
+        int x = stack[--size];
+        int count = parents(x);
+        for (int i = 0; i < count; i++) {
+          int p = mParentBuffer[i];
+          if (p == ancestor)
+            return true;
+          // A commit can only reach those with smaller generations
+          if ((mFlags[p] & SEEN) != 0 || generation(p) <= minGeneration)
+            continue;
+          addFlags(p, SEEN);
+          if (size == stack.length)
+            stack = Arrays.copyOf(stack, size * 2);
+          stack[size++] = p;
+        }
+      }
+      return false;
+    } finally {
+      reset();
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Flags, and a priority queue ordered by generation then commit time
+  // ------------------------------------------------------------------
+
+  private void addFlags(int x, int flags) {
+    int old = mFlags[x];
+    if (old == 0)
+      touch(x);
+    mFlags[x] = old | flags;
+    if ((old & STALE) == 0 && (flags & STALE) != 0)
+      mNonStale -= mQueueCounts[x];
+  }
+
+  private void push(int x, int flags) {
+    addFlags(x, flags);
+    if (mQueueSize == mQueue.length) {
+      mQueue = Arrays.copyOf(mQueue, mQueueSize * 2);
+      mQueueOrder = Arrays.copyOf(mQueueOrder, mQueueSize * 2);
+    }
+    int order = mQueueInsertions++;
+    int i = mQueueSize++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!before(x, order, mQueue[parent], mQueueOrder[parent]))
+        break;
+      mQueue[i] = mQueue[parent];
+      mQueueOrder[i] = mQueueOrder[parent];
+      i = parent;
+    }
+    mQueue[i] = x;
+    mQueueOrder[i] = order;
+    mQueueCounts[x]++;
+    if ((mFlags[x] & STALE) == 0)
+      mNonStale++;
+  }
+
+  private int pop() {
+    int result = mQueue[0];
+    mQueueSize--;
+    int x = mQueue[mQueueSize];
+    int order = mQueueOrder[mQueueSize];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= mQueueSize)
+        break;
+      if (child + 1 < mQueueSize && before(mQueue[child + 1], mQueueOrder[child + 1], mQueue[child], mQueueOrder[child]))
+        child++;
+      if (!before(mQueue[child], mQueueOrder[child], x, order))
+        break;
+      mQueue[i] = mQueue[child];
+      mQueueOrder[i] = mQueueOrder[child];
+      i = child;
+    }
+    mQueue[i] = x;
+    mQueueOrder[i] = order;
+    mQueueCounts[result]--;
+    if ((mFlags[result] & STALE) == 0)
+      mNonStale--;
+    return result;
+  }
+
+  /**
+   * Determine whether one queue entry comes before another: in order of
+   * decreasing generation, then commit time, then (as git's queue does) order
+   * of insertion
+   */
+  private boolean before(int x, int xOrder, int y, int yOrder) {
+    int gx = generation(x);
+    int gy = generation(y);
+    if (gx != gy)
+      return gx > gy;
+    long tx = commitTime(x);
+    long ty = commitTime(y);
+    if (tx != ty)
+      return tx > ty;
+    return xOrder < yOrder;
+  }
+
+  private void touch(int x) {
+    if (mTouchedCount == mTouched.length)
+      mTouched = Arrays.copyOf(mTouched, mTouchedCount * 2);
+    mTouched[mTouchedCount++] = x;
+  }
+
+  private void reset() {
+    for (int i = 0; i < mTouchedCount; i++) {
+      int x = mTouched[i];
+      mFlags[x] = 0;
+      mQueueCounts[x] = 0;
+    }
+    mTouchedCount = 0;
+    mQueueSize = 0;
+    mQueueInsertions = 0;
+    mNonStale = 0;
+  }
+
+  // ------------------------------------------------------------------
+  // Commits, in and outside the graph
+  // ------------------------------------------------------------------
+
+  private int generation(int x) {
+    if (x < mGraph.size())
+      return mGraph.generation(x);
+    return mExtraGenerations[x - mGraph.size()];
+  }
+
+  private long commitTime(int x) {
+    if (x < mGraph.size())
+      return mGraph.commitTime(x);
+    return mExtraTimes[x - mGraph.size()];
+  }
+
+  /**
+   * Store a commit's parents in mParentBuffer, and return how many it has
+   */
+  private int parents(int x) {
+    if (x < mGraph.size())
+      return mGraph.parents(x, mParentBuffer);
+    int[] parents = mExtraParents[x - mGraph.size()];
+    System.arraycopy(parents, 0, mParentBuffer, 0, parents.length);
+    return parents.length;
+  }
+
+  private String hex(int x) {
+    if (x < mGraph.size()) {
+      byte[] id = mGraph.id(x);
+      StringBuilder sb = new StringBuilder(2 * id.length);
+      for (byte b : id)
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return sb.toString();
+    }
+    return mExtraIds.get(x - mGraph.size());
+  }
+
+  /**
+   * Get the number of a commit, given its id, parsing it (and any of its
+   * ancestors that are also missing from the graph) if necessary
+   */
+  private int node(String id) {
+    checkArgument(RefResolver.isObjectId(id) && id.length() == 2 * CommitGraph.HASH_LENGTH, "not a commit id:",
+        id);
+    int x = mGraph.position(parseHex(id));
+    if (x >= 0)
+      return x;
+    Integer extra = mExtraNodes.get(id);
+    if (extra != null)
+      return extra;
+
+    // Parse the commit and its missing ancestors, assigning numbers to each
+    // once its parents have them (so its generation can be computed)
+    List<String> stack = arrayList();
+    Map<String, List<String>> parsed = hashMap();
+    Map<String, Long> times = hashMap();
+    stack.add(id);
+    while (!stack.isEmpty()) {
+      String c = stack.get(stack.size() - 1);
+      if (mExtraNodes.containsKey(c)) {
+        stack.remove(stack.size() - 1);
+        continue;
+      }
+      List<String> parentIds = parsed.get(c);
+      if (parentIds == null) {
+        parentIds = parseCommit(c, times);
+        parsed.put(c, parentIds);
+      }
+      boolean ready = true;
+      for (String p : parentIds) {
+        if (mGraph.position(parseHex(p)) < 0 && !mExtraNodes.containsKey(p)) {
+          // Any commit on the stack that's been parsed is a descendant of p
+          checkState(!parsed.containsKey(p), "cycle in commit history at", p);
+          stack.add(p);
+          ready = false;
+        }
+      }
+      if (!ready)
+        continue;
+      stack.remove(stack.size() - 1);
+      addExtraCommit(c, parentIds, times.get(c));
+    }
+    return mExtraNodes.get(id);
+  }
+
+  private List<String> parseCommit(String id, Map<String, Long> times) {
+    checkState(mExtraIds.size() < MAX_EXTRA_COMMITS, "too many commits missing from the commit-graph");
+    ObjectReader.RawObject obj = mReader.read(id);
+    checkState(obj != null && obj.type() == ObjectReader.TYPE_COMMIT, "no such commit:", id);
+    List<String> parents = arrayList();
+    long time = 0;
+    String text = new String(obj.content(), StandardCharsets.UTF_8);
+    for (String line : split(text, '\n')) {
+      // The headers end at the first blank line
+      if (line.isEmpty())
+        break;
+      if (line.startsWith("parent "))
+        parents.add(line.substring("parent ".length()));
+      else if (line.startsWith("committer ")) {
+        // "committer <name> <email> <seconds> <timezone>"
+        List<String> fields = split(line, ' ');
+        time = Long.parseLong(fields.get(fields.size() - 2));
+      }
+    }
+    times.put(id, time);
+    return parents;
+  }
+
+  private void addExtraCommit(String id, List<String> parentIds, long time) {
+    int[] parents = new int[parentIds.size()];
+    int generation = 0;
+    for (int i = 0; i < parents.length; i++) {
+      int p = node(parentIds.get(i));
+      parents[i] = p;
+      generation = Math.max(generation, generation(p));
+    }
+    int x = mGraph.size() + mExtraIds.size();
+    if (mExtraIds.size() == mExtraParents.length) {
+      int capacity = Math.max(16, mExtraParents.length * 2);
+      mExtraParents = Arrays.copyOf(mExtraParents, capacity);
+      mExtraGenerations = Arrays.copyOf(mExtraGenerations, capacity);
+      mExtraTimes = Arrays.copyOf(mExtraTimes, capacity);
+      mFlags = Arrays.copyOf(mFlags, mGraph.size() + capacity);
+      mQueueCounts = Arrays.copyOf(mQueueCounts, mGraph.size() + capacity);
+    }
+    mExtraParents[mExtraIds.size()] = parents;
+    mExtraGenerations[mExtraIds.size()] = generation + 1;
+    mExtraTimes[mExtraIds.size()] = time;
+    mExtraIds.add(id);
+    mExtraNodes.put(id, x);
+    if (parents.length > mParentBuffer.length)
+      mParentBuffer = new int[parents.length];
+  }
+
+  private static byte[] parseHex(String hex) {
+    byte[] result = new byte[hex.length() / 2];
+    for (int i = 0; i < result.length; i++)
+      result[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+    return result;
+  }
+
+  /**
+   * Summarize the modification times and sizes of the graph files, to detect
+   * when they've been rewritten
+   */
+  private static String graphStamp(File objectsDirectory) {
+    File info = new File(objectsDirectory, "info");
+    StringBuilder sb = new StringBuilder();
+    for (File f : new File[] { new File(info, "commit-graph"), new File(info, "commit-graphs/commit-graph-chain") })
+      sb.append(f.lastModified()).append(':').append(f.length()).append(' ');
+    return sb.toString();
+  }
+
+  private final File mObjectsDirectory;
+  private final String mGraphStamp;
+  private final CommitGraph mGraph;
+  private final ObjectReader mReader;
+  private int[] mParentBuffer;
+
+  // Commits that aren't in the graph
+  private final Map<String, Integer> mExtraNodes = hashMap();
+  private final List<String> mExtraIds = arrayList();
+  private int[][] mExtraParents = new int[0][];
+  private int[] mExtraGenerations = new int[0];
+  private long[] mExtraTimes = new long[0];
+
+  // Walk state
+  private int[] mFlags;
+  private int[] mQueueCounts;
+  private int[] mQueue = new int[64];
+  private int[] mQueueOrder = new int[64];
+  private int mQueueSize;
+  private int mQueueInsertions;
+  private int mNonStale;
+  private int[] mTouched = new int[64];
+  private int mTouchedCount;
+}
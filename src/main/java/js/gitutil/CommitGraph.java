@@ -0,0 +1,292 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads a repository's commit-graph: either the single file
+ * .git/objects/info/commit-graph, or a chain of split graph files listed in
+ * .git/objects/info/commit-graphs/commit-graph-chain. The files are memory
+ * mapped, and commits are identified by their position within the graph (the
+ * positions of a split chain's layers following on from those of the layers
+ * below them).
+ *
+ * See https://git-scm.com/docs/gitformat-commit-graph
+ */
+final class CommitGraph {
+
+  static final int HASH_LENGTH = 20;
+
+  private static final int SIGNATURE = 0x43475048; // "CGPH"
+  private static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+  private static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+  private static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+  private static final int CHUNK_EXTRA_EDGES = 0x45444745; // "EDGE"
+
+  private static final int PARENT_NONE = 0x70000000;
+  private static final int EXTRA_EDGES_FLAG = 0x80000000;
+  private static final int LAST_EDGE_FLAG = 0x80000000;
+
+  private static final int COMMIT_DATA_WIDTH = HASH_LENGTH + 16;
+
+  /**
+   * Open the commit-graph of an object database, or return null if it has none
+   * (or it uses an unsupported version or hash)
+   */
+  static CommitGraph open(File objectsDirectory) {
+    File info = new File(objectsDirectory, "info");
+    List<File> files = arrayList();
+    File chain = new File(info, "commit-graphs/commit-graph-chain");
+    try {
+      if (chain.isFile()) {
+        for (String line : java.nio.file.Files.readAllLines(chain.toPath(), StandardCharsets.UTF_8)) {
+          line = line.trim();
+          if (!line.isEmpty())
+            files.add(new File(info, "commit-graphs/graph-" + line + ".graph"));
+        }
+      } else {
+        File single = new File(info, "commit-graph");
+        if (!single.isFile())
+          return null;
+        files.add(single);
+      }
+      Layer[] layers = new Layer[files.size()];
+      int base = 0;
+      for (int i = 0; i < layers.length; i++) {
+        layers[i] = Layer.open(files.get(i), base);
+        if (layers[i] == null)
+          return null;
+        base += layers[i].mCount;
+      }
+      return new CommitGraph(layers, base);
+    } catch (NoSuchFileException e) {
+      // The graph was replaced as we were reading it
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private CommitGraph(Layer[] layers, int count) {
+    mLayers = layers;
+    mCount = count;
+    boolean complete = true;
+    for (Layer layer : layers)
+      complete &= layer.mGenerationsComplete;
+    mGenerationsComplete = complete;
+  }
+
+  /**
+   * Get the number of commits in the graph
+   */
+  int size() {
+    return mCount;
+  }
+
+  /**
+   * Determine whether every commit has a generation number (older versions of
+   * git wrote graphs without them)
+   */
+  boolean generationsComplete() {
+    return mGenerationsComplete;
+  }
+
+  /**
+   * Find a commit's position, or -1 if it isn't in the graph
+   */
+  int position(byte[] id) {
+    // Search the newest layer first, as it is the smallest
+    for (int i = mLayers.length - 1; i >= 0; i--) {
+      int local = mLayers[i].find(id);
+      if (local >= 0)
+        return mLayers[i].mBase + local;
+    }
+    return -1;
+  }
+
+  byte[] id(int position) {
+    Layer layer = layer(position);
+    byte[] id = new byte[HASH_LENGTH];
+    MappedByteBuffer b = layer.mBuffer;
+    int offset = layer.mLookup + (position - layer.mBase) * HASH_LENGTH;
+    for (int i = 0; i < HASH_LENGTH; i++)
+      id[i] = b.get(offset + i);
+    return id;
+  }
+
+  /**
+   * Get a commit's parents' positions (first parent first)
+   */
+  int parents(int position, int[] result) {
+    Layer layer = layer(position);
+    MappedByteBuffer b = layer.mBuffer;
+    int data = layer.mData + (position - layer.mBase) * COMMIT_DATA_WIDTH + HASH_LENGTH;
+    int first = b.getInt(data);
+    if (first == PARENT_NONE)
+      return 0;
+    result[0] = first;
+    int second = b.getInt(data + 4);
+    if (second == PARENT_NONE)
+      return 1;
+    if ((second & EXTRA_EDGES_FLAG) == 0) {
+      result[1] = second;
+      return 2;
+    }
+    checkState(layer.mEdges >= 0, "missing extra edges chunk");
+    int count = 1;
+    int edge = layer.mEdges + (second & ~EXTRA_EDGES_FLAG) * 4;
+    while (true) {
+      int value = b.getInt(edge);
+      result[count++] = value & ~LAST_EDGE_FLAG;
+      if ((value & LAST_EDGE_FLAG) != 0)
+        return count;
+      edge += 4;
+    }
+  }
+
+  /**
+   * The most parents a commit might have (for sizing the array passed to
+   * parents())
+   */
+  int maxParents() {
+    int max = 2;
+    for (Layer layer : mLayers)
+      max = Math.max(max, layer.mEdgeCount + 1);
+    return max;
+  }
+
+  /**
+   * Get a commit's generation number (its topological level: one more than
+   * that of its highest parent), or zero if it wasn't computed
+   */
+  int generation(int position) {
+    Layer layer = layer(position);
+    int data = layer.mData + (position - layer.mBase) * COMMIT_DATA_WIDTH + HASH_LENGTH + 8;
+    return layer.mBuffer.getInt(data) >>> 2;
+  }
+
+  /**
+   * Get a commit's committer date, in seconds since the epoch
+   */
+  long commitTime(int position) {
+    Layer layer = layer(position);
+    int data = layer.mData + (position - layer.mBase) * COMMIT_DATA_WIDTH + HASH_LENGTH + 8;
+    long high = layer.mBuffer.getInt(data) & 3;
+    return (high << 32) | (layer.mBuffer.getInt(data + 4) & 0xffffffffL);
+  }
+
+  private Layer layer(int position) {
+    for (int i = mLayers.length - 1; i >= 0; i--)
+      if (position >= mLayers[i].mBase)
+        return mLayers[i];
+    throw badArg("bad commit graph position:", position);
+  }
+
+  /**
+   * A single graph file
+   */
+  private static final class Layer {
+
+    static Layer open(File file, int base) throws IOException {
+      MappedByteBuffer b;
+      try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        if (ch.size() > Integer.MAX_VALUE)
+          return null;
+        b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      }
+      // Header: signature, version, hash version, chunk count, base graph count
+      if (b.getInt(0) != SIGNATURE || b.get(4) != 1 || b.get(5) != 1)
+        return null;
+      int chunkCount = b.get(6) & 0xff;
+      int fanout = -1;
+      int lookup = -1;
+      int data = -1;
+      int edges = -1;
+      int edgesEnd = -1;
+      for (int i = 0; i < chunkCount; i++) {
+        int entry = 8 + i * 12;
+        int id = b.getInt(entry);
+        int offset = (int) b.getLong(entry + 4);
+        int end = (int) b.getLong(entry + 12 + 4);
+        if (id == CHUNK_OID_FANOUT)
+          fanout = offset;
+        else if (id == CHUNK_OID_LOOKUP)
+          lookup = offset;
+        else if (id == CHUNK_COMMIT_DATA)
+          data = offset;
+        else if (id == CHUNK_EXTRA_EDGES) {
+          edges = offset;
+          edgesEnd = end;
+        }
+      }
+      checkState(fanout >= 0 && lookup >= 0 && data >= 0, "missing commit graph chunks in", file);
+      return new Layer(b, base, fanout, lookup, data, edges, edges < 0 ? 0 : (edgesEnd - edges) / 4);
+    }
+
+    private Layer(MappedByteBuffer buffer, int base, int fanout, int lookup, int data, int edges, int edgeCount) {
+      mBuffer = buffer;
+      mBase = base;
+      mFanout = fanout;
+      mLookup = lookup;
+      mData = data;
+      mEdges = edges;
+      mEdgeCount = edgeCount;
+      mCount = buffer.getInt(fanout + 255 * 4);
+      boolean complete = true;
+      for (int i = 0; i < mCount && complete; i++)
+        complete = (buffer.getInt(data + i * COMMIT_DATA_WIDTH + HASH_LENGTH + 8) >>> 2) != 0;
+      mGenerationsComplete = complete;
+    }
+
+    int find(byte[] id) {
+      int first = id[0] & 0xff;
+      int lo = (first == 0) ? 0 : mBuffer.getInt(mFanout + (first - 1) * 4);
+      int hi = mBuffer.getInt(mFanout + first * 4) - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int cmp = compare(mid, id);
+        if (cmp < 0)
+          lo = mid + 1;
+        else if (cmp > 0)
+          hi = mid - 1;
+        else
+          return mid;
+      }
+      return -1;
+    }
+
+    private int compare(int i, byte[] id) {
+      int pos = mLookup + i * HASH_LENGTH;
+      for (int j = 0; j < HASH_LENGTH; j++) {
+        int a = mBuffer.get(pos + j) & 0xff;
+        int b = id[j] & 0xff;
+        if (a != b)
+          return a - b;
+      }
+      return 0;
+    }
+
+    final MappedByteBuffer mBuffer;
+    final int mBase;
+    final int mFanout;
+    final int mLookup;
+    final int mData;
+    final int mEdges;
+    final int mEdgeCount;
+    final int mCount;
+    final boolean mGenerationsComplete;
+  }
+
+  private final Layer[] mLayers;
+  private final int mCount;
+  private final boolean mGenerationsComplete;
+}
@@ -0,0 +1,151 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import gitutil.gen.CommitInfo;
+
+/**
+ * Iterates over the history of a revision, newest first, reading the output
+ * of a single `git log` process as commits are asked for.
+ *
+ * The process only gets ahead of the caller by as much as the pipe between
+ * them holds, so memory use is bounded however deep the walk goes. The
+ * process is stopped when the history is exhausted, or by close() if the
+ * caller stops early.
+ */
+public final class CommitIterator implements Iterator<CommitInfo>, Closeable {
+
+  // The fields of each commit, separated by NUL; with -z, each commit is
+  // terminated by NUL too
+  private static final String FORMAT = "--format=%H%x00%h%x00%P%x00%an%x00%ae%x00%at%x00%s";
+  private static final int FIELD_COUNT = 7;
+
+  CommitIterator(GitCommandPool pool, String revision, int skip) {
+    checkArgument(nonEmpty(revision) && !revision.startsWith("-"), "bad revision:", revision);
+    checkArgument(skip >= 0);
+    List<String> args = arrayList();
+    args.add("log");
+    args.add("-z");
+    args.add(FORMAT);
+    if (skip > 0)
+      args.add("--skip=" + skip);
+    args.add(revision);
+    args.add("--");
+    mCommand = pool.spawn(args.toArray(new String[0]));
+    mInput = mCommand.output();
+  }
+
+  /**
+   * An iterator with no commits, e.g. for a branch that has none yet
+   */
+  CommitIterator() {
+    mCommand = null;
+    mInput = null;
+    mFinished = true;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null && !mFinished)
+      mNext = parseCommit();
+    return mNext != null;
+  }
+
+  @Override
+  public CommitInfo next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    CommitInfo result = mNext;
+    mNext = null;
+    return result;
+  }
+
+  /**
+   * Stop the git process, if it hasn't already finished
+   */
+  @Override
+  public void close() {
+    if (!mFinished) {
+      mFinished = true;
+      mCommand.abandon();
+    }
+  }
+
+  private CommitInfo parseCommit() {
+    String[] fields = new String[FIELD_COUNT];
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      fields[i] = readField();
+      if (fields[i] == null) {
+        // An empty subject may be the last thing in the output
+        if (i == FIELD_COUNT - 1) {
+          fields[i] = "";
+          break;
+        }
+        checkState(i == 0, "Unexpected end of git log output");
+        mFinished = true;
+        mCommand.finish();
+        return null;
+      }
+    }
+    CommitInfo.Builder b = CommitInfo.newBuilder();
+    b.hash(fields[0]);
+    b.shortHash(fields[1]);
+    b.parents(fields[2].isEmpty() ? arrayList() : split(fields[2], ' '));
+    b.authorName(fields[3]);
+    b.authorEmail(fields[4]);
+    b.timestamp(Long.parseLong(fields[5]));
+    b.subject(fields[6]);
+    return b.build();
+  }
+
+  /**
+   * Read a NUL-terminated field, or return null at the end of the output
+   */
+  private String readField() {
+    int length = 0;
+    while (true) {
+      if (mCursor == mLimit) {
+        try {
+          mLimit = mInput.read(mBuffer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        mCursor = 0;
+        if (mLimit <= 0) {
+          mLimit = 0;
+          // The final commit's terminator may be missing
+          return length == 0 ? null : text(length);
+        }
+      }
+      byte c = mBuffer[mCursor++];
+      if (c == 0)
+        return text(length);
+      if (length == mField.length)
+        mField = Arrays.copyOf(mField, length * 2);
+      mField[length++] = c;
+    }
+  }
+
+  private String text(int length) {
+    return new String(mField, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private final GitCommandPool.Spawned mCommand;
+  private final InputStream mInput;
+  private final byte[] mBuffer = new byte[16 * 1024];
+  private int mCursor;
+  private int mLimit;
+  private byte[] mField = new byte[256];
+  private boolean mFinished;
+  private CommitInfo mNext;
+}
@@ -0,0 +1,704 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import gitutil.gen.Hunk;
+
+/**
+ * Computes a line diff between two versions of a file within the JVM, and
+ * produces the same Hunks as parsing the output of `git diff` would.
+ *
+ * This follows git's default algorithm (its xdiff library's variant of Myers'
+ * O(ND) algorithm, including its pruning of unmatched lines, its cost-bounding
+ * heuristics and its sliding of ambiguous changes) so that where several
+ * minimal diffs exist, git's choice is made. Git's indent heuristic is not
+ * implemented, so this matches `git diff --no-indent-heuristic`.
+ *
+ * Each distinct line is hashed to an int id, so the algorithm itself runs on
+ * primitive arrays, using linear space and an explicit stack; files of many
+ * megabytes can be compared.
+ */
+final class DiffEngine {
+
+  static final int DEFAULT_CONTEXT = 3;
+
+  /**
+   * Like git, treat content as binary if it has a NUL within this many bytes
+   */
+  private static final int BINARY_CHECK_LENGTH = 8000;
+
+  static boolean isBinary(byte[] content) {
+    int n = Math.min(content.length, BINARY_CHECK_LENGTH);
+    for (int i = 0; i < n; i++)
+      if (content[i] == 0)
+        return true;
+    return false;
+  }
+
+  /**
+   * Compute the hunks that transform oldContent to newContent
+   */
+  static List<Hunk> diff(String filename, byte[] oldContent, byte[] newContent, int context) {
+    return PackedHunk.toHunks(packedDiff(filename, oldContent, newContent, context));
+  }
+
+  /**
+   * Compute the hunks that transform oldContent to newContent, with their
+   * lines left packed
+   */
+  static List<PackedHunk> packedDiff(String filename, byte[] oldContent, byte[] newContent, int context) {
+    return new DiffEngine(oldContent, newContent).hunks(filename, context);
+  }
+
+  private DiffEngine(byte[] oldContent, byte[] newContent) {
+    mContent = new byte[][] { oldContent, newContent };
+    mLineStarts = new int[][] { lineStarts(oldContent), lineStarts(newContent) };
+    int lineCount = lineCount(0) + lineCount(1);
+    int tableSize = Integer.highestOneBit(Math.max(16, lineCount * 2)) << 1;
+    mTable = new int[tableSize];
+    mIdFile = new byte[lineCount + 1];
+    mIdLine = new int[lineCount + 1];
+    mIdHash = new int[lineCount + 1];
+    mA = ids(0);
+    mB = ids(1);
+    mChangedA = new boolean[mA.length];
+    mChangedB = new boolean[mB.length];
+    compare();
+    compact(mA, mChangedA, mChangedB);
+    compact(mB, mChangedB, mChangedA);
+  }
+
+  // ------------------------------------------------------------------
+  // Lines and their ids
+  // ------------------------------------------------------------------
+
+  /**
+   * Get the offset of the start of each line, plus the end of the content
+   */
+  private static int[] lineStarts(byte[] content) {
+    int count = 0;
+    for (byte b : content)
+      if (b == '\n')
+        count++;
+    boolean unterminated = content.length > 0 && content[content.length - 1] != '\n';
+    int[] starts = new int[count + (unterminated ? 1 : 0) + 1];
+    int line = 1;
+    for (int i = 0; i < content.length; i++)
+      if (content[i] == '\n' && i + 1 < content.length)
+        starts[line++] = i + 1;
+    starts[starts.length - 1] = content.length;
+    return starts;
+  }
+
+  private int lineCount(int file) {
+    return mLineStarts[file].length - 1;
+  }
+
+  /**
+   * Assign each line of a file an id, so that lines (including their newline,
+   * if any) have the same id iff their bytes are equal
+   */
+  private int[] ids(int file) {
+    byte[] content = mContent[file];
+    int[] starts = mLineStarts[file];
+    int[] ids = new int[starts.length - 1];
+    int mask = mTable.length - 1;
+    for (int line = 0; line < ids.length; line++) {
+      int start = starts[line];
+      int end = starts[line + 1];
+      int hash = 1;
+      for (int i = start; i < end; i++)
+        hash = 31 * hash + content[i];
+      int slot = (hash * 0x9E3779B9) >>> 1 & mask;
+      while (true) {
+        int id = mTable[slot];
+        if (id == 0) {
+          id = ++mIdCount;
+          mIdFile[id] = (byte) file;
+          mIdLine[id] = line;
+          mIdHash[id] = hash;
+          mTable[slot] = id;
+          ids[line] = id;
+          break;
+        }
+        if (mIdHash[id] == hash && sameLine(id, content, start, end)) {
+          ids[line] = id;
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+    return ids;
+  }
+
+  private boolean sameLine(int id, byte[] content, int start, int end) {
+    int file = mIdFile[id];
+    int line = mIdLine[id];
+    int[] starts = mLineStarts[file];
+    int otherStart = starts[line];
+    return Arrays.equals(mContent[file], otherStart, starts[line + 1], content, start, end);
+  }
+
+  // ------------------------------------------------------------------
+  // Myers' algorithm
+  // ------------------------------------------------------------------
+
+  // These constants (and the algorithm) follow git's xdiff library, so that
+  // where several minimal diffs exist, the same one is chosen
+
+  private static final int MAX_COST_MIN = 256;
+  private static final int HEUR_MIN_COST = 256;
+  private static final int SNAKE_COUNT = 20;
+  private static final int K_HEUR = 4;
+  private static final int MAX_EQ_LIMIT = 1024;
+  private static final int SIM_SCAN_WINDOW = 100;
+  private static final int KP_DIS_RUN = 4;
+
+  private static int bogoSqrt(int n) {
+    int i = 1;
+    for (; n > 0; n >>= 2)
+      i <<= 1;
+    return i;
+  }
+
+  private void compare() {
+    int n1 = mA.length;
+    int n2 = mB.length;
+
+    // Skip the common prefix and suffix
+    int start = 0;
+    int common = Math.min(n1, n2);
+    while (start < common && mA[start] == mB[start])
+      start++;
+    int suffix = 0;
+    while (suffix < common - start && mA[n1 - 1 - suffix] == mB[n2 - 1 - suffix])
+      suffix++;
+
+    // Count each line's occurrences within each file
+    int[] count1 = new int[mIdCount + 1];
+    int[] count2 = new int[mIdCount + 1];
+    for (int id : mA)
+      count1[id]++;
+    for (int id : mB)
+      count2[id]++;
+
+    // Discard lines that can't (or are unlikely to) match a line in the other
+    // file, so the search runs only on those remaining
+    mIndexA = cleanup(mA, mChangedA, start, n1 - suffix, count2);
+    mIndexB = cleanup(mB, mChangedB, start, n2 - suffix, count1);
+    int r1 = mIndexA.length;
+    int r2 = mIndexB.length;
+    mHashA = new int[r1];
+    for (int i = 0; i < r1; i++)
+      mHashA[i] = mA[mIndexA[i]];
+    mHashB = new int[r2];
+    for (int i = 0; i < r2; i++)
+      mHashB[i] = mB[mIndexB[i]];
+
+    int diagonals = r1 + r2 + 3;
+    mForward = new int[diagonals];
+    mBackward = new int[diagonals];
+    mDiagonalBase = r2 + 1;
+    mMaxCost = Math.max(MAX_COST_MIN, bogoSqrt(diagonals));
+
+    // Subproblems awaiting comparison, as (off1, lim1, off2, lim2, needMin)
+    int[] stack = new int[80];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = r1;
+    stack[top++] = 0;
+    stack[top++] = r2;
+    stack[top++] = 0;
+    int[] split = new int[4];
+    while (top > 0) {
+      boolean needMin = stack[--top] != 0;
+      int lim2 = stack[--top];
+      int off2 = stack[--top];
+      int lim1 = stack[--top];
+      int off1 = stack[--top];
+      while (off1 < lim1 && off2 < lim2 && mHashA[off1] == mHashB[off2]) {
+        off1++;
+        off2++;
+      }
+      while (off1 < lim1 && off2 < lim2 && mHashA[lim1 - 1] == mHashB[lim2 - 1]) {
+        lim1--;
+        lim2--;
+      }
+      if (off1 == lim1) {
+        for (int i = off2; i < lim2; i++)
+          mChangedB[mIndexB[i]] = true;
+        continue;
+      }
+      if (off2 == lim2) {
+        for (int i = off1; i < lim1; i++)
+          mChangedA[mIndexA[i]] = true;
+        continue;
+      }
+      split(off1, lim1, off2, lim2, needMin, split);
+      if (top + 10 > stack.length)
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      // Push the upper half first, so the lower half is compared first
+      stack[top++] = split[0];
+      stack[top++] = lim1;
+      stack[top++] = split[1];
+      stack[top++] = lim2;
+      stack[top++] = split[3];
+      stack[top++] = off1;
+      stack[top++] = split[0];
+      stack[top++] = off2;
+      stack[top++] = split[1];
+      stack[top++] = split[2];
+    }
+  }
+
+  /**
+   * Determine which lines within [start, end) of a file take part in the
+   * search, marking the others as changed. A line is discarded if it doesn't
+   * appear in the other file, or if it appears there many times and is
+   * surrounded mostly by lines that don't. Returns the indices of the lines
+   * that remain
+   */
+  private static int[] cleanup(int[] ids, boolean[] changed, int start, int end, int[] otherCounts) {
+    int limit = Math.min(MAX_EQ_LIMIT, bogoSqrt(ids.length));
+    byte[] discard = new byte[ids.length];
+    for (int i = start; i < end; i++) {
+      int matches = otherCounts[ids[i]];
+      discard[i] = (byte) (matches == 0 ? 0 : matches >= limit ? 2 : 1);
+    }
+    int[] index = new int[end - start];
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (discard[i] == 1 || (discard[i] == 2 && !discardMultimatch(discard, i, start, end - 1)))
+        index[count++] = i;
+      else
+        changed[i] = true;
+    }
+    return Arrays.copyOf(index, count);
+  }
+
+  private static boolean discardMultimatch(byte[] dis, int i, int s, int e) {
+    if (i - s > SIM_SCAN_WINDOW)
+      s = i - SIM_SCAN_WINDOW;
+    if (e - i > SIM_SCAN_WINDOW)
+      e = i + SIM_SCAN_WINDOW;
+    int noMatch0 = 0;
+    int multi0 = 1;
+    for (int r = 1; i - r >= s; r++) {
+      if (dis[i - r] == 0)
+        noMatch0++;
+      else if (dis[i - r] == 2)
+        multi0++;
+      else
+        break;
+    }
+    if (noMatch0 == 0)
+      return false;
+    int noMatch1 = 0;
+    int multi1 = 1;
+    for (int r = 1; i + r <= e; r++) {
+      if (dis[i + r] == 0)
+        noMatch1++;
+      else if (dis[i + r] == 2)
+        multi1++;
+      else
+        break;
+    }
+    if (noMatch1 == 0)
+      return false;
+    noMatch1 += noMatch0;
+    multi1 += multi0;
+    return multi1 * KP_DIS_RUN < multi1 + noMatch1;
+  }
+
+  /**
+   * Find a point (i1, i2) at which to split the comparison of
+   * a[off1...lim1) with b[off2...lim2), storing it in split[0..1], along with
+   * whether the lower and upper halves must be compared minimally in
+   * split[2..3]. This is normally a point on the middle snake of an optimal
+   * path, but heuristics are used to bound the cost for very different inputs
+   */
+  private void split(int off1, int lim1, int off2, int lim2, boolean needMin, int[] split) {
+    int[] ha1 = mHashA;
+    int[] ha2 = mHashB;
+    int[] kvdf = mForward;
+    int[] kvdb = mBackward;
+    int base = mDiagonalBase;
+    int dmin = off1 - lim2;
+    int dmax = lim1 - off2;
+    int fmid = off1 - off2;
+    int bmid = lim1 - lim2;
+    boolean odd = ((fmid - bmid) & 1) != 0;
+    int fmin = fmid;
+    int fmax = fmid;
+    int bmin = bmid;
+    int bmax = bmid;
+
+    kvdf[base + fmid] = off1;
+    kvdb[base + bmid] = lim1;
+
+    for (int ec = 1;; ec++) {
+      boolean gotSnake = false;
+
+      if (fmin > dmin)
+        kvdf[base + --fmin - 1] = -1;
+      else
+        ++fmin;
+      if (fmax < dmax)
+        kvdf[base + ++fmax + 1] = -1;
+      else
+        --fmax;
+
+      for (int d = fmax; d >= fmin; d -= 2) {
+        int i1 = (kvdf[base + d - 1] >= kvdf[base + d + 1]) ? kvdf[base + d - 1] + 1 : kvdf[base + d + 1];
+        int prev1 = i1;
+        int i2 = i1 - d;
+        while (i1 < lim1 && i2 < lim2 && ha1[i1] == ha2[i2]) {
+          i1++;
+          i2++;
+        }
+        if (i1 - prev1 > SNAKE_COUNT)
+          gotSnake = true;
+        kvdf[base + d] = i1;
+        if (odd && bmin <= d && d <= bmax && kvdb[base + d] <= i1) {
+          setSplit(split, i1, i2, true, true);
+          return;
+        }
+      }
+
+      if (bmin > dmin)
+        kvdb[base + --bmin - 1] = Integer.MAX_VALUE;
+      else
+        ++bmin;
+      if (bmax < dmax)
+        kvdb[base + ++bmax + 1] = Integer.MAX_VALUE;
+      else
+        --bmax;
+
+      for (int d = bmax; d >= bmin; d -= 2) {
+        int i1 = (kvdb[base + d - 1] < kvdb[base + d + 1]) ? kvdb[base + d - 1] : kvdb[base + d + 1] - 1;
+        int prev1 = i1;
+        int i2 = i1 - d;
+        while (i1 > off1 && i2 > off2 && ha1[i1 - 1] == ha2[i2 - 1]) {
+          i1--;
+          i2--;
+        }
+        if (prev1 - i1 > SNAKE_COUNT)
+          gotSnake = true;
+        kvdb[base + d] = i1;
+        if (!odd && fmin <= d && d <= fmax && i1 <= kvdf[base + d]) {
+          setSplit(split, i1, i2, true, true);
+          return;
+        }
+      }
+
+      if (needMin)
+        continue;
+
+      // If the cost is high and we found a good snake, look for a diagonal
+      // that has made good progress without straying far from the middle
+      if (gotSnake && ec > HEUR_MIN_COST) {
+        int best = 0;
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int dd = d > fmid ? d - fmid : fmid - d;
+          int i1 = kvdf[base + d];
+          int i2 = i1 - d;
+          int v = (i1 - off1) + (i2 - off2) - dd;
+          if (v > K_HEUR * ec && v > best && off1 + SNAKE_COUNT <= i1 && i1 < lim1 && off2 + SNAKE_COUNT <= i2
+              && i2 < lim2) {
+            for (int k = 1; ha1[i1 - k] == ha2[i2 - k]; k++)
+              if (k == SNAKE_COUNT) {
+                best = v;
+                setSplit(split, i1, i2, true, false);
+                break;
+              }
+          }
+        }
+        if (best > 0)
+          return;
+
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int dd = d > bmid ? d - bmid : bmid - d;
+          int i1 = kvdb[base + d];
+          int i2 = i1 - d;
+          int v = (lim1 - i1) + (lim2 - i2) - dd;
+          if (v > K_HEUR * ec && v > best && off1 < i1 && i1 <= lim1 - SNAKE_COUNT && off2 < i2
+              && i2 <= lim2 - SNAKE_COUNT) {
+            for (int k = 0; ha1[i1 + k] == ha2[i2 + k]; k++)
+              if (k == SNAKE_COUNT - 1) {
+                best = v;
+                setSplit(split, i1, i2, false, true);
+                break;
+              }
+          }
+        }
+        if (best > 0)
+          return;
+      }
+
+      // If the cost is too high, give up on an optimal path and split at the
+      // furthest reaching point
+      if (ec >= mMaxCost) {
+        int fbest = -1;
+        int fbest1 = -1;
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int i1 = Math.min(kvdf[base + d], lim1);
+          int i2 = i1 - d;
+          if (lim2 < i2) {
+            i1 = lim2 + d;
+            i2 = lim2;
+          }
+          if (fbest < i1 + i2) {
+            fbest = i1 + i2;
+            fbest1 = i1;
+          }
+        }
+        int bbest = Integer.MAX_VALUE;
+        int bbest1 = Integer.MAX_VALUE;
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int i1 = Math.max(off1, kvdb[base + d]);
+          int i2 = i1 - d;
+          if (i2 < off2) {
+            i1 = off2 + d;
+            i2 = off2;
+          }
+          if (i1 + i2 < bbest) {
+            bbest = i1 + i2;
+            bbest1 = i1;
+          }
+        }
+        if ((lim1 + lim2) - bbest < fbest - (off1 + off2))
+          setSplit(split, fbest1, fbest - fbest1, true, false);
+        else
+          setSplit(split, bbest1, bbest - bbest1, false, true);
+        return;
+      }
+    }
+  }
+
+  private static void setSplit(int[] split, int i1, int i2, boolean minLow, boolean minHigh) {
+    split[0] = i1;
+    split[1] = i2;
+    split[2] = minLow ? 1 : 0;
+    split[3] = minHigh ? 1 : 0;
+  }
+
+  // ------------------------------------------------------------------
+  // Compaction
+  // ------------------------------------------------------------------
+
+  /**
+   * Where a group of changed lines could be slid up or down (because the lines
+   * at its ends are equal), place it where git does: aligned with the last
+   * group of changes in the other file that it could line up with, or else as
+   * far down as possible. Git's indent heuristic is not applied.
+   *
+   * Groups are runs of changed lines separated by single unchanged lines, and
+   * may be empty; since unchanged lines pair up, the nth group of one file
+   * corresponds to the nth group of the other
+   */
+  private static void compact(int[] ids, boolean[] changed, boolean[] otherChanged) {
+    int[] g = new int[2];
+    int[] go = new int[2];
+    groupInit(changed, g);
+    groupInit(otherChanged, go);
+    while (true) {
+      if (g[1] != g[0]) {
+        int groupSize;
+        int earliestEnd;
+        int endMatchingOther;
+        do {
+          groupSize = g[1] - g[0];
+          endMatchingOther = -1;
+          while (slideUp(ids, changed, g))
+            groupPrevious(otherChanged, go);
+          earliestEnd = g[1];
+          if (go[1] > go[0])
+            endMatchingOther = g[1];
+          while (slideDown(ids, changed, g)) {
+            groupNext(otherChanged, go);
+            if (go[1] > go[0])
+              endMatchingOther = g[1];
+          }
+        } while (groupSize != g[1] - g[0]);
+
+        if (g[1] != earliestEnd && endMatchingOther != -1) {
+          // Move the group back up to line up with the other file's changes
+          while (go[1] == go[0]) {
+            slideUp(ids, changed, g);
+            groupPrevious(otherChanged, go);
+          }
+        }
+      }
+      if (!groupNext(changed, g))
+        break;
+      groupNext(otherChanged, go);
+    }
+  }
+
+  private static boolean changed(boolean[] changed, int index) {
+    return index >= 0 && index < changed.length && changed[index];
+  }
+
+  private static void groupInit(boolean[] changed, int[] g) {
+    g[0] = 0;
+    g[1] = 0;
+    while (changed(changed, g[1]))
+      g[1]++;
+  }
+
+  private static boolean groupNext(boolean[] changed, int[] g) {
+    if (g[1] == changed.length)
+      return false;
+    g[0] = g[1] + 1;
+    g[1] = g[0];
+    while (changed(changed, g[1]))
+      g[1]++;
+    return true;
+  }
+
+  private static boolean groupPrevious(boolean[] changed, int[] g) {
+    if (g[0] == 0)
+      return false;
+    g[1] = g[0] - 1;
+    g[0] = g[1];
+    while (changed(changed, g[0] - 1))
+      g[0]--;
+    return true;
+  }
+
+  private static boolean slideDown(int[] ids, boolean[] changed, int[] g) {
+    if (g[1] == ids.length || ids[g[0]] != ids[g[1]])
+      return false;
+    changed[g[0]++] = false;
+    changed[g[1]++] = true;
+    while (changed(changed, g[1]))
+      g[1]++;
+    return true;
+  }
+
+  private static boolean slideUp(int[] ids, boolean[] changed, int[] g) {
+    if (g[0] == 0 || ids[g[0] - 1] != ids[g[1] - 1])
+      return false;
+    changed[--g[0]] = true;
+    changed[--g[1]] = false;
+    while (changed(changed, g[0] - 1))
+      g[0]--;
+    return true;
+  }
+
+  // ------------------------------------------------------------------
+  // Hunks
+  // ------------------------------------------------------------------
+
+  private List<PackedHunk> hunks(String filename, int context) {
+    List<PackedHunk> result = arrayList();
+    int n = mA.length;
+    int m = mB.length;
+    int i = 0;
+    int j = 0;
+    while (true) {
+      // Find the next change
+      while (i < n && j < m && !mChangedA[i] && !mChangedB[j]) {
+        i++;
+        j++;
+      }
+      if (i == n && j == m)
+        break;
+      while (i < n && j == m && !mChangedA[i])
+        i++;
+      while (j < m && i == n && !mChangedB[j])
+        j++;
+
+      // Extend the hunk until the gap between changes exceeds twice the context
+      int startA = Math.max(0, i - context);
+      int startB = Math.max(0, j - context);
+      int endA = i;
+      int endB = j;
+      while (true) {
+        while (endA < n && mChangedA[endA])
+          endA++;
+        while (endB < m && mChangedB[endB])
+          endB++;
+        int gap = 0;
+        while (endA + gap < n && endB + gap < m && !mChangedA[endA + gap] && !mChangedB[endB + gap]
+            && gap <= 2 * context)
+          gap++;
+        boolean moreChanges = (endA + gap < n && mChangedA[endA + gap]) || (endB + gap < m && mChangedB[endB + gap]);
+        if (gap <= 2 * context && moreChanges) {
+          endA += gap;
+          endB += gap;
+          continue;
+        }
+        endA = Math.min(n, endA + Math.min(gap, context));
+        endB = Math.min(m, endB + Math.min(gap, context));
+        break;
+      }
+      result.add(buildHunk(filename, startA, endA, startB, endB));
+      i = endA;
+      j = endB;
+    }
+    return result;
+  }
+
+  private PackedHunk buildHunk(String filename, int startA, int endA, int startB, int endB) {
+    PackedHunk.Builder h = PackedHunk.newBuilder().filename(filename);
+    int countA = endA - startA;
+    int countB = endB - startB;
+    // An empty range is identified by the line preceding it
+    h.r1Begin(countA == 0 ? startA : startA + 1).r1Count(countA);
+    h.r2Begin(countB == 0 ? startB : startB + 1).r2Count(countB);
+    PackedLines.Builder lines = PackedLines.newBuilder();
+    int i = startA;
+    int j = startB;
+    while (i < endA || j < endB) {
+      if (i < endA && mChangedA[i])
+        addLine(lines, '-', 0, i++);
+      else if (j < endB && mChangedB[j])
+        addLine(lines, '+', 1, j++);
+      else {
+        addLine(lines, ' ', 0, i++);
+        j++;
+      }
+    }
+    h.lines(lines.build());
+    h.missingNewline1(endA == mA.length && countA > 0 && missingNewline(0));
+    h.missingNewline2(endB == mB.length && countB > 0 && missingNewline(1));
+    return h.build();
+  }
+
+  private boolean missingNewline(int file) {
+    byte[] content = mContent[file];
+    return content.length > 0 && content[content.length - 1] != '\n';
+  }
+
+  private void addLine(PackedLines.Builder lines, char prefix, int file, int line) {
+    int start = mLineStarts[file][line];
+    int end = mLineStarts[file][line + 1];
+    if (end > start && mContent[file][end - 1] == '\n')
+      end--;
+    lines.add(prefix, mContent[file], start, end - start);
+  }
+
+  private final byte[][] mContent;
+  private final int[][] mLineStarts;
+  private final int[] mTable;
+  private final byte[] mIdFile;
+  private final int[] mIdLine;
+  private final int[] mIdHash;
+  private int mIdCount;
+  private final int[] mA;
+  private final int[] mB;
+  private final boolean[] mChangedA;
+  private final boolean[] mChangedB;
+  private int[] mIndexA;
+  private int[] mIndexB;
+  private int[] mHashA;
+  private int[] mHashB;
+  private int[] mForward;
+  private int[] mBackward;
+  private int mDiagonalBase;
+  private int mMaxCost;
+}
@@ -0,0 +1,380 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+
+/**
+ * Parses the unified diff output of `git diff` as it streams from the process,
+ * producing a FileEntry (with its Hunks) for each file. The lines are read
+ * into PackedHunks, which nextPacked() leaves as they are, rather than
+ * decoding them to Hunks.
+ *
+ * To bound the memory used by huge diffs, at most a fixed number of lines are
+ * retained per file; once that is exceeded, the file's remaining hunks keep
+ * their ranges but have no lines.
+ */
+final class DiffParser implements Iterator<FileEntry> {
+
+  DiffParser(InputStream input, int maxLinesPerFile) {
+    mInput = input;
+    mMaxLinesPerFile = maxLinesPerFile;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null)
+      mNext = parseFile();
+    return mNext != null;
+  }
+
+  @Override
+  public FileEntry next() {
+    FileEntry entry = nextPacked();
+    return entry.toBuilder().hunks(PackedHunk.toHunks(mHunks)).build();
+  }
+
+  /**
+   * Get the next file's entry without its hunks, which are left packed; see
+   * packedHunks()
+   */
+  FileEntry nextPacked() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    FileEntry result = mNext;
+    mHunks = mNextHunks;
+    mNext = null;
+    mNextHunks = null;
+    return result;
+  }
+
+  /**
+   * Get the hunks of the file whose entry was returned last
+   */
+  List<PackedHunk> packedHunks() {
+    return mHunks;
+  }
+
+  private static final String NO_NEWLINE_PREFIX = "\\";
+
+  private FileEntry parseFile() {
+    // Skip to the next file header, ignoring anything we don't handle (e.g.
+    // the combined diffs of unmerged files)
+    while (true) {
+      if (!readLine())
+        return null;
+      if (startsWith("diff --git "))
+        break;
+    }
+
+    FileEntry.Builder b = FileEntry.newBuilder();
+    b.state(FileState.MODIFIED);
+    String[] names = splitHeaderNames(text("diff --git ".length()));
+    String oldPath = names[0];
+    String newPath = names[1];
+
+    while (readLine()) {
+      if (startsWith("@@") || startsWith("diff "))
+        break;
+      if (startsWith("--- "))
+        oldPath = headerPath(text(4));
+      else if (startsWith("+++ "))
+        newPath = headerPath(text(4));
+      else if (startsWith("new file mode ")) {
+        b.state(FileState.ADDED);
+        b.oldMode(GitIndex.modeText(0));
+        b.mode(text("new file mode ".length()));
+      } else if (startsWith("deleted file mode ")) {
+        b.state(FileState.DELETED);
+        b.oldMode(text("deleted file mode ".length()));
+        b.mode(GitIndex.modeText(0));
+      } else if (startsWith("old mode "))
+        b.oldMode(text("old mode ".length()));
+      else if (startsWith("new mode "))
+        b.mode(text("new mode ".length()));
+      else if (startsWith("rename from ")) {
+        b.state(FileState.RENAMED);
+        oldPath = unquote(text("rename from ".length()));
+      } else if (startsWith("rename to "))
+        newPath = unquote(text("rename to ".length()));
+      else if (startsWith("copy from ")) {
+        b.state(FileState.COPIED);
+        oldPath = unquote(text("copy from ".length()));
+      } else if (startsWith("copy to "))
+        newPath = unquote(text("copy to ".length()));
+      else if (startsWith("index ")) {
+        // "index <hash>..<hash> <mode>"; the mode is absent if it changed
+        String s = text("index ".length());
+        int space = s.indexOf(' ');
+        if (space > 0 && b.state() == FileState.MODIFIED) {
+          b.oldMode(s.substring(space + 1));
+          b.mode(s.substring(space + 1));
+        }
+      }
+    }
+
+    String path = (newPath != null) ? newPath : oldPath;
+    b.path(path);
+    if (b.state() == FileState.RENAMED || b.state() == FileState.COPIED)
+      b.origPath(oldPath);
+
+    List<PackedHunk> hunks = arrayList();
+    int linesRetained = 0;
+    while (mLineValid && startsWith("@@")) {
+      PackedHunk.Builder h = PackedHunk.newBuilder().filename(path);
+      parseRanges(h);
+      // Once the limit is exceeded, stop collecting lines for this file
+      PackedLines.Builder lines = (linesRetained < mMaxLinesPerFile) ? PackedLines.newBuilder() : null;
+      int oldRemaining = h.r1Count();
+      int newRemaining = h.r2Count();
+      char lastType = ' ';
+      while (true) {
+        if (!readLine())
+          break;
+        if (startsWith(NO_NEWLINE_PREFIX)) {
+          if (lastType != '+')
+            h.missingNewline1(true);
+          if (lastType != '-')
+            h.missingNewline2(true);
+          continue;
+        }
+        if (oldRemaining == 0 && newRemaining == 0)
+          break;
+        lastType = (mLineLength == 0) ? ' ' : (char) mLine[0];
+        switch (lastType) {
+        case ' ':
+          oldRemaining--;
+          newRemaining--;
+          break;
+        case '-':
+          oldRemaining--;
+          break;
+        case '+':
+          newRemaining--;
+          break;
+        default:
+          throw badState("Unexpected line in hunk:", text(0));
+        }
+        if (lines != null) {
+          if (linesRetained + lines.size() == mMaxLinesPerFile) {
+            lines = null;
+            linesRetained = mMaxLinesPerFile;
+          } else
+            lines.add(mLine, 0, mLineLength);
+        }
+      }
+      if (lines != null) {
+        h.lines(lines.build());
+        linesRetained += lines.size();
+      }
+      hunks.add(h.build());
+    }
+    // The line that ended the hunks belongs to the next file
+    mPushedBack = mLineValid;
+    mNextHunks = hunks;
+    return b.build();
+  }
+
+  /**
+   * Parse "@@ -a,b +c,d @@ ..."; a missing count is 1
+   */
+  private void parseRanges(PackedHunk.Builder h) {
+    String s = text(0);
+    int end = s.indexOf(" @@", 2);
+    checkState(end > 0, "Bad hunk header:", s);
+    String[] ranges = s.substring(3, end).split(" ");
+    checkState(ranges.length == 2 && ranges[0].startsWith("-") && ranges[1].startsWith("+"), "Bad hunk header:", s);
+    int[] r1 = parseRange(ranges[0].substring(1));
+    int[] r2 = parseRange(ranges[1].substring(1));
+    h.r1Begin(r1[0]).r1Count(r1[1]).r2Begin(r2[0]).r2Count(r2[1]);
+  }
+
+  private static int[] parseRange(String s) {
+    int comma = s.indexOf(',');
+    if (comma < 0)
+      return new int[] { Integer.parseInt(s), 1 };
+    return new int[] { Integer.parseInt(s.substring(0, comma)), Integer.parseInt(s.substring(comma + 1)) };
+  }
+
+  // ------------------------------------------------------------------
+  // Paths
+  // ------------------------------------------------------------------
+
+  /**
+   * Parse the path from a "--- a/path" or "+++ b/path" line; returns null for
+   * /dev/null
+   */
+  private static String headerPath(String s) {
+    // Git appends a tab to names that contain spaces
+    if (s.endsWith("\t"))
+      s = s.substring(0, s.length() - 1);
+    if (s.equals("/dev/null"))
+      return null;
+    return stripPrefix(unquote(s));
+  }
+
+  private static String stripPrefix(String path) {
+    checkState(path.startsWith("a/") || path.startsWith("b/"), "Unexpected path prefix:", path);
+    return path.substring(2);
+  }
+
+  /**
+   * Split the "a/old b/new" of a "diff --git" line. This is ambiguous if the
+   * paths contain spaces and differ, but then the header lines that follow give
+   * the paths unambiguously
+   */
+  private static String[] splitHeaderNames(String s) {
+    if (s.startsWith("\"")) {
+      int end = closingQuote(s, 0);
+      String first = unquote(s.substring(0, end + 1));
+      return new String[] { stripPrefix(first), stripPrefix(unquote(s.substring(end + 2))) };
+    }
+    if (s.endsWith("\"")) {
+      int start = s.lastIndexOf(" \"");
+      return new String[] { stripPrefix(s.substring(0, start)), stripPrefix(unquote(s.substring(start + 1))) };
+    }
+    // Assume the common case of identical paths
+    int mid = s.length() / 2;
+    if (s.charAt(mid) == ' ')
+      return new String[] { stripPrefix(s.substring(0, mid)), stripPrefix(s.substring(mid + 1)) };
+    int space = s.indexOf(" b/");
+    return new String[] { stripPrefix(s.substring(0, space)), stripPrefix(s.substring(space + 1)) };
+  }
+
+  private static int closingQuote(String s, int start) {
+    for (int i = start + 1; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\')
+        i++;
+      else if (c == '"')
+        return i;
+    }
+    throw badState("Unterminated quoted path:", s);
+  }
+
+  /**
+   * Decode a path that git has C-quoted (if it contains special characters),
+   * including octal escapes of UTF-8 bytes
+   */
+  static String unquote(String s) {
+    if (!s.startsWith("\""))
+      return s;
+    checkState(s.endsWith("\"") && s.length() >= 2, "Bad quoted path:", s);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+    for (int i = 1; i < s.length() - 1; i++) {
+      char c = s.charAt(i);
+      if (c != '\\') {
+        byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+        continue;
+      }
+      c = s.charAt(++i);
+      switch (c) {
+      case 'a':
+        out.write(7);
+        break;
+      case 'b':
+        out.write('\b');
+        break;
+      case 't':
+        out.write('\t');
+        break;
+      case 'n':
+        out.write('\n');
+        break;
+      case 'v':
+        out.write(11);
+        break;
+      case 'f':
+        out.write('\f');
+        break;
+      case 'r':
+        out.write('\r');
+        break;
+      default:
+        if (c >= '0' && c <= '7') {
+          out.write(Integer.parseInt(s.substring(i, i + 3), 8));
+          i += 2;
+        } else
+          out.write(c);
+        break;
+      }
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  // ------------------------------------------------------------------
+  // Line input
+  // ------------------------------------------------------------------
+
+  /**
+   * Read the next line (without its newline) into the line buffer. Returns
+   * false at end of input
+   */
+  private boolean readLine() {
+    if (mPushedBack) {
+      mPushedBack = false;
+      return mLineValid;
+    }
+    mLineLength = 0;
+    mLineValid = false;
+    while (true) {
+      if (mCursor == mLimit) {
+        try {
+          mLimit = mInput.read(mBuffer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        mCursor = 0;
+        if (mLimit <= 0) {
+          mLimit = 0;
+          return mLineValid;
+        }
+      }
+      mLineValid = true;
+      byte c = mBuffer[mCursor++];
+      if (c == '\n')
+        return true;
+      if (mLineLength == mLine.length)
+        mLine = Arrays.copyOf(mLine, mLineLength * 2);
+      mLine[mLineLength++] = c;
+    }
+  }
+
+  private boolean startsWith(String prefix) {
+    if (!mLineValid || mLineLength < prefix.length())
+      return false;
+    for (int i = 0; i < prefix.length(); i++)
+      if (mLine[i] != prefix.charAt(i))
+        return false;
+    return true;
+  }
+
+  private String text(int start) {
+    return new String(mLine, start, mLineLength - start, StandardCharsets.UTF_8);
+  }
+
+  private final InputStream mInput;
+  private final int mMaxLinesPerFile;
+  private final byte[] mBuffer = new byte[64 * 1024];
+  private int mCursor;
+  private int mLimit;
+  private byte[] mLine = new byte[256];
+  private int mLineLength;
+  private boolean mLineValid;
+  private boolean mPushedBack;
+  private FileEntry mNext;
+  private List<PackedHunk> mNextHunks;
+  private List<PackedHunk> mHunks;
+}
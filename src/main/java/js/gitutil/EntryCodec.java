@@ -0,0 +1,395 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.Hunk;
+
+/**
+ * A compact binary form for lists of FileEntries (and their Hunks), for
+ * passing status and diff results between processes without building JSON
+ * trees. Decoding yields entries equal to the originals, so their toJson()
+ * forms are identical.
+ *
+ * The stream starts with a magic number and version, followed by the entries,
+ * each preceded by a nonzero byte, and ends with a zero byte. Integers are
+ * written as varints, and states as their ordinals. Paths, filenames and modes
+ * are written through a string table: the first occurrence of a string is
+ * written in full, and later ones as its index in the table, so the paths
+ * repeated between entries and their hunks are only written once.
+ *
+ * Hunks whose lines are packed (PackedHunks) can be written and read without
+ * decoding their lines.
+ */
+public final class EntryCodec {
+
+  private static final int MAGIC = 0x47554543; // "GUEC"
+  private static final int VERSION = 1;
+
+  private static final int TAG_END = 0;
+  private static final int TAG_ENTRY = 1;
+
+  private static final int MISSING_NEWLINE1 = 1 << 0;
+  private static final int MISSING_NEWLINE2 = 1 << 1;
+
+  private static final FileState[] STATES = FileState.values();
+
+  public static byte[] encode(List<FileEntry> entries) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Encoder encoder = new Encoder(out)) {
+      for (FileEntry ent : entries)
+        encoder.write(ent);
+    }
+    return out.toByteArray();
+  }
+
+  public static List<FileEntry> decode(byte[] bytes) {
+    List<FileEntry> result = arrayList();
+    try (Decoder decoder = new Decoder(new ByteArrayInputStream(bytes))) {
+      while (decoder.hasNext())
+        result.add(decoder.next());
+    }
+    return result;
+  }
+
+  // ------------------------------------------------------------------
+  // Encoding
+  // ------------------------------------------------------------------
+
+  /**
+   * Writes entries to a stream one at a time. Closing the encoder writes the
+   * end of the list, and closes the stream
+   */
+  public static final class Encoder implements Closeable {
+
+    public Encoder(OutputStream out) {
+      mOut = new DataOutputStream(new BufferedOutputStream(out));
+      try {
+        mOut.writeInt(MAGIC);
+        writeVarint(VERSION);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void write(FileEntry entry) {
+      checkState(mOut != null, "encoder is closed");
+      try {
+        mOut.writeByte(TAG_ENTRY);
+        writeVarint(entry.hunks().size());
+        for (Hunk h : entry.hunks()) {
+          writeRanges(h.filename(), h.r1Begin(), h.r1Count(), h.r2Begin(), h.r2Count());
+          writeVarint(h.lines().size());
+          for (String line : h.lines())
+            writeString(line);
+          writeFlags(h.missingNewline1(), h.missingNewline2());
+        }
+        writeFields(entry);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Write an entry with packed hunks (in place of any hunks it has), writing
+     * the lines' bytes as they are
+     */
+    public void write(FileEntry entry, List<PackedHunk> hunks) {
+      checkState(mOut != null, "encoder is closed");
+      try {
+        mOut.writeByte(TAG_ENTRY);
+        writeVarint(hunks.size());
+        for (PackedHunk h : hunks) {
+          writeRanges(h.filename(), h.r1Begin(), h.r1Count(), h.r2Begin(), h.r2Count());
+          PackedLines lines = h.lines();
+          writeVarint(lines.size());
+          for (int i = 0; i < lines.size(); i++)
+            writeBytes(lines.data(), lines.start(i), lines.end(i) - lines.start(i));
+          writeFlags(h.missingNewline1(), h.missingNewline2());
+        }
+        writeFields(entry);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeFields(FileEntry entry) throws IOException {
+      mOut.writeByte(entry.oldState().ordinal());
+        mOut.writeByte(entry.state().ordinal());
+        writeTableString(entry.path());
+        writeTableString(entry.origPath());
+        writeTableString(entry.oldMode());
+        writeTableString(entry.mode());
+    }
+
+    @Override
+    public void close() {
+      if (mOut == null)
+        return;
+      try {
+        mOut.writeByte(TAG_END);
+        mOut.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        mOut = null;
+      }
+    }
+
+    private void writeRanges(String filename, int r1Begin, int r1Count, int r2Begin, int r2Count)
+        throws IOException {
+      writeTableString(filename);
+      writeSignedVarint(r1Begin);
+      writeSignedVarint(r1Count);
+      writeSignedVarint(r2Begin);
+      writeSignedVarint(r2Count);
+    }
+
+    private void writeFlags(boolean missingNewline1, boolean missingNewline2) throws IOException {
+      int flags = 0;
+      if (missingNewline1)
+        flags |= MISSING_NEWLINE1;
+      if (missingNewline2)
+        flags |= MISSING_NEWLINE2;
+      mOut.writeByte(flags);
+    }
+
+    /**
+     * Write a string that is likely to be repeated: zero followed by the string
+     * the first time, and thereafter one plus its index in the table
+     */
+    private void writeTableString(String s) throws IOException {
+      Integer index = mTable.get(s);
+      if (index != null) {
+        writeVarint(index + 1);
+        return;
+      }
+      mTable.put(s, mTable.size());
+      writeVarint(0);
+      writeString(s);
+    }
+
+    private void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+      writeVarint(length);
+      mOut.write(bytes, offset, length);
+    }
+
+    private void writeSignedVarint(int value) throws IOException {
+      // Zigzag encoding, so small negative values are short too
+      writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarint(int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        mOut.writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      mOut.writeByte(value);
+    }
+
+    private DataOutputStream mOut;
+    private final Map<String, Integer> mTable = hashMap();
+  }
+
+  // ------------------------------------------------------------------
+  // Decoding
+  // ------------------------------------------------------------------
+
+  /**
+   * Reads entries from a stream as they are asked for. Throws
+   * IllegalStateException if the stream isn't in this format (or is a version
+   * we don't support), or ends prematurely. The hunks are read packed, and
+   * nextPacked() leaves them that way
+   */
+  public static final class Decoder implements Iterator<FileEntry>, Closeable {
+
+    public Decoder(InputStream in) {
+      mIn = new DataInputStream(new BufferedInputStream(in));
+      try {
+        checkState(mIn.readInt() == MAGIC, "not an encoded entry list");
+        int version = readVarint();
+        checkState(version == VERSION, "unsupported entry list version:", version);
+      } catch (EOFException e) {
+        throw badState("truncated entry list");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (mNext == null && !mFinished)
+        mNext = readEntry();
+      return mNext != null;
+    }
+
+    @Override
+    public FileEntry next() {
+      FileEntry entry = nextPacked();
+      return entry.toBuilder().hunks(PackedHunk.toHunks(mHunks)).build();
+    }
+
+    /**
+     * Get the next entry without its hunks, which are left packed; see
+     * packedHunks()
+     */
+    public FileEntry nextPacked() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      FileEntry result = mNext;
+      mHunks = mNextHunks;
+      mNext = null;
+      mNextHunks = null;
+      return result;
+    }
+
+    /**
+     * Get the hunks of the entry returned last
+     */
+    public List<PackedHunk> packedHunks() {
+      return mHunks;
+    }
+
+    @Override
+    public void close() {
+      mFinished = true;
+      try {
+        mIn.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private FileEntry readEntry() {
+      try {
+        int tag = mIn.readUnsignedByte();
+        if (tag == TAG_END) {
+          mFinished = true;
+          return null;
+        }
+        checkState(tag == TAG_ENTRY, "bad entry tag:", tag);
+        FileEntry.Builder b = FileEntry.newBuilder();
+        int hunkCount = readVarint();
+        List<PackedHunk> hunks = arrayList();
+        for (int i = 0; i < hunkCount; i++)
+          hunks.add(readHunk());
+        mNextHunks = hunks;
+        b.oldState(readState());
+        b.state(readState());
+        b.path(readTableString());
+        b.origPath(readTableString());
+        b.oldMode(readTableString());
+        b.mode(readTableString());
+        return b.build();
+      } catch (EOFException e) {
+        throw badState("truncated entry list");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private PackedHunk readHunk() throws IOException {
+      PackedHunk.Builder b = PackedHunk.newBuilder();
+      b.filename(readTableString());
+      b.r1Begin(readSignedVarint());
+      b.r1Count(readSignedVarint());
+      b.r2Begin(readSignedVarint());
+      b.r2Count(readSignedVarint());
+      int lineCount = readVarint();
+      PackedLines.Builder lines = PackedLines.newBuilder();
+      for (int i = 0; i < lineCount; i++)
+        lines.add(mBuffer, 0, readBytes());
+      b.lines(lines.build());
+      int flags = mIn.readUnsignedByte();
+      b.missingNewline1((flags & MISSING_NEWLINE1) != 0);
+      b.missingNewline2((flags & MISSING_NEWLINE2) != 0);
+      return b.build();
+    }
+
+    private FileState readState() throws IOException {
+      int ordinal = mIn.readUnsignedByte();
+      checkState(ordinal < STATES.length, "bad file state:", ordinal);
+      return STATES[ordinal];
+    }
+
+    private String readTableString() throws IOException {
+      int index = readVarint();
+      if (index == 0) {
+        String s = readString();
+        if (mTableSize == mTable.length)
+          mTable = Arrays.copyOf(mTable, Math.max(16, mTableSize * 2));
+        mTable[mTableSize++] = s;
+        return s;
+      }
+      checkState(index <= mTableSize, "bad string table index:", index);
+      return mTable[index - 1];
+    }
+
+    private String readString() throws IOException {
+      int length = readBytes();
+      return new String(mBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a length-prefixed byte sequence into mBuffer, and return its length
+     */
+    private int readBytes() throws IOException {
+      int length = readVarint();
+      checkState(length >= 0, "bad length:", length);
+      if (length > mBuffer.length)
+        mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+      mIn.readFully(mBuffer, 0, length);
+      return length;
+    }
+
+    private int readSignedVarint() throws IOException {
+      int value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = mIn.readUnsignedByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0)
+          return value;
+      }
+      throw badState("malformed varint");
+    }
+
+    private final DataInputStream mIn;
+    private String[] mTable = new String[0];
+    private int mTableSize;
+    private byte[] mBuffer = new byte[256];
+    private FileEntry mNext;
+    private List<PackedHunk> mNextHunks;
+    private List<PackedHunk> mHunks;
+    private boolean mFinished;
+  }
+}
@@ -0,0 +1,596 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import js.base.BaseObject;
+import js.json.JSMap;
+
+/**
+ * Runs git commands on behalf of a GitRepo.
+ *
+ * Keeps long-lived `git cat-file --batch-check` and `git cat-file --batch`
+ * processes alive so object lookups don't fork, and reuses a thread pool to
+ * drain the output of the commands that do. Records the latency of every call,
+ * and if metrics are enabled, the output read from each forked command and
+ * the time spent parsing it.
+ *
+ * The processes that are running are tracked, so close() can kill them; a
+ * thread waiting for one then fails instead of waiting for it to finish.
+ */
+final class GitCommandPool extends BaseObject {
+
+  GitCommandPool(File directory, boolean verbose) {
+    mDirectory = directory;
+    setVerbose(verbose);
+    mExecutor = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "gitutil-" + directory.getName());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Set the metrics to record forked commands in
+   */
+  void setMetrics(Metrics metrics) {
+    mMetrics = metrics;
+  }
+
+  // ------------------------------------------------------------------
+  // Forked commands
+  // ------------------------------------------------------------------
+
+  /**
+   * The outcome of a forked git command
+   */
+  static final class Result {
+
+    private Result(int exitCode, byte[] output, String errors, long nanos) {
+      mExitCode = exitCode;
+      mOutput = output;
+      mErrors = errors;
+      mNanos = nanos;
+    }
+
+    int exitCode() {
+      return mExitCode;
+    }
+
+    byte[] output() {
+      return mOutput;
+    }
+
+    String systemOut() {
+      return new String(mOutput, StandardCharsets.UTF_8);
+    }
+
+    String systemErr() {
+      return mErrors;
+    }
+
+    /**
+     * Wall time of the call, from fork to exit
+     */
+    long nanos() {
+      return mNanos;
+    }
+
+    private final int mExitCode;
+    private final byte[] mOutput;
+    private final String mErrors;
+    private final long mNanos;
+  }
+
+  /**
+   * Fork `git <args>` in the repository directory and wait for it to finish
+   */
+  Result run(String... args) {
+    checkArgument(args.length > 0);
+    long startTime = System.nanoTime();
+    Process process = start(args);
+    try {
+      Future<byte[]> errors = mExecutor.submit(() -> readFully(process.getErrorStream()));
+      byte[] output = readFully(process.getInputStream());
+      int exitCode = process.waitFor();
+      if (exitCode != 0)
+        checkOpen(args);
+      String errorText = new String(errors.get(), StandardCharsets.UTF_8);
+      long nanos = System.nanoTime() - startTime;
+      recordLatency(args[0], nanos);
+      mMetrics.recordFork(args[0], nanos, output.length, -1);
+      if (verbose())
+        log("git", String.join(" ", args), "exit:", exitCode, "ms:", nanos / 1000000);
+      return new Result(exitCode, output, errorText, nanos);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException | ExecutionException e) {
+      process.destroy();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads a command's output as it is produced
+   */
+  interface OutputReader<T> {
+    T read(InputStream in) throws IOException;
+  }
+
+  /**
+   * Fork `git <args>` in the repository directory, passing its output stream to
+   * a reader as it runs instead of buffering it. Throws IllegalStateException
+   * if the command fails
+   */
+  <T> T stream(OutputReader<T> reader, String... args) {
+    checkArgument(args.length > 0);
+    long startTime = System.nanoTime();
+    Process process = start(args);
+    try {
+      Future<byte[]> errors = mExecutor.submit(() -> readFully(process.getErrorStream()));
+      T result;
+      MeasuredInputStream measured = null;
+      try (InputStream in = measure(process.getInputStream())) {
+        if (in instanceof MeasuredInputStream)
+          measured = (MeasuredInputStream) in;
+        result = reader.read(in);
+        // Discard anything the reader didn't consume, so the process can exit
+        in.transferTo(OutputStream.nullOutputStream());
+      }
+      int exitCode = process.waitFor();
+      long nanos = System.nanoTime() - startTime;
+      recordLatency(args[0], nanos);
+      if (measured != null)
+        mMetrics.recordFork(args[0], nanos, measured.bytes(), measured.parseNanos());
+      if (verbose())
+        log("git", String.join(" ", args), "exit:", exitCode, "ms:", nanos / 1000000);
+      if (exitCode != 0) {
+        checkOpen(args);
+        throw badState("git", String.join(" ", args), "failed:", new String(errors.get(), StandardCharsets.UTF_8));
+      }
+      return result;
+    } catch (IOException e) {
+      process.destroy();
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException | ExecutionException e) {
+      process.destroy();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A forked command whose output is read by the caller at its own pace
+   */
+  final class Spawned {
+
+    private Spawned(String[] args) {
+      mArgs = args;
+      mStartTime = System.nanoTime();
+      mProcess = start(args);
+      mOutput = measure(mProcess.getInputStream());
+      mErrors = mExecutor.submit(() -> readFully(mProcess.getErrorStream()));
+    }
+
+    InputStream output() {
+      return mOutput;
+    }
+
+    /**
+     * Wait for the command to exit, after its output has been read; throws
+     * IllegalStateException if it failed
+     */
+    void finish() {
+      try {
+        mOutput.close();
+        int exitCode = mProcess.waitFor();
+        long nanos = System.nanoTime() - mStartTime;
+        recordLatency(mArgs[0], nanos);
+        if (mOutput instanceof MeasuredInputStream) {
+          MeasuredInputStream measured = (MeasuredInputStream) mOutput;
+          mMetrics.recordFork(mArgs[0], nanos, measured.bytes(), measured.parseNanos());
+        }
+        if (verbose())
+          log("git", String.join(" ", mArgs), "exit:", exitCode, "ms:", nanos / 1000000);
+        if (exitCode != 0) {
+          checkOpen(mArgs);
+          throw badState("git", String.join(" ", mArgs), "failed:",
+              new String(mErrors.get(), StandardCharsets.UTF_8));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (InterruptedException | ExecutionException e) {
+        mProcess.destroy();
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Stop the command without reading the rest of its output
+     */
+    void abandon() {
+      mProcess.destroy();
+    }
+
+    private final String[] mArgs;
+    private final long mStartTime;
+    private final Process mProcess;
+    private final InputStream mOutput;
+    private final Future<byte[]> mErrors;
+  }
+
+  /**
+   * Fork `git <args>` in the repository directory, leaving the caller to read
+   * its output and then finish (or abandon) it
+   */
+  Spawned spawn(String... args) {
+    checkArgument(args.length > 0);
+    return new Spawned(args);
+  }
+
+  /**
+   * Run a task on the pool's threads
+   */
+  void execute(Runnable task) {
+    mExecutor.execute(task);
+  }
+
+  private Process start(String... args) {
+    List<String> command = arrayList();
+    command.add("git");
+    for (String arg : args)
+      command.add(arg);
+    try {
+      Process process;
+      synchronized (mProcesses) {
+        checkState(!mClosed, "git command pool is closed");
+        process = new ProcessBuilder(command).directory(mDirectory).start();
+        mProcesses.add(process);
+      }
+      process.onExit().thenRun(() -> forget(process));
+      process.getOutputStream().close();
+      return process;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void forget(Process process) {
+    synchronized (mProcesses) {
+      mProcesses.remove(process);
+    }
+  }
+
+  /**
+   * Throw an exception if the pool has been closed, as a command that was
+   * running then will have been killed
+   */
+  private void checkOpen(String[] args) {
+    synchronized (mProcesses) {
+      if (mClosed)
+        throw badState("git", String.join(" ", args), "was stopped, as the repository was closed");
+    }
+  }
+
+  /**
+   * If metrics are enabled, wrap a command's output stream so its use is
+   * measured
+   */
+  private InputStream measure(InputStream in) {
+    return mMetrics.enabled() ? new MeasuredInputStream(in) : in;
+  }
+
+  /**
+   * Counts the bytes read from a stream, and the time spent waiting for them;
+   * the rest of the time between the first read and the last is attributed to
+   * parsing
+   */
+  private static final class MeasuredInputStream extends FilterInputStream {
+
+    MeasuredInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      long startTime = beginRead();
+      int c = super.read();
+      endRead(startTime, c < 0 ? 0 : 1);
+      return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long startTime = beginRead();
+      int count = super.read(b, off, len);
+      endRead(startTime, Math.max(0, count));
+      return count;
+    }
+
+    long bytes() {
+      return mBytes;
+    }
+
+    long parseNanos() {
+      return Math.max(0, mLastReadEnd - mFirstReadStart - mReadNanos);
+    }
+
+    private long beginRead() {
+      long time = System.nanoTime();
+      if (mFirstReadStart == 0)
+        mFirstReadStart = time;
+      return time;
+    }
+
+    private void endRead(long startTime, int count) {
+      mLastReadEnd = System.nanoTime();
+      mReadNanos += mLastReadEnd - startTime;
+      mBytes += count;
+    }
+
+    private long mBytes;
+    private long mFirstReadStart;
+    private long mLastReadEnd;
+    private long mReadNanos;
+  }
+
+  private static byte[] readFully(InputStream input) throws IOException {
+    try (InputStream in = input) {
+      return in.readAllBytes();
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Long-lived cat-file processes
+  // ------------------------------------------------------------------
+
+  /**
+   * Object name, type and size as reported by `git cat-file`
+   */
+  static final class ObjectInfo {
+
+    private ObjectInfo(String id, String type, long size) {
+      mId = id;
+      mType = type;
+      mSize = size;
+    }
+
+    String id() {
+      return mId;
+    }
+
+    String type() {
+      return mType;
+    }
+
+    long size() {
+      return mSize;
+    }
+
+    private final String mId;
+    private final String mType;
+    private final long mSize;
+  }
+
+  /**
+   * Look up a list of object names (e.g. "HEAD", "HEAD:src/foo.txt", ":foo.txt")
+   * using the `git cat-file --batch-check` process. The requests are pipelined:
+   * they are all written before the responses are read. Returns an ObjectInfo
+   * per name, or null where the object doesn't exist
+   */
+  List<ObjectInfo> batchCheck(List<String> objectNames) {
+    List<ObjectInfo> result = arrayList();
+    pipeline(mCheckProcess, objectNames, (name, in) -> result.add(readHeader(in)));
+    return result;
+  }
+
+  /**
+   * Read the contents of a list of objects using the `git cat-file --batch`
+   * process. Returns the bytes of each object, or null where the object doesn't
+   * exist
+   */
+  List<byte[]> batchRead(List<String> objectNames) {
+    List<byte[]> result = arrayList();
+    pipeline(mReadProcess, objectNames, (name, in) -> {
+      ObjectInfo info = readHeader(in);
+      if (info == null) {
+        result.add(null);
+        return;
+      }
+      checkState(info.size() <= Integer.MAX_VALUE, "object too large:", name);
+      byte[] content = in.readNBytes((int) info.size());
+      checkState(content.length == info.size() && in.read() == '\n', "truncated object:", name);
+      result.add(content);
+    });
+    return result;
+  }
+
+  private interface ResponseReader {
+    void read(String objectName, InputStream in) throws IOException;
+  }
+
+  private static final class BatchProcess {
+    Process process;
+    InputStream in;
+    OutputStream out;
+  }
+
+  private void pipeline(BatchProcess batch, List<String> objectNames, ResponseReader reader) {
+    if (objectNames.isEmpty())
+      return;
+    for (String name : objectNames)
+      checkArgument(name.indexOf('\n') < 0, "object name contains newline:", name);
+    long startTime = System.nanoTime();
+    synchronized (batch) {
+      try {
+        if (batch.process == null || !batch.process.isAlive())
+          startBatch(batch);
+        OutputStream out = batch.out;
+        // Write the requests on a pool thread, so a large response can't fill
+        // the pipe and deadlock us while we're still writing
+        Future<?> writer = mExecutor.submit(() -> {
+          for (String name : objectNames) {
+            out.write(name.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+          }
+          out.flush();
+          return null;
+        });
+        for (String name : objectNames)
+          reader.read(name, batch.in);
+        writer.get();
+      } catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+        stopBatch(batch);
+        if (e instanceof RuntimeException)
+          throw (RuntimeException) e;
+        throw new IllegalStateException("cat-file failed", e);
+      }
+    }
+    long nanos = System.nanoTime() - startTime;
+    recordLatency("cat-file", nanos);
+    mMetrics.record("git.cat-file.batch", nanos);
+    mMetrics.count("git.cat-file.objects", objectNames.size());
+  }
+
+  private void startBatch(BatchProcess batch) {
+    String mode = (batch == mCheckProcess) ? "--batch-check" : "--batch";
+    long startTime = System.nanoTime();
+    try {
+      // (close() stops this process once we release the batch's lock)
+      synchronized (mProcesses) {
+        checkState(!mClosed, "git command pool is closed");
+      }
+      Process process = new ProcessBuilder("git", "cat-file", mode).directory(mDirectory)
+          .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+      batch.process = process;
+      batch.in = new BufferedInputStream(process.getInputStream());
+      batch.out = process.getOutputStream();
+      // The process lives on, so only the time taken to start it is recorded
+      mMetrics.recordFork("cat-file", System.nanoTime() - startTime, -1, -1);
+      log("started git cat-file", mode);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void stopBatch(BatchProcess batch) {
+    if (batch.process == null)
+      return;
+    try {
+      batch.out.close();
+    } catch (IOException e) {
+      // The process is being discarded anyways
+    }
+    batch.process.destroy();
+    batch.process = null;
+  }
+
+  /**
+   * Read a "<id> <type> <size>" header line; returns null for "<name> missing"
+   */
+  private static ObjectInfo readHeader(InputStream in) throws IOException {
+    String line = readLine(in);
+    if (line.endsWith(" missing") || line.endsWith(" ambiguous"))
+      return null;
+    List<String> fields = split(line, ' ');
+    checkState(fields.size() == 3, "unexpected cat-file response:", line);
+    return new ObjectInfo(fields.get(0), fields.get(1), Long.parseLong(fields.get(2)));
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(80);
+    while (true) {
+      int c = in.read();
+      if (c < 0)
+        throw new IOException("unexpected end of cat-file output");
+      if (c == '\n')
+        break;
+      line.write(c);
+    }
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  // ------------------------------------------------------------------
+  // Latency
+  // ------------------------------------------------------------------
+
+  private void recordLatency(String command, long nanos) {
+    synchronized (mLatency) {
+      long[] stats = mLatency.get(command);
+      if (stats == null) {
+        stats = new long[3];
+        mLatency.put(command, stats);
+      }
+      stats[0]++;
+      stats[1] += nanos;
+      stats[2] = Math.max(stats[2], nanos);
+    }
+  }
+
+  /**
+   * Get the number of calls, and their total and maximum latencies (in
+   * microseconds), for each git command that has been run
+   */
+  JSMap latency() {
+    JSMap m = new JSMap();
+    synchronized (mLatency) {
+      for (Map.Entry<String, long[]> ent : mLatency.entrySet()) {
+        long[] stats = ent.getValue();
+        JSMap s = new JSMap();
+        s.put("calls", stats[0]);
+        s.put("total_us", stats[1] / 1000);
+        s.put("max_us", stats[2] / 1000);
+        m.put(ent.getKey(), s);
+      }
+    }
+    return m;
+  }
+
+  /**
+   * Kill any commands that are running, and stop the long-lived processes and
+   * the thread pool. No more commands can be run
+   */
+  void close() {
+    List<Process> running;
+    synchronized (mProcesses) {
+      mClosed = true;
+      running = arrayList();
+      running.addAll(mProcesses);
+      mProcesses.clear();
+    }
+    for (Process process : running)
+      process.destroyForcibly();
+    synchronized (mCheckProcess) {
+      stopBatch(mCheckProcess);
+    }
+    synchronized (mReadProcess) {
+      stopBatch(mReadProcess);
+    }
+    mExecutor.shutdown();
+  }
+
+  private final File mDirectory;
+  private final ExecutorService mExecutor;
+  private final BatchProcess mCheckProcess = new BatchProcess();
+  private final BatchProcess mReadProcess = new BatchProcess();
+  private final Map<String, long[]> mLatency = treeMap();
+  // The forked commands that are running
+  private final Set<Process> mProcesses = hashSet();
+  private boolean mClosed;
+  private volatile Metrics mMetrics = Metrics.DISABLED;
+}
@@ -0,0 +1,210 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.Hunk;
+import js.data.DataUtil;
+
+/**
+ * A diff between two versions of a repository's files: the working tree and
+ * the index (unstaged changes), the index and HEAD (staged changes), or two
+ * commits.
+ *
+ * The list of changed files is obtained without any hunks; the hunks for a
+ * file are loaded when asked for, and cached (with their lines packed), subject
+ * to a limit on the total number of lines retained. Alternatively, forEach()
+ * streams the whole diff.
+ */
+public final class GitDiff {
+
+  /**
+   * The default limit on the number of lines retained, both per file and by
+   * the cache of loaded hunks
+   */
+  public static final int DEFAULT_MAX_LINES = 200000;
+
+  GitDiff(GitCommandPool pool, String... revisionArgs) {
+    mPool = pool;
+    mRevisionArgs = revisionArgs;
+  }
+
+  /**
+   * Set the maximum number of lines retained per file (hunks beyond that have
+   * their ranges, but no lines), and by the cache of loaded hunks
+   */
+  public GitDiff withMaxLines(int maxLines) {
+    checkArgument(maxLines > 0);
+    mMaxLines = maxLines;
+    return this;
+  }
+
+  /**
+   * Get the files that differ, without their hunks
+   */
+  public List<FileEntry> files() {
+    if (mFiles == null) {
+      byte[] output = mPool.run(command("--raw", "-z")).output();
+      mFiles = Collections.unmodifiableList(parseRaw(output));
+    }
+    return mFiles;
+  }
+
+  /**
+   * Get the hunks for one of the files, loading them if necessary
+   */
+  public List<Hunk> hunks(FileEntry file) {
+    return PackedHunk.toHunks(packedHunks(file));
+  }
+
+  /**
+   * Get the hunks for one of the files, with their lines packed, loading them if
+   * necessary
+   */
+  public List<PackedHunk> packedHunks(FileEntry file) {
+    synchronized (mHunkCache) {
+      List<PackedHunk> hunks = mHunkCache.get(file.path());
+      if (hunks != null)
+        return hunks;
+    }
+    List<String> args = arrayList();
+    for (String arg : command("-p"))
+      args.add(arg);
+    args.add("--");
+    args.add(":(literal)" + file.path());
+    if (!file.origPath().isEmpty())
+      args.add(":(literal)" + file.origPath());
+    List<List<PackedHunk>> found = arrayList();
+    mPool.stream(in -> {
+      DiffParser parser = new DiffParser(in, mMaxLines);
+      while (parser.hasNext()) {
+        if (parser.nextPacked().path().equals(file.path()))
+          found.add(parser.packedHunks());
+      }
+      return null;
+    }, args.toArray(new String[0]));
+    List<PackedHunk> hunks = found.isEmpty() ? DataUtil.emptyList() : found.get(0);
+    cacheHunks(file.path(), hunks);
+    return hunks;
+  }
+
+  /**
+   * Get a copy of a file's entry with its hunks filled in
+   */
+  public FileEntry withHunks(FileEntry file) {
+    return file.toBuilder().hunks(hunks(file)).build();
+  }
+
+  /**
+   * Stream the entire diff, passing each file's entry (with its hunks) to a
+   * consumer as soon as it has been parsed
+   */
+  public void forEach(Consumer<FileEntry> consumer) {
+    stream(consumer);
+  }
+
+  private void stream(Consumer<FileEntry> consumer) {
+    mPool.stream(in -> {
+      Iterator<FileEntry> parser = new DiffParser(in, mMaxLines);
+      while (parser.hasNext())
+        consumer.accept(parser.next());
+      return null;
+    }, command("-p"));
+  }
+
+  private void cacheHunks(String path, List<PackedHunk> hunks) {
+    int lines = lineCount(hunks);
+    synchronized (mHunkCache) {
+      List<PackedHunk> previous = mHunkCache.put(path, hunks);
+      if (previous != null)
+        mCachedLines -= lineCount(previous);
+      mCachedLines += lines;
+      Iterator<Map.Entry<String, List<PackedHunk>>> it = mHunkCache.entrySet().iterator();
+      while (mCachedLines > mMaxLines && mHunkCache.size() > 1) {
+        Map.Entry<String, List<PackedHunk>> oldest = it.next();
+        mCachedLines -= lineCount(oldest.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  private static int lineCount(List<PackedHunk> hunks) {
+    int count = 0;
+    for (PackedHunk h : hunks)
+      count += h.lines().size();
+    return count;
+  }
+
+  private String[] command(String... formatArgs) {
+    List<String> args = arrayList();
+    args.add("diff");
+    args.add("--no-color");
+    args.add("--no-ext-diff");
+    args.add("--src-prefix=a/");
+    args.add("--dst-prefix=b/");
+    for (String arg : formatArgs)
+      args.add(arg);
+    for (String arg : mRevisionArgs)
+      args.add(arg);
+    return args.toArray(new String[0]);
+  }
+
+  /**
+   * Parse the output of `git diff --raw -z`: for each file,
+   * ":<old mode> <new mode> <old hash> <new hash> <status>[score]" followed by
+   * one path (or two, for renames and copies), each terminated by NUL
+   */
+  static List<FileEntry> parseRaw(byte[] output) {
+    List<FileEntry> result = arrayList();
+    int pos = 0;
+    while (pos < output.length) {
+      int end = nulIndex(output, pos);
+      String info = new String(output, pos, end - pos, StandardCharsets.UTF_8);
+      checkState(info.startsWith(":"), "Unexpected raw diff record:", info);
+      List<String> fields = split(info.substring(1), ' ');
+      checkState(fields.size() == 5, "Unexpected raw diff record:", info);
+      char status = fields.get(4).charAt(0);
+
+      FileEntry.Builder b = FileEntry.newBuilder();
+      b.oldMode(fields.get(0));
+      b.mode(fields.get(1));
+      b.state(PorcelainParser.fileState(status));
+      pos = end + 1;
+      end = nulIndex(output, pos);
+      String path = new String(output, pos, end - pos, StandardCharsets.UTF_8);
+      pos = end + 1;
+      if (status == 'R' || status == 'C') {
+        b.origPath(path);
+        end = nulIndex(output, pos);
+        path = new String(output, pos, end - pos, StandardCharsets.UTF_8);
+        pos = end + 1;
+      }
+      b.path(path);
+      result.add(b.build());
+    }
+    return result;
+  }
+
+  private static int nulIndex(byte[] bytes, int start) {
+    for (int i = start; i < bytes.length; i++)
+      if (bytes[i] == 0)
+        return i;
+    throw badState("Unterminated raw diff record");
+  }
+
+  private final GitCommandPool mPool;
+  private final String[] mRevisionArgs;
+  private int mMaxLines = DEFAULT_MAX_LINES;
+  private List<FileEntry> mFiles;
+  // Loaded hunks, in order of least recent access
+  private final Map<String, List<PackedHunk>> mHunkCache = new LinkedHashMap<>(16, 0.75f, true);
+  private int mCachedLines;
+}
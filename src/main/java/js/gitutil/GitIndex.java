@@ -0,0 +1,404 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+
+/**
+ * Reads the binary .git/index ("DIRC") file, versions 2 through 4, by memory
+ * mapping it.
+ *
+ * See: https://git-scm.com/docs/index-format
+ *
+ * The entries are stored as parallel primitive arrays rather than as one object
+ * per entry.
+ */
+final class GitIndex {
+
+  static final int MODE_FILE = 0100644;
+  static final int MODE_EXECUTABLE = 0100755;
+  static final int MODE_SYMLINK = 0120000;
+  static final int MODE_GITLINK = 0160000;
+
+  private static final int FLAG_EXTENDED = 0x4000;
+  private static final int FLAG_STAGE_MASK = 0x3000;
+  private static final int FLAG_STAGE_SHIFT = 12;
+  private static final int FLAG_NAME_MASK = 0xfff;
+  private static final int EXTENDED_SKIP_WORKTREE = 0x4000;
+  private static final int EXTENDED_INTENT_TO_ADD = 0x2000;
+
+  private static final int HASH_LENGTH = 20;
+
+  /**
+   * Read an index file. Throws IllegalStateException if it is malformed, or
+   * uses a feature that isn't supported (split or sparse indexes)
+   */
+  static GitIndex read(File indexFile) {
+    try (FileChannel ch = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      FileTime modified = java.nio.file.Files.getLastModifiedTime(indexFile.toPath());
+      MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      return new GitIndex(buffer, modified.to(TimeUnit.NANOSECONDS));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private GitIndex(ByteBuffer buf, long indexModifiedNanos) {
+    mIndexModifiedNanos = indexModifiedNanos;
+    checkState(buf.limit() >= 12 + HASH_LENGTH && buf.getInt(0) == 0x44495243, "not an index file");
+    int version = buf.getInt(4);
+    checkState(version >= 2 && version <= 4, "unsupported index version:", version);
+    int count = buf.getInt(8);
+    checkState(count >= 0, "bad entry count");
+
+    mCount = count;
+    mPaths = new String[count];
+    mMtimeSec = new int[count];
+    mMtimeNsec = new int[count];
+    mIno = new int[count];
+    mMode = new int[count];
+    mSize = new int[count];
+    mFlags = new int[count];
+    mHashes = new byte[count * HASH_LENGTH];
+
+    byte[] pathBuffer = new byte[256];
+    int pathLength = 0;
+    int pos = 12;
+    for (int i = 0; i < count; i++) {
+      int start = pos;
+      mMtimeSec[i] = buf.getInt(pos + 8);
+      mMtimeNsec[i] = buf.getInt(pos + 12);
+      mIno[i] = buf.getInt(pos + 20);
+      mMode[i] = buf.getInt(pos + 24);
+      mSize[i] = buf.getInt(pos + 36);
+      buf.position(pos + 40);
+      buf.get(mHashes, i * HASH_LENGTH, HASH_LENGTH);
+      int flags = buf.getShort(pos + 60) & 0xffff;
+      pos += 62;
+      int extended = 0;
+      if ((flags & FLAG_EXTENDED) != 0) {
+        checkState(version >= 3, "extended flags in version", version, "index");
+        extended = buf.getShort(pos) & 0xffff;
+        pos += 2;
+      }
+      mFlags[i] = (flags & ~FLAG_NAME_MASK) | (extended << 16);
+
+      if (version == 4) {
+        // The path is compressed relative to the previous entry's path: a
+        // varint giving the number of bytes to strip from its end, followed by
+        // a NUL-terminated suffix
+        int c = buf.get(pos++) & 0xff;
+        int strip = c & 0x7f;
+        while ((c & 0x80) != 0) {
+          c = buf.get(pos++) & 0xff;
+          strip = ((strip + 1) << 7) | (c & 0x7f);
+        }
+        checkState(strip <= pathLength, "bad path compression at entry", i);
+        pathLength -= strip;
+      } else
+        pathLength = 0;
+
+      int end = pos;
+      while (buf.get(end) != 0)
+        end++;
+      int suffixLength = end - pos;
+      if (pathLength + suffixLength > pathBuffer.length)
+        pathBuffer = Arrays.copyOf(pathBuffer, 2 * (pathLength + suffixLength));
+      buf.position(pos);
+      buf.get(pathBuffer, pathLength, suffixLength);
+      pathLength += suffixLength;
+      mPaths[i] = new String(pathBuffer, 0, pathLength, StandardCharsets.UTF_8);
+      pos = end + 1;
+
+      // Versions 2 and 3 pad each entry with 1...8 NULs to a multiple of 8 bytes
+      if (version != 4)
+        pos = start + ((pos - start + 7) & ~7);
+    }
+
+    // Reject extensions that change the meaning of the entries
+    while (pos + 8 <= buf.limit() - HASH_LENGTH) {
+      String signature = new String(new byte[] { buf.get(pos), buf.get(pos + 1), buf.get(pos + 2), buf.get(pos + 3) },
+          StandardCharsets.US_ASCII);
+      checkState(!signature.equals("link") && !signature.equals("sdir"), "unsupported index extension:", signature);
+      pos += 8 + buf.getInt(pos + 4);
+    }
+  }
+
+  int size() {
+    return mCount;
+  }
+
+  String path(int i) {
+    return mPaths[i];
+  }
+
+  int mode(int i) {
+    return mMode[i];
+  }
+
+  int stage(int i) {
+    return (mFlags[i] & FLAG_STAGE_MASK) >> FLAG_STAGE_SHIFT;
+  }
+
+  boolean skipWorktree(int i) {
+    return ((mFlags[i] >>> 16) & EXTENDED_SKIP_WORKTREE) != 0;
+  }
+
+  boolean intentToAdd(int i) {
+    return ((mFlags[i] >>> 16) & EXTENDED_INTENT_TO_ADD) != 0;
+  }
+
+  /**
+   * Get the object id of an entry's staged content, as a hex string
+   */
+  String objectId(int i) {
+    StringBuilder sb = new StringBuilder(2 * HASH_LENGTH);
+    for (int j = i * HASH_LENGTH; j < (i + 1) * HASH_LENGTH; j++) {
+      int b = mHashes[j] & 0xff;
+      sb.append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 15]);
+    }
+    return sb.toString();
+  }
+
+  boolean objectIdEquals(int i, byte[] hash) {
+    return Arrays.equals(mHashes, i * HASH_LENGTH, (i + 1) * HASH_LENGTH, hash, 0, hash.length);
+  }
+
+  /**
+   * Find the (stage 0, or lowest stage) entry for a path, or -1
+   */
+  int indexOf(String path) {
+    int lo = 0;
+    int hi = mCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = comparePaths(mPaths[mid], path);
+      if (cmp < 0)
+        lo = mid + 1;
+      else if (cmp > 0)
+        hi = mid - 1;
+      else {
+        while (mid > 0 && mPaths[mid - 1].equals(path))
+          mid--;
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compare paths in the index's order, i.e. by their UTF-8 bytes
+   */
+  static int comparePaths(String a, String b) {
+    int n = Math.min(a.length(), b.length());
+    for (int i = 0; i < n; i++) {
+      char ca = a.charAt(i);
+      char cb = b.charAt(i);
+      if (ca != cb) {
+        // Code unit order matches UTF-8 byte order except for surrogates,
+        // which the index won't contain often enough to matter here
+        return ca - cb;
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  // ------------------------------------------------------------------
+  // Comparing against the working tree
+  // ------------------------------------------------------------------
+
+  /**
+   * Compare each entry against the working tree, and return FileEntries for
+   * those that have been modified or deleted, and for unmerged paths.
+   *
+   * Only the working tree column of `git status` is computed; the oldState of
+   * each returned entry is UNMODIFIED (or UNMERGED). Entries whose stat data is
+   * unchanged are assumed clean, unless they are 'racily clean' (modified no
+   * earlier than the index itself); those, and entries whose stat data changed
+   * but whose size didn't, are rehashed (in parallel) by a BlobHasher
+   */
+  List<FileEntry> worktreeChanges(File rootDirectory, BlobHasher hasher) {
+    List<FileEntry> out = arrayList();
+    List<Integer> suspects = arrayList();
+    String lastUnmerged = null;
+    for (int i = 0; i < mCount; i++) {
+      String path = mPaths[i];
+      if (stage(i) != 0) {
+        if (!path.equals(lastUnmerged)) {
+          lastUnmerged = path;
+          out.add(FileEntry.newBuilder().oldState(FileState.UNMERGED).state(FileState.UNMERGED).path(path).build());
+        }
+        continue;
+      }
+      if (skipWorktree(i) || mMode[i] == MODE_GITLINK)
+        continue;
+      Stat stat = stat(new File(rootDirectory, path).toPath());
+      if (stat == null) {
+        out.add(change(i, FileState.DELETED, 0));
+        continue;
+      }
+      if (intentToAdd(i)) {
+        out.add(change(i, FileState.ADDED, stat.gitMode));
+        continue;
+      }
+      switch (compareStat(i, stat)) {
+      case CHANGED:
+        out.add(change(i, FileState.MODIFIED, stat.gitMode));
+        break;
+      case SUSPECT:
+        suspects.add(i);
+        break;
+      default:
+        break;
+      }
+    }
+    List<Path> files = arrayList();
+    boolean[] symbolicLinks = new boolean[suspects.size()];
+    for (int j = 0; j < suspects.size(); j++) {
+      int i = suspects.get(j);
+      files.add(new File(rootDirectory, mPaths[i]).toPath());
+      symbolicLinks[j] = mMode[i] == MODE_SYMLINK;
+    }
+    byte[][] hashes = hasher.hashAll(files, symbolicLinks);
+    for (int j = 0; j < suspects.size(); j++) {
+      int i = suspects.get(j);
+      if (hashes[j] == null || !objectIdEquals(i, hashes[j]))
+        out.add(change(i, FileState.MODIFIED, mMode[i]));
+    }
+    out.sort((a, b) -> comparePaths(a.path(), b.path()));
+    return out;
+  }
+
+  private FileEntry change(int i, FileState state, int worktreeMode) {
+    return FileEntry.newBuilder().oldState(FileState.UNMODIFIED).state(state).path(mPaths[i])
+        .oldMode(modeText(mMode[i])).mode(modeText(worktreeMode)).build();
+  }
+
+  /**
+   * Format a mode as git does in its status output (six octal digits), sharing
+   * the strings for the common ones
+   */
+  static String modeText(int mode) {
+    switch (mode) {
+    case 0:
+      return "000000";
+    case MODE_FILE:
+      return "100644";
+    case MODE_EXECUTABLE:
+      return "100755";
+    case MODE_SYMLINK:
+      return "120000";
+    case MODE_GITLINK:
+      return "160000";
+    default:
+      return String.format("%06o", mode);
+    }
+  }
+
+  enum StatResult {
+    CLEAN, SUSPECT, CHANGED,
+  }
+
+  /**
+   * Compare an entry's cached stat data with a working tree file's
+   */
+  StatResult compareStat(int i, Stat stat) {
+    if (stat.gitMode != mMode[i] || (int) stat.size != mSize[i])
+      return StatResult.CHANGED;
+    boolean same = (int) (stat.mtimeNanos / 1000000000L) == mMtimeSec[i]
+        && (mMtimeNsec[i] == 0 || (int) (stat.mtimeNanos % 1000000000L) == mMtimeNsec[i])
+        && (stat.ino == 0 || (int) stat.ino == mIno[i]);
+    if (!same || stat.mtimeNanos >= mIndexModifiedNanos)
+      return StatResult.SUSPECT;
+    return StatResult.CLEAN;
+  }
+
+  /**
+   * The subset of a working tree file's attributes that the index caches
+   */
+  static final class Stat {
+    int gitMode;
+    long size;
+    long mtimeNanos;
+    long ino;
+  }
+
+  /**
+   * Get the attributes of a working tree file, or null if it doesn't exist (or
+   * is a directory where a file is expected)
+   */
+  static Stat stat(Path path) {
+    Stat s = new Stat();
+    try {
+      if (sUnixAttributes) {
+        Map<String, Object> attr = java.nio.file.Files.readAttributes(path, "unix:mode,ino,size,lastModifiedTime",
+            LinkOption.NOFOLLOW_LINKS);
+        int mode = (Integer) attr.get("mode");
+        s.gitMode = gitMode(mode);
+        s.ino = (Long) attr.get("ino");
+        s.size = (Long) attr.get("size");
+        s.mtimeNanos = ((FileTime) attr.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+      } else {
+        java.nio.file.attribute.BasicFileAttributes attr = java.nio.file.Files.readAttributes(path,
+            java.nio.file.attribute.BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attr.isSymbolicLink())
+          s.gitMode = MODE_SYMLINK;
+        else if (attr.isRegularFile())
+          s.gitMode = java.nio.file.Files.isExecutable(path) ? MODE_EXECUTABLE : MODE_FILE;
+        s.size = attr.size();
+        s.mtimeNanos = attr.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (UnsupportedOperationException e) {
+      sUnixAttributes = false;
+      return stat(path);
+    }
+    if (s.gitMode == 0)
+      return null;
+    return s;
+  }
+
+  private static int gitMode(int unixMode) {
+    switch (unixMode & 0170000) {
+    case 0120000:
+      return MODE_SYMLINK;
+    case 0100000:
+      return (unixMode & 0100) != 0 ? MODE_EXECUTABLE : MODE_FILE;
+    default:
+      return 0;
+    }
+  }
+
+  private static volatile boolean sUnixAttributes = true;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final long mIndexModifiedNanos;
+  private final int mCount;
+  private final String[] mPaths;
+  private final int[] mMtimeSec;
+  private final int[] mMtimeNsec;
+  private final int[] mIno;
+  private final int[] mMode;
+  private final int[] mSize;
+  private final int[] mFlags;
+  private final byte[] mHashes;
+}
@@ -1,27 +1,71 @@
 package js.gitutil;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static js.base.Tools.*;
 
 import js.base.BaseObject;
-import js.base.SystemCall;
 import js.data.DataUtil;
 import js.file.Files;
+import js.json.JSMap;
+import gitutil.gen.BlameRange;
 import gitutil.gen.FileEntry;
 import gitutil.gen.FileState;
-import js.parsing.StringParser;
+import gitutil.gen.HeadInfo;
+import gitutil.gen.Hunk;
+import gitutil.gen.MarkerMatch;
+import gitutil.gen.RepoScanResult;
+import gitutil.gen.RepoSnapshot;
 
-public final class GitRepo extends BaseObject {
+public final class GitRepo extends BaseObject implements AutoCloseable {
 
   public GitRepo(File directory) {
-    mRootDirectory = findGitRootDirectory(directory);
+    directory = Files.absolute(directory);
+    Files.assertDirectoryExists(directory);
+    mLocation = RootDiscovery.locate(directory);
   }
 
   public File rootDirectory() {
-    return mRootDirectory;
+    return mLocation.root();
+  }
+
+  /**
+   * Get the repository's git directory: usually its .git directory, but for a
+   * linked worktree or submodule, the directory its .git file points to
+   */
+  public File gitDirectory() {
+    return mLocation.gitDirectory();
+  }
+
+  /**
+   * Get the directory holding the repository's objects and refs, which a
+   * linked worktree shares with the main worktree
+   */
+  public File commonDirectory() {
+    return mLocation.commonDirectory();
+  }
+
+  /**
+   * Find the roots of all the repositories within a tree, including nested
+   * repositories and submodules. The tree is searched in parallel, and the
+   * repositories found are remembered so that constructing GitRepos for them is
+   * fast
+   */
+  public static List<File> findRepositories(File tree) {
+    return RootDiscovery.findAll(Files.absolute(tree), Runtime.getRuntime().availableProcessors());
   }
 
   public File absoluteFile(String pathRelativeToRoot) {
@@ -29,64 +73,124 @@ public final class GitRepo extends BaseObject {
     return new File(rootDirectory(), pathRelativeToRoot);
   }
 
+  /**
+   * Determine the branch name: in detached head mode, this is "HEAD" (as `git
+   * rev-parse --abbrev-ref HEAD` returns); use head() to distinguish that case.
+   * It is read from the refs (see head()), not from a snapshot, so it never
+   * waits for a `git status`
+   */
   public String branchName() {
-    if (mBranch == null) {
-      // If in detached head mode, this won't work;
-      //
-      // https://stackoverflow.com/questions/6245570
-      //   
-      mBranch = "<UNKNOWN>";
-      SystemCall s = sysCall().arg("git", "rev-parse", "--abbrev-ref", "HEAD");
-      if (s.exitCode() == 0) {
-        File f = new File(s.systemOut().trim());
-        mBranch = Files.basename(f);
+    try (Metrics.Scope scope = mMetrics.begin("branchName")) {
+      HeadInfo head = head();
+      if (nonEmpty(head.commitId())) {
+        File f = new File(head.detached() ? "HEAD" : head.branch());
+        return Files.basename(f);
       }
+      return "<UNKNOWN>";
     }
-    return mBranch;
   }
 
+  /**
+   * Determine the current branch, commit id, and whether HEAD is detached.
+   * Reads the refs directly (caching them until their files change), falling
+   * back to forking git if that fails. The commit id is empty if the branch has
+   * no commits yet
+   */
+  public HeadInfo head() {
+    try {
+      return refResolver().head();
+    } catch (RuntimeException e) {
+      log("can't resolve HEAD directly:", e.getMessage());
+    }
+    HeadInfo.Builder b = HeadInfo.newBuilder();
+    GitCommandPool.Result s = git("rev-parse", "--abbrev-ref", "HEAD");
+    if (s.exitCode() == 0) {
+      String name = s.systemOut().trim();
+      b.detached(name.equals("HEAD"));
+      if (!b.detached())
+        b.branch(name);
+      b.commitId(git("rev-parse", "HEAD").systemOut().trim());
+    }
+    return b.build();
+  }
+
+  private synchronized RefResolver refResolver() {
+    if (mRefResolver == null)
+      mRefResolver = new RefResolver(gitDirectory(), commonDirectory());
+    return mRefResolver;
+  }
+
+  /**
+   * Get the abbreviated name of HEAD's commit; i.e., past_commit_name(-1)
+   */
   public String past_commit_name() {
     return past_commit_name(-1);
   }
 
+  /**
+   * Get the abbreviated name of a commit in HEAD's history, where -1 is HEAD
+   * itself, -2 is its first ancestor, and so on (following all parents, in
+   * `git log` order). Names are fetched a page at a time, and kept until HEAD
+   * changes
+   */
   public String past_commit_name(int index) {
     checkArgument(index < 0, "index must be negative");
-    if (mPastCommitNames == null) {
-      String x = sysCall().arg("git", "log", "--pretty=format:\"%h\"", "-30").systemOut().trim();
-      mPastCommitNames = arrayList();
-      for (String w : split(x, '\n')) {
-        // Remove quotes "xxxx" from string
-        mPastCommitNames.add(w.substring(1, w.length() - 1));
+    // This depends only on HEAD, so (unlike the other cached results) it
+    // needn't wait for a snapshot
+    String headId = head().commitId();
+    synchronized (mCacheLock) {
+      if (!headId.equals(mPastCommitsHead)) {
+        mPastCommitsHead = headId;
+        mPastCommitNames = null;
       }
+      int j = -1 - index;
+      if (mPastCommitNames == null || j < mPastCommitStart || j >= mPastCommitStart + PAST_COMMIT_PAGE) {
+        mPastCommitStart = j - j % PAST_COMMIT_PAGE;
+        mPastCommitNames = arrayList();
+        try (CommitIterator it = commits("HEAD", mPastCommitStart)) {
+          while (mPastCommitNames.size() < PAST_COMMIT_PAGE && it.hasNext())
+            mPastCommitNames.add(it.next().shortHash());
+        }
+      }
+      int k = j - mPastCommitStart;
+      if (k >= mPastCommitNames.size())
+        throw badArg("No such commit at index", index);
+      return mPastCommitNames.get(k);
     }
-    int j = -1 - index;
-    if (j >= mPastCommitNames.size())
-      throw badArg("No such commit at index", index);
-    return mPastCommitNames.get(j);
   }
 
-  private static final Map<String, FileState> sFileStateMap = hashMap();
+  private static final int PAST_COMMIT_PAGE = 30;
+
+  /**
+   * Iterate over the commits in HEAD's history, newest first. The iterator
+   * should be closed if it isn't read to the end
+   */
+  public CommitIterator commits() {
+    return commits("HEAD");
+  }
 
-  private static void add(String str, FileState state) {
-    sFileStateMap.put(str, state);
+  /**
+   * Iterate over the commits in a revision's history, newest first. The
+   * iterator should be closed if it isn't read to the end
+   */
+  public CommitIterator commits(String revision) {
+    return commits(revision, 0);
   }
 
-  static {
-    add(" ", FileState.UNMODIFIED);
-    add("?", FileState.UNTRACKED);
-    add("M", FileState.MODIFIED);
-    add("A", FileState.ADDED);
-    add("D", FileState.DELETED);
-    add("R", FileState.RENAMED);
-    add("C", FileState.COPIED);
-    add("U", FileState.UNMERGED);
+  private CommitIterator commits(String revision, int skip) {
+    // A branch with no commits yet has no history (rather than an error)
+    if (revision.equals("HEAD") && head().commitId().isEmpty())
+      return new CommitIterator();
+    return new CommitIterator(commandPool(), revision, skip);
   }
 
-  private static FileState fileState(String text) {
-    FileState result = sFileStateMap.get(text);
-    if (result == null)
-      throw badArg("Unrecognized file state key:", text);
-    return result;
+  /**
+   * Determine the branch and status of many repositories in parallel, passing
+   * each one's result to a consumer as it finishes; see MultiRepoScanner for
+   * more options
+   */
+  public static void scan(Collection<File> roots, Consumer<RepoScanResult> consumer) {
+    new MultiRepoScanner().scan(roots, consumer);
   }
 
   public boolean workingTreeModified() {
@@ -95,83 +199,677 @@ public final class GitRepo extends BaseObject {
 
   /**
    * Perform a git status to determine modified, deleted, untracked, and added
-   * files
+   * files. The results are those of the latest snapshot (see snapshot()), or
+   * if startWatching() has been called, of a snapshot reflecting any changes
+   * since then
    */
   public List<FileEntry> fileEntries() {
-    if (mFileEntries != null)
-      return mFileEntries;
+    try (Metrics.Scope scope = mMetrics.begin("fileEntries")) {
+      return currentSnapshot().entries();
+    }
+  }
 
-    List<FileEntry> out = arrayList();
+  // ------------------------------------------------------------------
+  // Snapshots
+  // ------------------------------------------------------------------
 
-    // See: https://git-scm.com/docs/git-status#_porcelain_format_version_2
+  /**
+   * Get the latest snapshot of the repository's status, taking one
+   * if there isn't one yet. Snapshots are immutable and can be shared between
+   * threads; once one exists, this returns without blocking. If watching for
+   * changes, a refresh is also started in the background (merged with any
+   * that are already waiting)
+   */
+  public RepoSnapshot snapshot() {
+    SnapshotRefresher refresher = snapshots();
+    RepoSnapshot snapshot = refresher.current();
+    if (snapshot == null) {
+      mMetrics.count("snapshot.misses", 1);
+      return await(refresher.refreshOrJoin());
+    }
+    mMetrics.count("snapshot.hits", 1);
+    if (watching())
+      refresher.refresh();
+    return snapshot;
+  }
 
-    SystemCall systemCall = sysCall();
-    systemCall.arg("git", "status", "--porcelain");
-    String content = chomp(systemCall.systemOut());
-    if (!content.isEmpty()) {
-      for (String line : split(content, '\n')) {
-        FileEntry.Builder b = FileEntry.newBuilder();
+  /**
+   * Take a new snapshot in the background, which is published (i.e. returned
+   * by later calls to snapshot()) when it is complete. Concurrent requests
+   * share a single snapshot, and so a single `git status`; each gets its own
+   * copy of the future, so cancelling it doesn't affect the others
+   */
+  public CompletableFuture<RepoSnapshot> refresh() {
+    return snapshots().refresh().copy();
+  }
 
-        StringParser gp = new StringParser(line);
-        String status1 = gp.readChars(1);
-        String status2 = gp.readChars(1);
-        b.oldState(fileState(status1));
-        b.state(fileState(status2));
+  // ------------------------------------------------------------------
+  // Asynchronous queries
+  // ------------------------------------------------------------------
 
-        gp.read(" ");
+  /**
+   * Run the asynchronous queries that don't derive from a snapshot (e.g.
+   * pastCommitNameAsync()) on an executor; null (the default) runs them on
+   * threads belonging to this repository. Snapshots are always taken on the
+   * repository's own threads, so queries waiting for one never occupy the
+   * threads it needs
+   */
+  public GitRepo withExecutor(Executor executor) {
+    mExecutor = executor;
+    return this;
+  }
 
-        String path = gp.readPath();
+  /**
+   * Get a future for the snapshot the blocking queries (fileEntries(),
+   * untrackedFiles(), etc.) would be answered from: the latest one, or if
+   * watching for changes, one taken after any changes seen so far. Requests
+   * made while a snapshot is being taken share it
+   */
+  public CompletableFuture<RepoSnapshot> snapshotAsync() {
+    SnapshotRefresher refresher = snapshots();
+    if (watching())
+      return refresher.refresh().copy();
+    RepoSnapshot snapshot = refresher.current();
+    if (snapshot != null) {
+      mMetrics.count("snapshot.hits", 1);
+      return CompletableFuture.completedFuture(snapshot);
+    }
+    mMetrics.count("snapshot.misses", 1);
+    return refresher.refreshOrJoin().copy();
+  }
 
-        if (!gp.done()) {
-          gp.read(" -> ");
-          b.origPath(path);
-          path = gp.readPath();
-        }
-        b.path(path);
+  public CompletableFuture<String> branchNameAsync() {
+    return query("branchName", this::branchName);
+  }
+
+  public CompletableFuture<List<FileEntry>> fileEntriesAsync() {
+    return snapshotAsync().thenApply(RepoSnapshot::entries);
+  }
+
+  public CompletableFuture<List<FileEntry>> markedFilesAsync() {
+    return snapshotAsync().thenApplyAsync(this::markedFiles, queryExecutor());
+  }
+
+  public CompletableFuture<String> pastCommitNameAsync() {
+    return pastCommitNameAsync(-1);
+  }
+
+  /**
+   * Get the abbreviated name of a commit in HEAD's history; see
+   * past_commit_name(index)
+   */
+  public CompletableFuture<String> pastCommitNameAsync(int index) {
+    checkArgument(index < 0, "index must be negative");
+    return query("past_commit_name " + index, () -> past_commit_name(index));
+  }
 
-        gp.assertDone();
-        out.add(b.build());
+  /**
+   * Run a blocking query on the executor, unless an identical one (with the
+   * same key) is already running, in which case its result is shared. Each
+   * caller gets its own copy of the future, so cancelling it doesn't affect
+   * the others
+   */
+  @SuppressWarnings("unchecked")
+  private <T> CompletableFuture<T> query(String key, Supplier<T> query) {
+    CompletableFuture<T> future;
+    synchronized (mQueries) {
+      future = (CompletableFuture<T>) mQueries.get(key);
+      if (future != null) {
+        mMetrics.count("query.merged", 1);
+        return future.copy();
       }
+      future = new CompletableFuture<>();
+      mQueries.put(key, future);
     }
-    mFileEntries = out;
-    return out;
+    CompletableFuture<T> f = future;
+    Runnable task = () -> {
+      T result = null;
+      Throwable failure = null;
+      try {
+        result = query.get();
+      } catch (Throwable t) {
+        failure = t;
+      }
+      // Later requests start a new query, as the data may have changed
+      synchronized (mQueries) {
+        mQueries.remove(key, f);
+      }
+      if (failure != null)
+        f.completeExceptionally(failure);
+      else
+        f.complete(result);
+    };
+    try {
+      queryExecutor().execute(task);
+    } catch (RuntimeException e) {
+      synchronized (mQueries) {
+        mQueries.remove(key, f);
+      }
+      f.completeExceptionally(e);
+    }
+    return f.copy();
   }
 
-  public List<FileEntry> untrackedFiles() {
-    if (mUntracked == null) {
-      mUntracked = arrayList();
-      for (FileEntry ent : fileEntries()) {
+  private Executor queryExecutor() {
+    Executor executor = mExecutor;
+    if (executor != null)
+      return executor;
+    return task -> commandPool().execute(task);
+  }
+
+  /**
+   * Get an index of the status entries by path, for looking up entries and
+   * counts by directory. It is built (once) for the snapshot fileEntries()
+   * would return
+   */
+  public PathIndex pathIndex() {
+    RepoSnapshot snapshot = currentSnapshot();
+    PathIndex index = mPathIndex;
+    if (index == null || index.snapshot() != snapshot) {
+      index = PathIndex.of(snapshot, () -> markedFiles(snapshot));
+      mPathIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Get the snapshot to answer a query from: the latest one, or if watching
+   * for changes, one taken after any changes seen so far
+   */
+  private RepoSnapshot currentSnapshot() {
+    return await(snapshotAsync());
+  }
+
+  private synchronized SnapshotRefresher snapshots() {
+    if (mSnapshots == null)
+      mSnapshots = new SnapshotRefresher(this::takeSnapshot, task -> commandPool().execute(task));
+    return mSnapshots;
+  }
+
+  /**
+   * Wait for a future's result; unlike join(), this can be interrupted (e.g. by
+   * MultiRepoScanner abandoning a repository that has taken too long)
+   */
+  private static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Determine the status, and the lists derived from it. Called
+   * by the SnapshotRefresher, which never runs two at once
+   */
+  private RepoSnapshot takeSnapshot() {
+    try (Metrics.Scope scope = mMetrics.begin("snapshot")) {
+      StatusWatcher watcher;
+      synchronized (this) {
+        watcher = mStatusWatcher;
+      }
+      List<FileEntry> entries;
+      if (watcher != null)
+        entries = watcher.entries();
+      else {
+        entries = arrayList();
+        forEachFileEntry(entries::add);
+      }
+
+      // If the watcher's entries haven't changed, neither has the snapshot
+      RepoSnapshot previous = mSnapshots.current();
+      if (previous != null && entries == mSnapshotSource)
+        return previous;
+      mSnapshotSource = entries;
+
+      List<FileEntry> untracked = arrayList();
+      List<FileEntry> unmerged = arrayList();
+      for (FileEntry ent : entries) {
         if (ent.state() == FileState.UNTRACKED)
-          mUntracked.add(ent);
+          untracked.add(ent);
+        else if (ent.state() == FileState.UNMERGED)
+          unmerged.add(ent);
+      }
+      RepoSnapshot.Builder b = RepoSnapshot.newBuilder();
+      b.entries(entries);
+      b.untracked(untracked);
+      b.unmerged(unmerged);
+      b.timestampMs(System.currentTimeMillis());
+      return b.build();
+    }
+  }
+
+  /**
+   * Enable or disable the persistent status cache, a file within the .git
+   * directory that records the results of scanning files for markers, so that
+   * later runs only rescan files whose stat data has changed
+   */
+  public GitRepo withStatusCache(boolean enabled) {
+    mStatusCacheEnabled = enabled;
+    return this;
+  }
+
+  /**
+   * Record the operations performed (and the git processes they fork) in some
+   * metrics, which may be shared with other GitRepos; Metrics.DISABLED (the
+   * default) records nothing
+   */
+  public GitRepo withMetrics(Metrics metrics) {
+    checkNotNull(metrics);
+    synchronized (this) {
+      mMetrics = metrics;
+      if (mCommandPool != null)
+        mCommandPool.setMetrics(metrics);
+    }
+    mBlobHasher.setMetrics(metrics);
+    return this;
+  }
+
+  public Metrics metrics() {
+    return mMetrics;
+  }
+
+  /**
+   * Watch the working tree and .git directory for changes, so that
+   * fileEntries() and the results derived from it stay current instead of
+   * being computed once. Each query then runs `git status` on just the paths
+   * that have changed since the previous one (if any). Call close() to stop
+   * watching
+   */
+  public synchronized void startWatching() {
+    if (mStatusWatcher == null)
+      mStatusWatcher = new StatusWatcher(rootDirectory(), gitDirectory(), commonDirectory(), commandPool());
+  }
+
+  private synchronized boolean watching() {
+    return mStatusWatcher != null;
+  }
+
+  /**
+   * Discard the results cached outside of the snapshot if a newer snapshot
+   * has been published (or if watching, if anything has changed)
+   */
+  private void validateCaches() {
+    RepoSnapshot snapshot = watching() ? currentSnapshot() : snapshots().current();
+    synchronized (mCacheLock) {
+      if (snapshot != mCachesSnapshot) {
+        mCachesSnapshot = snapshot;
+        mTrackedChanges = null;
+        mFoundUntracked = null;
+        mIgnoreMatcher = null;
       }
     }
-    return mUntracked;
+  }
+
+  /**
+   * Perform a git status, passing each entry to a consumer as it is parsed from
+   * git's output. Unlike fileEntries(), the results are not cached
+   */
+  public void forEachFileEntry(Consumer<FileEntry> consumer) {
+    try (Metrics.Scope scope = mMetrics.begin("forEachFileEntry")) {
+      commandPool().stream(in -> {
+        PorcelainParser parser = new PorcelainParser(in);
+        while (parser.hasNext())
+          consumer.accept(parser.next());
+        return null;
+      }, "status", "--porcelain=v2", "-z");
+    }
+  }
+
+  /**
+   * Get the diff between the index and the working tree
+   */
+  public GitDiff unstagedDiff() {
+    return new GitDiff(commandPool());
+  }
+
+  /**
+   * Get the diff between HEAD and the index
+   */
+  public GitDiff stagedDiff() {
+    return new GitDiff(commandPool(), "--cached");
+  }
+
+  /**
+   * Get the diff between two commits
+   */
+  public GitDiff diff(String fromCommit, String toCommit) {
+    checkArgument(nonEmpty(fromCommit) && !fromCommit.startsWith("-"), "bad commit:", fromCommit);
+    checkArgument(nonEmpty(toCommit) && !toCommit.startsWith("-"), "bad commit:", toCommit);
+    return new GitDiff(commandPool(), fromCommit, toCommit);
+  }
+
+  /**
+   * Diff the working tree versions of some files against their staged versions
+   * (or their HEAD versions, if againstHead is true) within this process,
+   * rather than by running `git diff`. Returns an entry, with hunks, for each
+   * file whose contents differ; binary files have no hunks.
+   *
+   * The files' bytes are compared as they are; no clean filters or end of line
+   * conversions are applied
+   */
+  public List<FileEntry> diffWorkingTree(List<String> paths, boolean againstHead) {
+    try (Metrics.Scope scope = mMetrics.begin("diffWorkingTree")) {
+      List<String> objectNames = arrayList();
+      for (String path : paths)
+        objectNames.add((againstHead ? "HEAD:" : ":") + path);
+      List<byte[]> oldContents = againstHead ? null : stagedContents(paths);
+      if (oldContents == null)
+        oldContents = commandPool().batchRead(objectNames);
+      List<FileEntry> result = arrayList();
+      for (int i = 0; i < paths.size(); i++) {
+        String path = paths.get(i);
+        byte[] oldContent = oldContents.get(i);
+        File file = absoluteFile(path);
+        byte[] newContent = file.isFile() ? Files.toByteArray(file, "diffWorkingTree") : null;
+        if (oldContent == null && newContent == null)
+          continue;
+        FileEntry.Builder b = FileEntry.newBuilder().path(path);
+        b.state(oldContent == null ? FileState.ADDED : newContent == null ? FileState.DELETED : FileState.MODIFIED);
+        if (oldContent == null)
+          oldContent = new byte[0];
+        if (newContent == null)
+          newContent = new byte[0];
+        if (DiffEngine.isBinary(oldContent) || DiffEngine.isBinary(newContent)) {
+          if (!Arrays.equals(oldContent, newContent))
+            result.add(b.build());
+          continue;
+        }
+        List<Hunk> hunks = DiffEngine.diff(path, oldContent, newContent, DiffEngine.DEFAULT_CONTEXT);
+        if (!hunks.isEmpty())
+          result.add(b.hunks(hunks).build());
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Read the staged versions of some files, using the index and the object
+   * database directly; returns null if the index can't be read
+   */
+  private List<byte[]> stagedContents(List<String> paths) {
+    GitIndex index;
+    try {
+      index = GitIndex.read(new File(gitDirectory(), "index"));
+    } catch (RuntimeException e) {
+      log("can't read index:", e.getMessage());
+      return null;
+    }
+    List<byte[]> result = arrayList();
+    for (String path : paths) {
+      int i = index.indexOf(path);
+      result.add((i < 0 || index.stage(i) != 0) ? null : objectContents(index.objectId(i)));
+    }
+    return result;
+  }
+
+  /**
+   * Determine which tracked files have been modified or deleted in the working
+   * tree (and which are unmerged), by reading the .git/index file directly
+   * instead of forking git.
+   *
+   * Only the working tree column of the status is computed; staged changes are
+   * not reported. If the index can't be read (e.g. it uses an unsupported
+   * format), falls back to `git status`
+   */
+  public List<FileEntry> trackedChanges() {
+    validateCaches();
+    synchronized (mCacheLock) {
+      if (mTrackedChanges == null) {
+        try (Metrics.Scope scope = mMetrics.begin("trackedChanges")) {
+          mTrackedChanges = GitIndex.read(new File(gitDirectory(), "index")).worktreeChanges(rootDirectory(), mBlobHasher);
+        } catch (RuntimeException e) {
+          log("can't read index, falling back to git status:", e.getMessage());
+          List<FileEntry> out = arrayList();
+          for (FileEntry ent : fileEntries()) {
+            FileState state = ent.state();
+            if (state != FileState.UNMODIFIED && state != FileState.UNTRACKED)
+              out.add(ent);
+          }
+          mTrackedChanges = out;
+        }
+      }
+      return mTrackedChanges;
+    }
+  }
+
+  public List<FileEntry> untrackedFiles() {
+    try (Metrics.Scope scope = mMetrics.begin("untrackedFiles")) {
+      return currentSnapshot().untracked();
+    }
   }
 
   public List<FileEntry> unmergedFiles() {
-    if (mUnmerged == null) {
-      mUnmerged = arrayList();
-      for (FileEntry ent : fileEntries()) {
-        if (ent.state() == FileState.UNMERGED)
-          mUnmerged.add(ent);
+    try (Metrics.Scope scope = mMetrics.begin("unmergedFiles")) {
+      return currentSnapshot().unmerged();
+    }
+  }
+
+  /**
+   * Determine which files are untracked without forking git, by walking the
+   * working tree in parallel, skipping ignored directories, and checking the
+   * files found against the index and the ignore rules. The results match
+   * untrackedFiles(): a directory with no tracked files is reported as a
+   * whole. If the index can't be read, falls back to untrackedFiles()
+   */
+  public List<FileEntry> findUntrackedFiles() {
+    validateCaches();
+    synchronized (mCacheLock) {
+      if (mFoundUntracked == null) {
+        try (Metrics.Scope scope = mMetrics.begin("findUntrackedFiles")) {
+          GitIndex index = readIndex();
+          if (index != null) {
+            UntrackedScanner scanner = new UntrackedScanner(rootDirectory().toPath(), index, ignoreMatcher());
+            mFoundUntracked = scanner.scan(ForkJoinPool.commonPool());
+          }
+        }
+        if (mFoundUntracked == null)
+          mFoundUntracked = untrackedFiles();
       }
+      return mFoundUntracked;
+    }
+  }
+
+  /**
+   * Read the index, or return null (logging why) if it can't be read
+   */
+  private GitIndex readIndex() {
+    try {
+      return GitIndex.read(new File(gitDirectory(), "index"));
+    } catch (RuntimeException e) {
+      log("can't read index, falling back to git status:", e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Determine whether a path (relative to the root) is ignored by the
+   * .gitignore files, .git/info/exclude or core.excludesFile. A path ending
+   * with '/' is taken to be a directory; otherwise, whether it is one is
+   * determined from the working tree
+   */
+  public boolean isIgnored(String path) {
+    checkArgument(nonEmpty(path) && !path.startsWith("/"), "bad path:", path);
+    validateCaches();
+    boolean isDirectory = path.endsWith("/") || absoluteFile(path).isDirectory();
+    return ignoreMatcher().isIgnored(path, isDirectory);
+  }
+
+  private IgnoreMatcher ignoreMatcher() {
+    synchronized (mCacheLock) {
+      if (mIgnoreMatcher == null)
+        mIgnoreMatcher = new IgnoreMatcher(rootDirectory(), commonDirectory());
+      return mIgnoreMatcher;
     }
-    return mUnmerged;
   }
 
+  /**
+   * Determine which modified or added files contain MARK_SENTINEL_TEXT (as of
+   * the snapshot fileEntries() is taken from). If the status cache is enabled,
+   * only files that have changed since they were last scanned (by this or an
+   * earlier process) are scanned
+   */
   public List<FileEntry> markedFiles() {
-    if (mMarked == null) {
-      mMarked = arrayList();
-      for (FileEntry ent : fileEntries()) {
-        if (ent.state() == FileState.MODIFIED || ent.state() == FileState.ADDED) {
-          File path = absoluteFile(ent.path());
-          byte[] bytes = Files.toByteArray(path, null);
-          if (indexOfMarker(bytes) >= 0)
-            mMarked.add(ent);
+    try (Metrics.Scope scope = mMetrics.begin("markedFiles")) {
+      return markedFiles(currentSnapshot());
+    }
+  }
+
+  /**
+   * Get the marked files of a snapshot, scanning for them the first time they
+   * are asked for
+   */
+  private List<FileEntry> markedFiles(RepoSnapshot snapshot) {
+    synchronized (mMarkedLock) {
+      if (mMarkedSnapshot != snapshot) {
+        mMarked = findMarkedFiles(snapshot.entries());
+        mMarkedSnapshot = snapshot;
+      }
+      return mMarked;
+    }
+  }
+
+  private List<FileEntry> findMarkedFiles(List<FileEntry> entries) {
+    List<FileEntry> candidates = arrayList();
+    for (FileEntry ent : entries) {
+      if (ent.state() == FileState.MODIFIED || ent.state() == FileState.ADDED)
+        candidates.add(ent);
+    }
+    boolean[] marked = new boolean[candidates.size()];
+    StatusCache cache = mStatusCacheEnabled ? StatusCache.read(gitDirectory(), MARK_SENTINEL_TEXT) : null;
+    GitIndex.Stat[] stats = new GitIndex.Stat[candidates.size()];
+    List<File> files = arrayList();
+    List<Integer> scanned = arrayList();
+    for (int i = 0; i < candidates.size(); i++) {
+      File file = absoluteFile(candidates.get(i).path());
+      if (cache != null) {
+        stats[i] = GitIndex.stat(file.toPath());
+        Boolean cached = cache.marked(candidates.get(i).path(), stats[i]);
+        if (cached != null) {
+          marked[i] = cached;
+          continue;
         }
       }
+      files.add(file);
+      scanned.add(i);
+    }
+    if (cache != null) {
+      mMetrics.count("markedFiles.status_cache_hits", candidates.size() - files.size());
+      mMetrics.count("markedFiles.status_cache_misses", files.size());
+    }
+    LongAdder bytesScanned = mMetrics.enabled() ? new LongAdder() : null;
+    boolean[] scanResults = MarkerScanner.DEFAULT.containsAny(files, bytesScanned);
+    if (bytesScanned != null) {
+      mMetrics.count("markedFiles.files_scanned", files.size());
+      mMetrics.count("markedFiles.bytes_scanned", bytesScanned.sum());
     }
-    return mMarked;
+    for (int j = 0; j < scanResults.length; j++) {
+      int i = scanned.get(j);
+      marked[i] = scanResults[j];
+      if (cache != null)
+        cache.put(candidates.get(i).path(), stats[i], marked[i]);
+    }
+    if (cache != null) {
+      Set<String> paths = hashSet();
+      for (FileEntry ent : candidates)
+        paths.add(ent.path());
+      cache.retainAll(paths);
+      if (!cache.write())
+        log("can't write status cache");
+    }
+    List<FileEntry> result = arrayList();
+    for (int i = 0; i < marked.length; i++)
+      if (marked[i])
+        result.add(candidates.get(i));
+    return result;
+  }
+
+  /**
+   * Scan the modified and added files for any of a set of marker patterns,
+   * returning every match (ordered by path and offset) in a single pass over
+   * each file
+   */
+  public List<MarkerMatch> findMarkers(List<String> patterns) {
+    try (Metrics.Scope scope = mMetrics.begin("findMarkers")) {
+      List<byte[]> patternBytes = arrayList();
+      for (String p : patterns)
+        patternBytes.add(DataUtil.toByteArray(p));
+      List<String> paths = arrayList();
+      for (FileEntry ent : fileEntries())
+        if (ent.state() == FileState.MODIFIED || ent.state() == FileState.ADDED)
+          paths.add(ent.path());
+      return new MarkerScanner(MarkerEngine.forPatterns(patternBytes)).findAll(rootDirectory(), paths);
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Blame
+  // ------------------------------------------------------------------
+
+  /**
+   * Determine which commit last changed each line of a working tree file
+   * (lines not yet committed are attributed to the all-zeros commit), passing
+   * each range of lines to a consumer as soon as git reports it. Ranges arrive
+   * in the order git finds them, not by line number.
+   *
+   * Results are cached within the .git directory, keyed by the file's path,
+   * the id of its working tree version and the HEAD commit, so an unchanged
+   * file is blamed only once, even across runs; a cached result is passed to the
+   * consumer immediately. Throws IllegalStateException if git can't blame the
+   * file (e.g. it is untracked)
+   */
+  public void blame(String path, Consumer<BlameRange> consumer) {
+    try (Metrics.Scope scope = mMetrics.begin("blame")) {
+      BlameCache cache = new BlameCache(gitDirectory());
+      String key = blameKey(path);
+      List<BlameRange> cached = (key == null) ? null : cache.get(key);
+      if (cached != null) {
+        mMetrics.count("blame.cache_hits", 1);
+        cached.forEach(consumer);
+        return;
+      }
+      mMetrics.count("blame.cache_misses", 1);
+      List<BlameRange> ranges = arrayList();
+      commandPool().stream(in -> {
+        BlameParser parser = new BlameParser(in);
+        while (parser.hasNext()) {
+          BlameRange range = parser.next();
+          ranges.add(range);
+          consumer.accept(range);
+        }
+        return null;
+      }, "blame", "--incremental", "--", path);
+      // If the file changed while it was being blamed, the result might not be
+      // that of the version the key names
+      if (key != null && key.equals(blameKey(path)) && !cache.put(key, ranges))
+        log("can't cache blame of:", path);
+    }
+  }
+
+  /**
+   * Determine which commit last changed each line of a working tree file; see
+   * blame(path, consumer). The ranges are ordered by line number
+   */
+  public List<BlameRange> blame(String path) {
+    List<BlameRange> result = arrayList();
+    blame(path, result::add);
+    result.sort((a, b) -> Integer.compare(a.line(), b.line()));
+    return result;
+  }
+
+  /**
+   * Construct the key a file's blame is cached by, or null if it doesn't exist
+   */
+  private String blameKey(String path) {
+    String worktreeId = blobIds(List.of(path)).get(0);
+    if (worktreeId == null)
+      return null;
+    return BlameCache.key(path, worktreeId, head().commitId());
   }
 
   /**
@@ -183,116 +881,299 @@ public final class GitRepo extends BaseObject {
     return Files.fileRelativeToDirectory(absoluteFile(filePath), otherDirectory);
   }
 
-  private static File findGitRootDirectory(File descendentDir) {
-    descendentDir = Files.absolute(descendentDir);
-    Files.assertDirectoryExists(descendentDir);
-    File result = descendentDir;
-    while (true) {
-      File sentinel = new File(result, ".git");
-      if (sentinel.exists())
-        return result;
-      result = result.getParentFile();
-      checkState(Files.nonEmpty(result), "No .git directory found in parents of:", descendentDir);
+  /**
+   * Look up the id of an object, e.g. "HEAD", "HEAD:src/foo.txt" or ":foo.txt"
+   * (the staged version of a file), without forking a git process. Returns
+   * null if no such object exists
+   */
+  public String objectId(String objectName) {
+    GitCommandPool.ObjectInfo info = commandPool().batchCheck(List.of(objectName)).get(0);
+    return (info == null) ? null : info.id();
+  }
+
+  /**
+   * Read the contents of an object without forking a git process. Objects named
+   * by their ids are read directly from the object database; other names (and
+   * objects that can't be read that way) are looked up by a long-lived git
+   * process. Returns null if no such object exists
+   */
+  public byte[] objectContents(String objectName) {
+    if (objectName.length() == 40 && RefResolver.isObjectId(objectName)) {
+      try {
+        ObjectReader.RawObject obj = objectReader().read(objectName);
+        if (obj != null)
+          return obj.content();
+      } catch (RuntimeException e) {
+        log("can't read object directly:", e.getMessage());
+      }
     }
+    return commandPool().batchRead(List.of(objectName)).get(0);
   }
 
-  private SystemCall sysCall() {
-    return new SystemCall().withVerbose(verbose());
+  /**
+   * Compute the object ids that working tree files (with paths relative to the
+   * root) would have if they were added, hashing them in parallel. The id of a
+   * file that doesn't exist is null. As with diffWorkingTree(), no clean
+   * filters or end of line conversions are applied
+   */
+  public List<String> blobIds(List<String> paths) {
+    List<Path> files = arrayList();
+    boolean[] symbolicLinks = new boolean[paths.size()];
+    for (int i = 0; i < paths.size(); i++) {
+      Path file = absoluteFile(paths.get(i)).toPath();
+      files.add(file);
+      symbolicLinks[i] = java.nio.file.Files.isSymbolicLink(file);
+    }
+    List<String> result = arrayList();
+    for (byte[] hash : mBlobHasher.hashAll(files, symbolicLinks))
+      result.add(hash == null ? null : BlobHasher.toHex(hash));
+    return result;
+  }
+
+  /**
+   * Get the number of files and bytes hashed by blobIds() and trackedChanges()
+   * (which rehashes files whose stat data can't be trusted), the time taken,
+   * and the throughput in MB/s
+   */
+  public JSMap hashStats() {
+    return mBlobHasher.stats();
   }
 
   // ------------------------------------------------------------------
-  // File marking
+  // Ancestry
   // ------------------------------------------------------------------
 
-  public static final String MARK_SENTINEL_TEXT = "*/                            %%% // gitdiff marker";
-
-  private static final byte[] SENTINEL_BYTES = DataUtil.toByteArray(MARK_SENTINEL_TEXT);
+  /**
+   * Determine whether one revision is an ancestor of (or the same commit as)
+   * another. Answered from the commit-graph if there is one, otherwise by git
+   */
+  public boolean isAncestor(String ancestor, String descendant) {
+    try (Metrics.Scope scope = mMetrics.begin("isAncestor")) {
+      String a = commitId(ancestor);
+      String d = commitId(descendant);
+      CommitAncestry c = ancestry();
+      if (c != null) {
+        try {
+          boolean result = c.isAncestor(a, d);
+          mMetrics.count("commit_graph.hits", 1);
+          return result;
+        } catch (RuntimeException e) {
+          log("can't query commit-graph:", e.getMessage());
+        }
+      }
+      mMetrics.count("commit_graph.misses", 1);
+      GitCommandPool.Result s = git("merge-base", "--is-ancestor", a, d);
+      checkState(s.exitCode() <= 1, "git merge-base failed:", s.systemErr());
+      return s.exitCode() == 0;
+    }
+  }
 
   /**
-   * Returns the index within a byte array of the first occurrence of the mark
-   * string's bytes. If the mark sequence isn't found, rturns -1.
+   * Find the best common ancestor of two revisions, or null if they have none
    */
-  private int indexOfMarker(byte[] bytes) {
-    byte[] needle = SENTINEL_BYTES;
-    int charTable[] = MARK_JUMP_TABLE;
-    int offsetTable[] = MARK_OFFSET_TABLE;
-    for (int i = needle.length - 1, j; i < bytes.length;) {
-      for (j = needle.length - 1; needle[j] == bytes[i]; --i, --j) {
-        if (j == 0)
-          return i;
+  public String mergeBase(String revisionA, String revisionB) {
+    try (Metrics.Scope scope = mMetrics.begin("mergeBase")) {
+      String a = commitId(revisionA);
+      String b = commitId(revisionB);
+      CommitAncestry c = ancestry();
+      if (c != null) {
+        try {
+          String result = c.mergeBase(a, b);
+          mMetrics.count("commit_graph.hits", 1);
+          return result;
+        } catch (RuntimeException e) {
+          log("can't query commit-graph:", e.getMessage());
+        }
       }
-      int by = bytes[i];
-      // If character isn't in the alphabet, act as if it's the last one in the alphabet
-      if (by < 0 || by >= ALPHABET_SIZE)
-        by = ALPHABET_SIZE - 1;
-      i += Math.max(offsetTable[needle.length - 1 - j], charTable[by]);
+      mMetrics.count("commit_graph.misses", 1);
+      GitCommandPool.Result s = git("merge-base", a, b);
+      checkState(s.exitCode() <= 1, "git merge-base failed:", s.systemErr());
+      return s.exitCode() == 0 ? s.systemOut().trim() : null;
     }
-    return -1;
   }
 
   /**
-   * Makes the jump table based on the mismatched byte information
+   * Count the commits in one revision's history but not another's, and vice
+   * versa; returns {ahead, behind}
    */
-  private static int[] makeJumpTable(byte[] needle) {
-    int[] table = new int[ALPHABET_SIZE];
-    for (int i = 0; i < table.length; i++)
-      table[i] = needle.length;
-    for (int i = 0; i < needle.length - 2; i++)
-      table[needle[i]] = needle.length - 1 - i;
-    return table;
+  public int[] aheadBehind(String revision, String upstream) {
+    try (Metrics.Scope scope = mMetrics.begin("aheadBehind")) {
+      String a = commitId(revision);
+      String b = commitId(upstream);
+      CommitAncestry c = ancestry();
+      if (c != null) {
+        try {
+          int[] result = c.aheadBehind(a, b);
+          mMetrics.count("commit_graph.hits", 1);
+          return result;
+        } catch (RuntimeException e) {
+          log("can't query commit-graph:", e.getMessage());
+        }
+      }
+      mMetrics.count("commit_graph.misses", 1);
+      GitCommandPool.Result s = git("rev-list", "--left-right", "--count", a + "..." + b, "--");
+      checkState(s.exitCode() == 0, "git rev-list failed:", s.systemErr());
+      List<String> counts = split(s.systemOut().trim(), '\t');
+      return new int[] { Integer.parseInt(counts.get(0)), Integer.parseInt(counts.get(1)) };
+    }
   }
 
   /**
-   * Makes the jump table based on the scan offset which mismatch occurs
+   * Resolve a revision to a commit id. Ids, and revisions naming HEAD or a
+   * branch, are resolved directly; anything else (tags, "HEAD~2", etc.) by git
    */
-  private static int[] makeOffsetTable(byte[] needle) {
-    int[] table = new int[needle.length];
-    int lastPrefixPosition = needle.length;
-    for (int i = needle.length; i > 0; i--) {
-      if (isPrefix(needle, i))
-        lastPrefixPosition = i;
-      table[needle.length - i] = lastPrefixPosition - i + needle.length;
+  private String commitId(String revision) {
+    checkArgument(nonEmpty(revision) && !revision.startsWith("-"), "bad revision:", revision);
+    if (revision.length() == 40 && RefResolver.isObjectId(revision))
+      return revision;
+    try {
+      String id = resolveBranch(revision);
+      if (id != null)
+        return id;
+    } catch (RuntimeException e) {
+      log("can't resolve revision directly:", e.getMessage());
     }
-    for (int i = 0; i < needle.length - 1; i++) {
-      int slen = suffixLength(needle, i);
-      table[slen] = needle.length - 1 - i + slen;
+    GitCommandPool.Result s = git("rev-parse", "--verify", "--quiet", revision + "^{commit}");
+    if (s.exitCode() != 0)
+      throw badArg("No such commit:", revision);
+    return s.systemOut().trim();
+  }
+
+  /**
+   * The rules git uses to expand a short ref name, in order of precedence (see
+   * `git help revisions`); the first, $GIT_DIR/<name>, is left to git
+   */
+  private static final String[] REF_RULES = { "refs/%s", "refs/tags/%s", "refs/heads/%s", "refs/remotes/%s",
+      "refs/remotes/%s/HEAD" };
+
+  /**
+   * Resolve a revision if it names HEAD, or a branch or remote-tracking branch
+   * (in full, or by a short name that git would take to mean it rather than,
+   * say, a tag of the same name); otherwise return null
+   */
+  private String resolveBranch(String revision) {
+    if (revision.equals("HEAD"))
+      return refResolver().resolve(revision);
+    if (revision.matches(".*[~^:@{].*") || revision.matches("[A-Z_]+"))
+      return null;
+    List<String> refNames = arrayList();
+    if (revision.startsWith("refs/"))
+      refNames.add(revision);
+    else
+      for (String rule : REF_RULES)
+        refNames.add(String.format(rule, revision));
+    for (String refName : refNames) {
+      String id = refResolver().resolve(refName);
+      if (id == null)
+        continue;
+      // A tag may have to be peeled, and other refs may not name commits
+      if (refName.startsWith("refs/heads/") || refName.startsWith("refs/remotes/"))
+        return id;
+      return null;
     }
-    return table;
+    return null;
   }
 
-  private static final int ALPHABET_SIZE = 1 + (int) Byte.MAX_VALUE;
+  private synchronized CommitAncestry ancestry() {
+    if (mAncestry != null && mAncestry.stale())
+      mAncestry = null;
+    if (mAncestry == null) {
+      try {
+        mAncestry = CommitAncestry.open(new File(commonDirectory(), "objects"), objectReader());
+      } catch (RuntimeException e) {
+        log("can't read commit-graph:", e.getMessage());
+      }
+    }
+    return mAncestry;
+  }
 
-  private static final int[] MARK_JUMP_TABLE = makeJumpTable(SENTINEL_BYTES);
-  private static final int[] MARK_OFFSET_TABLE = makeOffsetTable(SENTINEL_BYTES);
+  private synchronized ObjectReader objectReader() {
+    if (mObjectReader == null)
+      mObjectReader = new ObjectReader(new File(commonDirectory(), "objects"), ObjectReader.DEFAULT_CACHE_BYTES);
+    return mObjectReader;
+  }
 
   /**
-   * Is needle[p:end] a prefix of needle?
+   * Get the number of calls, and their total and maximum latencies, for each
+   * git command that has been run; see withMetrics() for a more detailed
+   * breakdown
    */
-  private static boolean isPrefix(byte[] needle, int p) {
-    for (int i = p, j = 0; i < needle.length; ++i, ++j) {
-      if (needle[i] != needle[j])
-        return false;
-    }
-    return true;
+  public JSMap commandLatency() {
+    return commandPool().latency();
   }
 
   /**
-   * Returns the maximum length of the subsequence that ends at p and is a
-   * suffix
+   * Stop any long-lived git processes belonging to this repository, and stop
+   * watching for changes
    */
-  private static int suffixLength(byte[] needle, int p) {
-    int len = 0;
-    for (int i = p, j = needle.length - 1; i >= 0 && needle[i] == needle[j]; i--, j--)
-      len += 1;
-    return len;
+  @Override
+  public void close() {
+    GitCommandPool pool;
+    StatusWatcher watcher;
+    synchronized (this) {
+      pool = mCommandPool;
+      mCommandPool = null;
+      watcher = mStatusWatcher;
+      mStatusWatcher = null;
+      if (mObjectReader != null)
+        mObjectReader.close();
+      mObjectReader = null;
+      mAncestry = null;
+    }
+    // Kill any commands first, as the watcher may be waiting for a status
+    if (pool != null)
+      pool.close();
+    if (watcher != null)
+      watcher.close();
+  }
+
+  private synchronized GitCommandPool commandPool() {
+    if (mCommandPool == null) {
+      mCommandPool = new GitCommandPool(rootDirectory(), verbose());
+      mCommandPool.setMetrics(mMetrics);
+    }
+    return mCommandPool;
+  }
+
+  private GitCommandPool.Result git(String... args) {
+    return commandPool().run(args);
   }
 
-  private final File mRootDirectory;
-  private String mBranch;
+  // ------------------------------------------------------------------
+  // File marking
+  // ------------------------------------------------------------------
+
+  public static final String MARK_SENTINEL_TEXT = "*/                            %%% // gitdiff marker";
+
+  private final RootDiscovery.Location mLocation;
+  private GitCommandPool mCommandPool;
+  private RefResolver mRefResolver;
+  private ObjectReader mObjectReader;
+  private CommitAncestry mAncestry;
+  private StatusWatcher mStatusWatcher;
+  private volatile boolean mStatusCacheEnabled;
+  private volatile Metrics mMetrics = Metrics.DISABLED;
+  private final BlobHasher mBlobHasher = new BlobHasher();
+  private SnapshotRefresher mSnapshots;
+  // The watcher's entries the latest snapshot was taken from
+  private List<FileEntry> mSnapshotSource;
+  private volatile PathIndex mPathIndex;
+  private volatile Executor mExecutor;
+  // The asynchronous queries that are running, by key
+  private final Map<String, CompletableFuture<?>> mQueries = hashMap();
+
+  private final Object mCacheLock = new Object();
+  private RepoSnapshot mCachesSnapshot;
+  // The HEAD commit the past commit names were read from
+  private String mPastCommitsHead;
   private List<String> mPastCommitNames;
-  private List<FileEntry> mFileEntries;
-  private List<FileEntry> mUntracked;
-  private List<FileEntry> mUnmerged;
+  private int mPastCommitStart;
+  private List<FileEntry> mTrackedChanges;
+  private List<FileEntry> mFoundUntracked;
+  private IgnoreMatcher mIgnoreMatcher;
+
+  private final Object mMarkedLock = new Object();
+  private RepoSnapshot mMarkedSnapshot;
   private List<FileEntry> mMarked;
 
 }
@@ -0,0 +1,206 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which paths in a working tree are ignored, as git does, without
+ * forking git.
+ *
+ * The rules come from the .gitignore file in each directory, .git/info/exclude,
+ * and the file named by core.excludesFile (or its default,
+ * $XDG_CONFIG_HOME/git/ignore). A .gitignore takes precedence over those in the
+ * directories containing it, and all of them over info/exclude, which takes
+ * precedence over core.excludesFile. Each directory's .gitignore is read and
+ * compiled the first time it is needed, and kept. A path within an ignored
+ * directory is ignored, whatever the rules say about the path itself.
+ *
+ * Matching is thread safe, so the tree can be walked in parallel.
+ */
+final class IgnoreMatcher {
+
+  IgnoreMatcher(File rootDirectory, File commonDirectory) {
+    mRoot = rootDirectory;
+    mInfoExclude = readRules("", new File(commonDirectory, "info/exclude"));
+    File excludesFile = excludesFile(commonDirectory);
+    mGlobalExcludes = (excludesFile == null) ? IgnoreRules.EMPTY : readRules("", excludesFile);
+  }
+
+  /**
+   * Determine whether a path (relative to the repository root) is ignored,
+   * considering the directories containing it too
+   */
+  boolean isIgnored(String path, boolean isDirectory) {
+    String dir = "";
+    int start = 0;
+    while (true) {
+      int slash = path.indexOf('/', start);
+      if (slash < 0 || slash == path.length() - 1)
+        break;
+      String dirPath = path.substring(0, slash);
+      if (ignored(dir, dirPath, dirPath.substring(start), true))
+        return true;
+      dir = path.substring(0, slash + 1);
+      start = slash + 1;
+    }
+    if (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+      isDirectory = true;
+    }
+    return ignored(dir, path, path.substring(start), isDirectory);
+  }
+
+  /**
+   * Determine whether a path within a directory (relative to the root, and
+   * either empty or ending with '/') is ignored, assuming the directory itself
+   * is not
+   */
+  boolean ignored(String directory, String path, String name, boolean isDirectory) {
+    String dir = directory;
+    while (true) {
+      int result = rules(dir).match(path, name, isDirectory);
+      if (result != IgnoreRules.NO_MATCH)
+        return result == IgnoreRules.IGNORED;
+      if (dir.isEmpty())
+        break;
+      dir = parent(dir);
+    }
+    int result = mInfoExclude.match(path, name, isDirectory);
+    if (result == IgnoreRules.NO_MATCH)
+      result = mGlobalExcludes.match(path, name, isDirectory);
+    return result == IgnoreRules.IGNORED;
+  }
+
+  /**
+   * Get the rules of a directory's .gitignore
+   */
+  IgnoreRules rules(String directory) {
+    IgnoreRules rules = mRules.get(directory);
+    if (rules == null) {
+      rules = readRules(directory, new File(mRoot, directory + ".gitignore"));
+      mRules.put(directory, rules);
+    }
+    return rules;
+  }
+
+  private static String parent(String directory) {
+    int slash = directory.lastIndexOf('/', directory.length() - 2);
+    return directory.substring(0, slash + 1);
+  }
+
+  private static IgnoreRules readRules(String directory, File file) {
+    try {
+      byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+      return IgnoreRules.parse(directory, new String(bytes, StandardCharsets.UTF_8));
+    } catch (NoSuchFileException e) {
+      return IgnoreRules.EMPTY;
+    } catch (IOException e) {
+      // A directory named .gitignore, an unreadable file, etc.
+      if (!file.exists() || file.isDirectory())
+        return IgnoreRules.EMPTY;
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Configuration
+  // ------------------------------------------------------------------
+
+  /**
+   * Find the global excludes file: core.excludesFile from the repository's,
+   * the user's, or the system's configuration (in that order of precedence),
+   * or if that isn't set, $XDG_CONFIG_HOME/git/ignore
+   */
+  private static File excludesFile(File commonDirectory) {
+    String home = ifNullOrEmpty(System.getenv("HOME"), System.getProperty("user.home"));
+    String xdg = ifNullOrEmpty(System.getenv("XDG_CONFIG_HOME"), home + "/.config");
+    List<File> configs = arrayList();
+    configs.add(new File(commonDirectory, "config"));
+    configs.add(new File(home, ".gitconfig"));
+    configs.add(new File(xdg, "git/config"));
+    configs.add(new File("/etc/gitconfig"));
+    String value = null;
+    for (File config : configs) {
+      value = coreExcludesFile(config);
+      if (value != null)
+        break;
+    }
+    if (value == null)
+      return new File(xdg, "git/ignore");
+    if (value.isEmpty())
+      return null;
+    if (value.startsWith("~/"))
+      return new File(home, value.substring(2));
+    return new File(value);
+  }
+
+  private static String ifNullOrEmpty(String value, String defaultValue) {
+    return (value == null || value.isEmpty()) ? defaultValue : value;
+  }
+
+  /**
+   * Read the value of core.excludesFile from a config file; returns null if
+   * the file doesn't set it. Only the simple forms of git's config syntax are
+   * understood
+   */
+  private static String coreExcludesFile(File config) {
+    String content;
+    try {
+      content = new String(java.nio.file.Files.readAllBytes(config.toPath()), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return null;
+    }
+    String result = null;
+    boolean inCore = false;
+    for (String line : split(content, '\n')) {
+      line = line.trim();
+      if (line.startsWith("[")) {
+        int close = line.indexOf(']');
+        String section = (close < 0) ? "" : line.substring(1, close).trim();
+        inCore = section.equalsIgnoreCase("core");
+        line = (close < 0) ? "" : line.substring(close + 1).trim();
+      }
+      if (!inCore || line.isEmpty())
+        continue;
+      int eq = line.indexOf('=');
+      if (eq < 0 || !line.substring(0, eq).trim().equalsIgnoreCase("excludesfile"))
+        continue;
+      result = configValue(line.substring(eq + 1));
+    }
+    return result;
+  }
+
+  /**
+   * Parse a config value: remove comments and quotes, and process escapes
+   */
+  private static String configValue(String text) {
+    StringBuilder sb = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"')
+        quoted = !quoted;
+      else if (!quoted && (c == '#' || c == ';'))
+        break;
+      else if (c == '\\' && i + 1 < text.length()) {
+        c = text.charAt(++i);
+        sb.append(c == 't' ? '\t' : c == 'n' ? '\n' : c);
+      } else
+        sb.append(c);
+    }
+    return sb.toString().trim();
+  }
+
+  private final File mRoot;
+  private final IgnoreRules mInfoExclude;
+  private final IgnoreRules mGlobalExcludes;
+  private final Map<String, IgnoreRules> mRules = new ConcurrentHashMap<>();
+}
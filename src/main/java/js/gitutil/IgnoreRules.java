@@ -0,0 +1,295 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a single ignore file (a .gitignore, .git/info/exclude, or the
+ * core.excludesFile), compiled for matching.
+ *
+ * See: https://git-scm.com/docs/gitignore
+ *
+ * Patterns containing a slash (other than a trailing one) are matched against
+ * the path relative to the directory the rules belong to; others against the
+ * last component of the path, at any depth. A trailing slash restricts a
+ * pattern to directories, and a leading '!' makes it re-include what an
+ * earlier one excluded. Within a file, the last pattern that matches decides.
+ *
+ * Literal patterns and "*.ext" patterns (the most common kinds) are compared
+ * directly; the rest are compiled to regular expressions.
+ */
+final class IgnoreRules {
+
+  static final int NO_MATCH = 0;
+  static final int IGNORED = 1;
+  static final int INCLUDED = 2;
+
+  static final IgnoreRules EMPTY = new IgnoreRules("", arrayList());
+
+  /**
+   * Parse the contents of an ignore file belonging to a directory (relative to
+   * the repository root, and either empty or ending with '/')
+   */
+  static IgnoreRules parse(String directory, String content) {
+    List<Rule> rules = arrayList();
+    for (String line : split(content, '\n')) {
+      Rule rule = parseLine(line);
+      if (rule != null)
+        rules.add(rule);
+    }
+    if (rules.isEmpty() && directory.isEmpty())
+      return EMPTY;
+    return new IgnoreRules(directory, rules);
+  }
+
+  private IgnoreRules(String directory, List<Rule> rules) {
+    mDirectory = directory;
+    mRules = rules.toArray(new Rule[0]);
+  }
+
+  boolean isEmpty() {
+    return mRules.length == 0;
+  }
+
+  /**
+   * Determine whether a path (relative to the repository root, and within this
+   * file's directory) is ignored or re-included by these rules, or neither;
+   * name is the path's last component
+   */
+  int match(String path, String name, boolean isDirectory) {
+    String relativePath = null;
+    for (int i = mRules.length - 1; i >= 0; i--) {
+      Rule r = mRules[i];
+      if (r.mDirectoryOnly && !isDirectory)
+        continue;
+      String subject = name;
+      if (r.mAnchored) {
+        if (relativePath == null)
+          relativePath = path.substring(mDirectory.length());
+        subject = relativePath;
+      }
+      if (r.matches(subject))
+        return r.mNegated ? INCLUDED : IGNORED;
+    }
+    return NO_MATCH;
+  }
+
+  // ------------------------------------------------------------------
+  // Parsing
+  // ------------------------------------------------------------------
+
+  private static final int KIND_LITERAL = 0;
+  private static final int KIND_SUFFIX = 1;
+  private static final int KIND_REGEX = 2;
+
+  private static final class Rule {
+
+    boolean matches(String subject) {
+      switch (mKind) {
+      case KIND_LITERAL:
+        return subject.equals(mText);
+      case KIND_SUFFIX:
+        return subject.endsWith(mText);
+      default:
+        return mRegex.matcher(subject).matches();
+      }
+    }
+
+    boolean mNegated;
+    boolean mDirectoryOnly;
+    boolean mAnchored;
+    int mKind;
+    String mText;
+    Pattern mRegex;
+  }
+
+  private static Rule parseLine(String line) {
+    if (line.endsWith("\r"))
+      line = line.substring(0, line.length() - 1);
+    if (line.isEmpty() || line.startsWith("#"))
+      return null;
+
+    // Trailing spaces are removed unless escaped
+    int end = line.length();
+    while (end > 0 && line.charAt(end - 1) == ' ' && !escaped(line, end - 1))
+      end--;
+    line = line.substring(0, end);
+
+    Rule r = new Rule();
+    if (line.startsWith("!")) {
+      r.mNegated = true;
+      line = line.substring(1);
+    } else if (line.startsWith("\\!") || line.startsWith("\\#"))
+      line = line.substring(1);
+
+    if (line.endsWith("/") && !escaped(line, line.length() - 1)) {
+      r.mDirectoryOnly = true;
+      line = line.substring(0, line.length() - 1);
+    }
+    if (line.isEmpty())
+      return null;
+
+    r.mAnchored = line.indexOf('/') >= 0;
+    if (line.startsWith("/"))
+      line = line.substring(1);
+
+    if (!hasWildcards(line)) {
+      r.mKind = KIND_LITERAL;
+      r.mText = unescape(line);
+    } else if (!r.mAnchored && line.startsWith("*") && !hasWildcards(line.substring(1))) {
+      r.mKind = KIND_SUFFIX;
+      r.mText = unescape(line.substring(1));
+    } else {
+      r.mKind = KIND_REGEX;
+      r.mRegex = Pattern.compile(toRegex(line), Pattern.DOTALL);
+    }
+    return r;
+  }
+
+  private static boolean escaped(String s, int index) {
+    int backslashes = 0;
+    for (int i = index - 1; i >= 0 && s.charAt(i) == '\\'; i--)
+      backslashes++;
+    return (backslashes & 1) != 0;
+  }
+
+  private static boolean hasWildcards(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\')
+        i++;
+      else if (c == '*' || c == '?' || c == '[')
+        return true;
+    }
+    return false;
+  }
+
+  private static String unescape(String s) {
+    if (s.indexOf('\\') < 0)
+      return s;
+    StringBuilder sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' && i + 1 < s.length())
+        c = s.charAt(++i);
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Convert a glob to a regular expression; wildcards other than "**" don't
+   * match '/'
+   */
+  private static String toRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    int n = glob.length();
+    int i = 0;
+    while (i < n) {
+      char c = glob.charAt(i);
+      if (c == '*' && i + 1 < n && glob.charAt(i + 1) == '*') {
+        boolean atStart = (i == 0 || glob.charAt(i - 1) == '/');
+        int j = i;
+        while (j < n && glob.charAt(j) == '*')
+          j++;
+        boolean atEnd = (j == n || glob.charAt(j) == '/');
+        if (atStart && atEnd) {
+          if (j == n) {
+            // "dir/**" matches everything within dir
+            sb.append(".*");
+          } else {
+            // "**/" matches zero or more directories
+            sb.append("(?:.*/)?");
+            j++;
+          }
+          i = j;
+          continue;
+        }
+        // Other consecutive asterisks are ordinary asterisks
+        sb.append("[^/]*");
+        i = j;
+        continue;
+      }
+      switch (c) {
+      case '*':
+        sb.append("[^/]*");
+        break;
+      case '?':
+        sb.append("[^/]");
+        break;
+      case '[': {
+        int close = classEnd(glob, i);
+        if (close < 0) {
+          sb.append("\\[");
+          break;
+        }
+        sb.append(toCharacterClass(glob.substring(i + 1, close)));
+        i = close;
+        break;
+      }
+      case '\\':
+        if (i + 1 < n)
+          c = glob.charAt(++i);
+        sb.append(Pattern.quote(String.valueOf(c)));
+        break;
+      default:
+        if ("\\.^$|?*+()[]{}".indexOf(c) >= 0)
+          sb.append('\\');
+        sb.append(c);
+        break;
+      }
+      i++;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Find the ']' closing a bracket expression starting at an index, or -1
+   */
+  private static int classEnd(String glob, int start) {
+    int i = start + 1;
+    if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^'))
+      i++;
+    // A ']' immediately after the '[' (or its negation) is literal
+    if (i < glob.length() && glob.charAt(i) == ']')
+      i++;
+    for (; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '\\')
+        i++;
+      else if (c == ']')
+        return i;
+    }
+    return -1;
+  }
+
+  private static String toCharacterClass(String body) {
+    // A bracket expression never matches '/'
+    StringBuilder sb = new StringBuilder("(?!/)[");
+    int i = 0;
+    if (!body.isEmpty() && (body.charAt(0) == '!' || body.charAt(0) == '^')) {
+      sb.append('^');
+      i++;
+    }
+    for (; i < body.length(); i++) {
+      char c = body.charAt(i);
+      if (c == '\\' && i + 1 < body.length())
+        c = body.charAt(++i);
+      else if (c == '-' && i > 0 && i + 1 < body.length()) {
+        sb.append('-');
+        continue;
+      }
+      if (Character.isLetterOrDigit(c))
+        sb.append(c);
+      else
+        sb.append('\\').append(c);
+    }
+    sb.append(']');
+    return sb.toString();
+  }
+
+  private final String mDirectory;
+  private final Rule[] mRules;
+}
@@ -0,0 +1,49 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Finds every occurrence of a set of byte patterns within a buffer
+ */
+interface MarkerEngine {
+
+  /**
+   * Receives the matches found by an engine
+   */
+  interface Listener {
+
+    /**
+     * Called for each match, in order of the offset of the match's end. Returns
+     * false to stop the scan
+     */
+    boolean match(int pattern, long offset);
+  }
+
+  /**
+   * Get the length of the longest pattern
+   */
+  int maxPatternLength();
+
+  /**
+   * Scan bytes[start...end) for the patterns, reporting each match's index
+   * within the pattern list and its starting offset (relative to the start of
+   * the buffer, plus baseOffset). Returns false if the listener stopped the scan
+   */
+  boolean scan(ByteBuffer bytes, int start, int end, long baseOffset, Listener listener);
+
+  /**
+   * Construct the best engine for a list of patterns
+   */
+  static MarkerEngine forPatterns(List<byte[]> patterns) {
+    checkArgument(!patterns.isEmpty(), "no patterns");
+    for (byte[] p : patterns)
+      checkArgument(p.length > 0, "empty pattern");
+    if (patterns.size() == 1)
+      return new SwarMarkerEngine(patterns.get(0));
+    return new AhoCorasickMarkerEngine(patterns);
+  }
+
+}
@@ -0,0 +1,215 @@
+package js.gitutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import static js.base.Tools.*;
+
+import gitutil.gen.MarkerMatch;
+import js.data.DataUtil;
+
+/**
+ * Scans files for markers, using a MarkerEngine.
+ *
+ * Files are spread across a fork-join pool and memory mapped rather than read
+ * into the heap. Large files are split into chunks that are scanned in parallel;
+ * consecutive chunks overlap so a marker straddling a boundary is still found,
+ * and the remaining chunks are skipped once the scan of a file is stopped.
+ */
+final class MarkerScanner {
+
+  /**
+   * Files no larger than this are read into a reusable buffer instead of being
+   * mapped, as mapping has a fixed cost that dominates for them
+   */
+  static final int SMALL_FILE_SIZE = 16 * 1024;
+
+  static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * A scanner for GitRepo.MARK_SENTINEL_TEXT
+   */
+  static final MarkerScanner DEFAULT = new MarkerScanner(
+      MarkerEngine.forPatterns(List.of(DataUtil.toByteArray(GitRepo.MARK_SENTINEL_TEXT))));
+
+  MarkerScanner(MarkerEngine engine) {
+    mEngine = engine;
+  }
+
+  /**
+   * Determine which of a list of files contain any of the patterns
+   */
+  boolean[] containsAny(List<File> files) {
+    return containsAny(files, null);
+  }
+
+  /**
+   * Determine which of a list of files contain any of the patterns, adding the
+   * sizes of the files to a counter (if not null)
+   */
+  boolean[] containsAny(List<File> files, LongAdder bytesScanned) {
+    boolean[] result = new boolean[files.size()];
+    forEachFile(files.size(),
+        i -> result[i] = !scanFile(files.get(i), (pattern, offset) -> false, bytesScanned));
+    return result;
+  }
+
+  /**
+   * Find every match within a list of files (with paths relative to a root
+   * directory), ordered by path and offset
+   */
+  List<MarkerMatch> findAll(File rootDirectory, List<String> paths) {
+    List<List<MarkerMatch>> perFile = arrayList();
+    for (int i = 0; i < paths.size(); i++)
+      perFile.add(null);
+    forEachFile(paths.size(), i -> {
+      String path = paths.get(i);
+      List<MarkerMatch> matches = arrayList();
+      scanFile(new File(rootDirectory, path), (pattern, offset) -> {
+        synchronized (matches) {
+          matches.add(MarkerMatch.newBuilder().path(path).pattern(pattern).offset(offset).build());
+        }
+        return true;
+      });
+      matches.sort((a, b) -> a.offset() != b.offset() ? Long.compare(a.offset(), b.offset())
+          : Integer.compare(a.pattern(), b.pattern()));
+      perFile.set(i, matches);
+    });
+    List<MarkerMatch> result = arrayList();
+    for (List<MarkerMatch> matches : perFile)
+      result.addAll(matches);
+    return result;
+  }
+
+  private static void forEachFile(int count, IntConsumer action) {
+    if (count > 0)
+      ForkJoinPool.commonPool().invoke(new FilesTask(0, count, action));
+  }
+
+  private static final class FilesTask extends RecursiveAction {
+
+    FilesTask(int start, int end, IntConsumer action) {
+      mStart = start;
+      mEnd = end;
+      mAction = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (mEnd - mStart > 1) {
+        int mid = (mStart + mEnd) >>> 1;
+        invokeAll(new FilesTask(mStart, mid, mAction), new FilesTask(mid, mEnd, mAction));
+      } else
+        mAction.accept(mStart);
+    }
+
+    private final int mStart;
+    private final int mEnd;
+    private final IntConsumer mAction;
+  }
+
+  /**
+   * Report the matches within a file to a listener, which must be thread safe
+   * (as the chunks of a large file are scanned concurrently). Returns false if
+   * the listener stopped the scan. A file that no longer exists has no matches
+   */
+  boolean scanFile(File file, MarkerEngine.Listener listener) {
+    return scanFile(file, listener, null);
+  }
+
+  private boolean scanFile(File file, MarkerEngine.Listener listener, LongAdder bytesScanned) {
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = ch.size();
+      if (bytesScanned != null)
+        bytesScanned.add(size);
+      if (size == 0)
+        return true;
+      if (size <= SMALL_FILE_SIZE) {
+        ByteBuffer buffer = sSmallFileBuffer.get();
+        buffer.clear();
+        while (buffer.position() < size) {
+          if (ch.read(buffer) < 0)
+            break;
+        }
+        return mEngine.scan(buffer, 0, buffer.position(), 0, listener);
+      }
+      if (size <= CHUNK_SIZE)
+        return mEngine.scan(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int) size, 0, listener);
+
+      AtomicBoolean stopped = new AtomicBoolean();
+      List<ChunkTask> chunks = arrayList();
+      for (long start = 0; start < size; start += CHUNK_SIZE)
+        chunks.add(new ChunkTask(ch, start, Math.min(size, start + CHUNK_SIZE), size, listener, stopped));
+      RecursiveAction.invokeAll(chunks);
+      return !stopped.get();
+    } catch (NoSuchFileException e) {
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Scans the matches starting within a region of a file. The region mapped
+   * extends into the following chunk by one byte less than the longest
+   * pattern's length; matches starting in that overlap are left to the
+   * following chunk
+   */
+  private final class ChunkTask extends RecursiveAction {
+
+    ChunkTask(FileChannel channel, long start, long end, long fileSize, MarkerEngine.Listener listener,
+        AtomicBoolean stopped) {
+      mChannel = channel;
+      mStart = start;
+      mEnd = end;
+      mMappedEnd = Math.min(fileSize, end + mEngine.maxPatternLength() - 1);
+      mListener = listener;
+      mStopped = stopped;
+    }
+
+    @Override
+    protected void compute() {
+      if (mStopped.get())
+        return;
+      try {
+        ByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, mStart, mMappedEnd - mStart);
+        boolean completed = mEngine.scan(buffer, 0, buffer.limit(), mStart, (pattern, offset) -> {
+          if (offset >= mEnd)
+            return true;
+          if (mStopped.get() || !mListener.match(pattern, offset)) {
+            mStopped.set(true);
+            return false;
+          }
+          return true;
+        });
+        if (!completed)
+          mStopped.set(true);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private final FileChannel mChannel;
+    private final long mStart;
+    private final long mEnd;
+    private final long mMappedEnd;
+    private final MarkerEngine.Listener mListener;
+    private final AtomicBoolean mStopped;
+  }
+
+  private static final ThreadLocal<ByteBuffer> sSmallFileBuffer = ThreadLocal
+      .withInitial(() -> ByteBuffer.allocate(SMALL_FILE_SIZE));
+
+  private final MarkerEngine mEngine;
+}
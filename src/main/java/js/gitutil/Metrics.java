@@ -0,0 +1,216 @@
+package js.gitutil;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import js.json.JSMap;
+
+/**
+ * Counters and latency histograms recording what a GitRepo (or several) spends
+ * its time on: the operations called, the git processes each one forks and
+ * how long they run, the bytes read from them and the time spent parsing that
+ * output, the files and bytes scanned for markers, and cache hits and misses.
+ *
+ * Names are dotted paths, e.g. "snapshot" (the latency of taking a
+ * snapshot), "snapshot.forks" (the processes it forked), "git.status" (the
+ * latency of every `git status`) and "git.status.stdout_bytes".
+ *
+ * A histogram counts values in power-of-two buckets, so recording one is a few
+ * atomic adds, and percentiles are estimated to within a factor of two.
+ *
+ * DISABLED records nothing, and each call on it returns after testing a final
+ * field.
+ */
+public final class Metrics {
+
+  public static final Metrics DISABLED = new Metrics(false);
+
+  public Metrics() {
+    this(true);
+  }
+
+  private Metrics(boolean enabled) {
+    mEnabled = enabled;
+  }
+
+  public boolean enabled() {
+    return mEnabled;
+  }
+
+  /**
+   * Add to a counter
+   */
+  public void count(String name, long amount) {
+    if (!mEnabled)
+      return;
+    mCounters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+  }
+
+  /**
+   * Record a duration in a histogram
+   */
+  public void record(String name, long nanos) {
+    if (!mEnabled)
+      return;
+    mHistograms.computeIfAbsent(name, k -> new Histogram()).record(nanos);
+  }
+
+  /**
+   * Get the current values of the counters and histograms. A histogram is
+   * reported as its count, total, maximum and estimated percentiles, in
+   * microseconds
+   */
+  public JSMap snapshot() {
+    JSMap counters = new JSMap();
+    for (Map.Entry<String, LongAdder> ent : new TreeMap<>(mCounters).entrySet())
+      counters.put(ent.getKey(), ent.getValue().sum());
+    JSMap histograms = new JSMap();
+    for (Map.Entry<String, Histogram> ent : new TreeMap<>(mHistograms).entrySet())
+      histograms.put(ent.getKey(), ent.getValue().toJson());
+    JSMap m = new JSMap();
+    m.put("counters", counters);
+    m.put("histograms", histograms);
+    return m;
+  }
+
+  /**
+   * Discard everything recorded so far. Values recorded concurrently with a
+   * reset may be partly discarded
+   */
+  public void reset() {
+    mCounters.clear();
+    mHistograms.clear();
+  }
+
+  // ------------------------------------------------------------------
+  // Operations
+  // ------------------------------------------------------------------
+
+  /**
+   * Begin timing an operation on the current thread; closing the returned
+   * scope records its latency. Processes forked (on this thread) while the
+   * scope is open are also attributed to it, and to any scopes it is nested
+   * within
+   */
+  public Scope begin(String operation) {
+    if (!mEnabled)
+      return mNoScope;
+    Scope scope = new Scope(operation, mCurrentScope.get());
+    mCurrentScope.set(scope);
+    return scope;
+  }
+
+  /**
+   * An operation being timed
+   */
+  public final class Scope implements AutoCloseable {
+
+    private Scope(String operation, Scope parent) {
+      mOperation = operation;
+      mParent = parent;
+      mStartTime = (operation == null) ? 0 : System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+      if (mOperation == null)
+        return;
+      record(mOperation, System.nanoTime() - mStartTime);
+      if (mCurrentScope.get() == this) {
+        if (mParent == null)
+          mCurrentScope.remove();
+        else
+          mCurrentScope.set(mParent);
+      }
+    }
+
+    private final String mOperation;
+    private final Scope mParent;
+    private final long mStartTime;
+  }
+
+  /**
+   * Record a forked `git <command>` that ran for some time and wrote some
+   * bytes to its standard output, of which some time was spent (by the caller)
+   * parsing that output; outputBytes and parseNanos are negative if they
+   * weren't measured
+   */
+  void recordFork(String command, long nanos, long outputBytes, long parseNanos) {
+    if (!mEnabled)
+      return;
+    String name = "git." + command;
+    record(name, nanos);
+    if (outputBytes >= 0)
+      count(name + ".stdout_bytes", outputBytes);
+    if (parseNanos >= 0)
+      record(name + ".parse", parseNanos);
+    for (Scope s = mCurrentScope.get(); s != null; s = s.mParent) {
+      count(s.mOperation + ".forks", 1);
+      record(s.mOperation + ".fork", nanos);
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Histograms
+  // ------------------------------------------------------------------
+
+  private static final double[] PERCENTILES = { 50, 90, 99 };
+
+  private static final class Histogram {
+
+    void record(long nanos) {
+      nanos = Math.max(0, nanos);
+      // Bucket i holds values with i significant bits, i.e. [2^(i-1), 2^i)
+      mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+      mTotal.add(nanos);
+      mMax.accumulate(nanos);
+    }
+
+    JSMap toJson() {
+      long[] buckets = new long[mBuckets.length()];
+      long count = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = mBuckets.get(i);
+        count += buckets[i];
+      }
+      JSMap m = new JSMap();
+      m.put("count", count);
+      m.put("total_us", mTotal.sum() / 1000);
+      m.put("max_us", mMax.get() / 1000);
+      for (double p : PERCENTILES)
+        m.put("p" + (int) p + "_us", percentile(buckets, count, p) / 1000);
+      return m;
+    }
+
+    /**
+     * Estimate a percentile as the upper bound of the bucket containing it
+     * (which is capped by the maximum)
+     */
+    private long percentile(long[] buckets, long count, double p) {
+      if (count == 0)
+        return 0;
+      long rank = (long) Math.ceil(count * p / 100);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank)
+          return Math.min(mMax.get(), i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1));
+      }
+      return mMax.get();
+    }
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(65);
+    private final LongAdder mTotal = new LongAdder();
+    private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+  }
+
+  private final boolean mEnabled;
+  private final Map<String, LongAdder> mCounters = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+  private final ThreadLocal<Scope> mCurrentScope = new ThreadLocal<>();
+  private final Scope mNoScope = new Scope(null, null);
+}
@@ -0,0 +1,225 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import gitutil.gen.RepoScanResult;
+
+/**
+ * Queries the branch, status and (optionally) marked files of many
+ * repositories at once, on a bounded pool of threads. Results are passed back,
+ * on the calling thread, in the order the repositories finish.
+ *
+ * A repository that fails yields a result with its error set rather than
+ * stopping the scan, and one that takes longer than the timeout (if any) is
+ * abandoned: it is reported as failed, the git commands it is running are
+ * killed, and its thread is interrupted (and so freed to scan another).
+ */
+public final class MultiRepoScanner {
+
+  /**
+   * Set the number of threads to scan with; the default is the number of
+   * processors
+   */
+  public MultiRepoScanner withThreads(int threads) {
+    checkArgument(threads > 0, "bad thread count:", threads);
+    mThreads = threads;
+    return this;
+  }
+
+  /**
+   * Scan on an existing executor (which bounds the concurrency) rather than a
+   * pool of our own
+   */
+  public MultiRepoScanner withExecutor(ExecutorService executor) {
+    mExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Include each repository's marked files in its result
+   */
+  public MultiRepoScanner withMarkers(boolean markers) {
+    mMarkers = markers;
+    return this;
+  }
+
+  /**
+   * Use each repository's persistent status cache; see
+   * GitRepo.withStatusCache()
+   */
+  public MultiRepoScanner withStatusCache(boolean enabled) {
+    mStatusCache = enabled;
+    return this;
+  }
+
+  /**
+   * Record every repository's operations in some metrics; see
+   * GitRepo.withMetrics()
+   */
+  public MultiRepoScanner withMetrics(Metrics metrics) {
+    mMetrics = checkNotNull(metrics);
+    return this;
+  }
+
+  /**
+   * Give up on any repository that takes longer than this to scan; zero (the
+   * default) for no limit
+   */
+  public MultiRepoScanner withTimeout(long millis) {
+    checkArgument(millis >= 0, "bad timeout:", millis);
+    mTimeoutMs = millis;
+    return this;
+  }
+
+  /**
+   * Scan some repositories, passing each one's result to a consumer as it
+   * finishes. Returns when all have been reported
+   */
+  public void scan(Collection<File> roots, Consumer<RepoScanResult> consumer) {
+    ExecutorService executor = mExecutor;
+    if (executor == null) {
+      int threads = (mThreads > 0) ? mThreads : Runtime.getRuntime().availableProcessors();
+      executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, roots.size())), r -> {
+        Thread t = new Thread(r, "repo-scanner");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+
+    BlockingQueue<RepoScanResult> results = new LinkedBlockingQueue<>();
+    List<Task> tasks = arrayList();
+    try {
+      for (File root : roots) {
+        Task task = new Task(root, results);
+        tasks.add(task);
+        task.mFuture = executor.submit(task::run);
+      }
+      int remaining = tasks.size();
+      while (remaining > 0) {
+        RepoScanResult result;
+        if (mTimeoutMs == 0)
+          result = results.take();
+        else
+          result = results.poll(expireTasks(tasks), TimeUnit.NANOSECONDS);
+        if (result == null)
+          continue;
+        remaining--;
+        consumer.accept(result);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      for (Task task : tasks)
+        if (task.mFuture != null)
+          task.mFuture.cancel(true);
+      if (executor != mExecutor)
+        executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Report as failed any tasks that have run too long, and return the time
+   * until the next one would
+   */
+  private long expireTasks(List<Task> tasks) {
+    long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(mTimeoutMs);
+    long now = System.nanoTime();
+    long wait = timeoutNanos;
+    for (Task task : tasks) {
+      long start = task.mStartTime;
+      if (start == 0 || task.mReported.get())
+        continue;
+      long remaining = start + timeoutNanos - now;
+      if (remaining > 0) {
+        wait = Math.min(wait, remaining);
+        continue;
+      }
+      if (task.report(task.result(null, "timed out after " + mTimeoutMs + " ms"))) {
+        task.mFuture.cancel(true);
+        GitRepo repo = task.mRepo;
+        if (repo != null)
+          repo.close();
+      }
+    }
+    return wait;
+  }
+
+  /**
+   * The scan of a single repository
+   */
+  private final class Task {
+
+    Task(File root, BlockingQueue<RepoScanResult> results) {
+      mRoot = root;
+      mResults = results;
+    }
+
+    void run() {
+      mStartTime = System.nanoTime();
+      RepoScanResult.Builder b = RepoScanResult.newBuilder();
+      String error = null;
+      try (GitRepo repo = new GitRepo(mRoot).withStatusCache(mStatusCache).withMetrics(mMetrics)) {
+        // So it can be closed if this times out
+        mRepo = repo;
+        b.branch(repo.branchName());
+        b.entries(repo.fileEntries());
+        if (mMarkers)
+          b.marked(repo.markedFiles());
+      } catch (Throwable t) {
+        error = (t.getMessage() != null) ? t.getMessage() : t.getClass().getName();
+      }
+      report(result(b, error));
+    }
+
+    RepoScanResult result(RepoScanResult.Builder b, String error) {
+      if (b == null)
+        b = RepoScanResult.newBuilder();
+      b.root(mRoot.getPath());
+      b.elapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartTime));
+      if (error != null) {
+        b.error(error);
+        b.entries(null);
+        b.marked(null);
+      }
+      return b.build();
+    }
+
+    /**
+     * Report a result, unless one has been already (i.e. the task timed out);
+     * returns true if it was reported
+     */
+    boolean report(RepoScanResult result) {
+      if (!mReported.compareAndSet(false, true))
+        return false;
+      mResults.add(result);
+      return true;
+    }
+
+    private final File mRoot;
+    private final BlockingQueue<RepoScanResult> mResults;
+    final AtomicBoolean mReported = new AtomicBoolean();
+    volatile long mStartTime;
+    volatile GitRepo mRepo;
+    Future<?> mFuture;
+  }
+
+  private int mThreads;
+  private ExecutorService mExecutor;
+  private boolean mMarkers;
+  private boolean mStatusCache;
+  private long mTimeoutMs;
+  private Metrics mMetrics = Metrics.DISABLED;
+}
@@ -0,0 +1,576 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads objects directly from a repository's object database (.git/objects),
+ * without a git process: loose objects are inflated, and packed objects are
+ * found by binary searching the memory-mapped pack indexes, with their delta
+ * chains resolved here.
+ *
+ * Resolved delta bases are kept in an LRU cache bounded by their total size,
+ * as walking history or comparing versions of a file tends to resolve the same
+ * bases repeatedly.
+ *
+ * Only SHA-1 repositories are supported, and packs larger than 2GB (which
+ * can't be mapped in one piece) are skipped; callers should fall back to
+ * `git cat-file` for objects that aren't found.
+ */
+final class ObjectReader {
+
+  static final int TYPE_COMMIT = 1;
+  static final int TYPE_TREE = 2;
+  static final int TYPE_BLOB = 3;
+  static final int TYPE_TAG = 4;
+  private static final int TYPE_OFS_DELTA = 6;
+  private static final int TYPE_REF_DELTA = 7;
+
+  private static final String[] TYPE_NAMES = { null, "commit", "tree", "blob", "tag" };
+
+  static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+
+  private static final int HASH_LENGTH = 20;
+
+  /**
+   * An object's type and (inflated, undeltified) contents
+   */
+  static final class RawObject {
+
+    RawObject(int type, byte[] content) {
+      mType = type;
+      mContent = content;
+    }
+
+    int type() {
+      return mType;
+    }
+
+    String typeName() {
+      return TYPE_NAMES[mType];
+    }
+
+    byte[] content() {
+      return mContent;
+    }
+
+    private final int mType;
+    private final byte[] mContent;
+  }
+
+  ObjectReader(File objectsDirectory, long cacheBytes) {
+    mObjectsDirectory = objectsDirectory;
+    mCacheBytes = cacheBytes;
+  }
+
+  /**
+   * Read an object, given its hex id; returns null if it isn't found
+   */
+  synchronized RawObject read(String objectId) {
+    checkArgument(objectId.length() == 2 * HASH_LENGTH, "not a SHA-1 object id:", objectId);
+    byte[] id = parseHex(objectId);
+    RawObject obj = readPacked(id);
+    if (obj != null)
+      return obj;
+    obj = readLoose(objectId);
+    if (obj != null)
+      return obj;
+    // The object may be in a pack created since we last looked
+    if (rescanPacks())
+      obj = readPacked(id);
+    if (obj == null)
+      obj = readFromAlternates(objectId);
+    return obj;
+  }
+
+  synchronized void close() {
+    mPacks = null;
+    mDeltaBaseCache.clear();
+    mCachedBytes = 0;
+  }
+
+  // ------------------------------------------------------------------
+  // Loose objects
+  // ------------------------------------------------------------------
+
+  private RawObject readLoose(String objectId) {
+    File file = new File(mObjectsDirectory, objectId.substring(0, 2) + "/" + objectId.substring(2));
+    byte[] compressed;
+    try {
+      compressed = java.nio.file.Files.readAllBytes(file.toPath());
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Inflater inflater = inflater();
+    inflater.setInput(compressed);
+    // The header is "<type> <size>\0"; inflate enough to read it
+    byte[] header = new byte[64];
+    int headerLength = inflate(inflater, header, 0, header.length);
+    int nul = 0;
+    while (nul < headerLength && header[nul] != 0)
+      nul++;
+    checkState(nul < headerLength, "bad loose object header:", objectId);
+    String text = new String(header, 0, nul, StandardCharsets.US_ASCII);
+    int space = text.indexOf(' ');
+    int type = typeCode(text.substring(0, space));
+    int size = Integer.parseInt(text.substring(space + 1));
+    byte[] content = new byte[size];
+    int already = Math.min(size, headerLength - nul - 1);
+    System.arraycopy(header, nul + 1, content, 0, already);
+    inflate(inflater, content, already, size - already);
+    return new RawObject(type, content);
+  }
+
+  private static int typeCode(String name) {
+    for (int i = 1; i < TYPE_NAMES.length; i++)
+      if (TYPE_NAMES[i].equals(name))
+        return i;
+    throw badState("unknown object type:", name);
+  }
+
+  // ------------------------------------------------------------------
+  // Alternates
+  // ------------------------------------------------------------------
+
+  private RawObject readFromAlternates(String objectId) {
+    if (mAlternates == null) {
+      mAlternates = arrayList();
+      File file = new File(mObjectsDirectory, "info/alternates");
+      if (file.isFile()) {
+        try {
+          for (String line : java.nio.file.Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+              continue;
+            File dir = new File(line);
+            if (!dir.isAbsolute())
+              dir = new File(mObjectsDirectory, line);
+            mAlternates.add(new ObjectReader(dir, mCacheBytes / 4));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    for (ObjectReader alt : mAlternates) {
+      RawObject obj = alt.read(objectId);
+      if (obj != null)
+        return obj;
+    }
+    return null;
+  }
+
+  // ------------------------------------------------------------------
+  // Packs
+  // ------------------------------------------------------------------
+
+  private RawObject readPacked(byte[] id) {
+    if (mPacks == null)
+      rescanPacks();
+    for (Pack pack : mPacks) {
+      long offset = pack.find(id);
+      if (offset >= 0)
+        return readAt(pack, offset);
+    }
+    return null;
+  }
+
+  /**
+   * Open any packs that have appeared since the last scan; returns true if
+   * there were any
+   */
+  private boolean rescanPacks() {
+    File packDir = new File(mObjectsDirectory, "pack");
+    long modified = packDir.lastModified();
+    if (mPacks != null && modified == mPackDirModified)
+      return false;
+    mPackDirModified = modified;
+    List<Pack> packs = arrayList();
+    boolean added = false;
+    File[] files = packDir.listFiles();
+    if (files != null) {
+      for (File idx : files) {
+        if (!idx.getName().endsWith(".idx"))
+          continue;
+        Pack pack = findPack(idx.getName());
+        if (pack == null) {
+          pack = Pack.open(idx, mNextPackNumber);
+          if (pack == null)
+            continue;
+          mNextPackNumber++;
+          added = true;
+        }
+        packs.add(pack);
+      }
+    }
+    mPacks = packs;
+    return added;
+  }
+
+  private Pack findPack(String idxName) {
+    if (mPacks != null)
+      for (Pack p : mPacks)
+        if (p.mIdxName.equals(idxName))
+          return p;
+    return null;
+  }
+
+  /**
+   * Read the object at an offset within a pack, resolving its delta chain
+   */
+  private RawObject readAt(Pack pack, long offset) {
+    // Walk back along the chain until reaching a base that is cached, or that
+    // isn't a delta
+    List<long[]> deltas = arrayList();
+    long pos = offset;
+    RawObject base;
+    while (true) {
+      base = mDeltaBaseCache.get(cacheKey(pack, pos));
+      if (base != null)
+        break;
+      long[] header = pack.header(pos);
+      int type = (int) header[0];
+      if (type == TYPE_OFS_DELTA || type == TYPE_REF_DELTA) {
+        deltas.add(new long[] { pos, header[1], header[2] });
+        if (type == TYPE_OFS_DELTA) {
+          pos = header[3];
+          continue;
+        }
+        byte[] baseId = pack.bytes(header[3], HASH_LENGTH);
+        long baseOffset = pack.find(baseId);
+        if (baseOffset >= 0) {
+          pos = baseOffset;
+          continue;
+        }
+        // The base is elsewhere (which is unusual, but allowed); it isn't
+        // cached here, as it has no position in this pack
+        base = read(hex(baseId));
+        checkState(base != null, "missing delta base:", hex(baseId));
+        pos = -1;
+        break;
+      }
+      checkState(type >= TYPE_COMMIT && type <= TYPE_TAG, "bad object type", type, "in", pack.mIdxName);
+      base = new RawObject(type, pack.inflate(inflater(), header[2], header[1]));
+      break;
+    }
+    // Apply the deltas, caching each intermediate result as it is a base
+    for (int i = deltas.size() - 1; i >= 0; i--) {
+      if (pos >= 0)
+        cacheBase(cacheKey(pack, pos), base);
+      long[] delta = deltas.get(i);
+      pos = delta[0];
+      byte[] instructions = pack.inflate(inflater(), delta[2], delta[1]);
+      base = new RawObject(base.type(), applyDelta(base.content(), instructions));
+    }
+    return base;
+  }
+
+  /**
+   * Apply git's delta format: the base and result sizes (as varints), then a
+   * sequence of instructions, each copying a range of the base or inserting
+   * literal bytes
+   */
+  static byte[] applyDelta(byte[] base, byte[] delta) {
+    int[] cursor = new int[1];
+    long baseSize = deltaVarint(delta, cursor);
+    checkState(baseSize == base.length, "delta base size mismatch");
+    long resultSize = deltaVarint(delta, cursor);
+    checkState(resultSize <= Integer.MAX_VALUE, "delta result too large");
+    byte[] out = new byte[(int) resultSize];
+    int p = cursor[0];
+    int o = 0;
+    while (p < delta.length) {
+      int op = delta[p++] & 0xff;
+      if ((op & 0x80) != 0) {
+        int offset = 0;
+        int size = 0;
+        for (int bit = 0; bit < 4; bit++)
+          if ((op & (1 << bit)) != 0)
+            offset |= (delta[p++] & 0xff) << (8 * bit);
+        for (int bit = 0; bit < 3; bit++)
+          if ((op & (0x10 << bit)) != 0)
+            size |= (delta[p++] & 0xff) << (8 * bit);
+        if (size == 0)
+          size = 0x10000;
+        System.arraycopy(base, offset, out, o, size);
+        o += size;
+      } else if (op != 0) {
+        System.arraycopy(delta, p, out, o, op);
+        p += op;
+        o += op;
+      } else
+        throw badState("bad delta instruction");
+    }
+    checkState(o == out.length, "delta result size mismatch");
+    return out;
+  }
+
+  private static long deltaVarint(byte[] delta, int[] cursor) {
+    long value = 0;
+    int shift = 0;
+    int c;
+    do {
+      c = delta[cursor[0]++] & 0xff;
+      value |= (long) (c & 0x7f) << shift;
+      shift += 7;
+    } while ((c & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * A pack file and its (version 1 or 2) index, both memory mapped
+   */
+  private static final class Pack {
+
+    /**
+     * Open a pack given its index file; returns null if it isn't usable
+     */
+    static Pack open(File idxFile, int number) {
+      String name = idxFile.getName();
+      File packFile = new File(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+      try {
+        MappedByteBuffer idx = map(idxFile);
+        MappedByteBuffer pack = map(packFile);
+        if (idx == null || pack == null || pack.getInt(0) != PACK_SIGNATURE)
+          return null;
+        return new Pack(name, number, idx, pack);
+      } catch (NoSuchFileException e) {
+        // The pack was removed (e.g. by gc) as we were looking at it
+        return null;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private static final int PACK_SIGNATURE = 0x5041434b; // "PACK"
+    private static final int IDX_V2_SIGNATURE = 0xff744f63; // "\377tOc"
+
+    private static MappedByteBuffer map(File file) throws IOException {
+      try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        if (ch.size() > Integer.MAX_VALUE)
+          return null;
+        return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      }
+    }
+
+    private Pack(String idxName, int number, MappedByteBuffer idx, MappedByteBuffer pack) {
+      mIdxName = idxName;
+      mNumber = number;
+      mIdx = idx;
+      mPack = pack;
+      if (idx.getInt(0) == IDX_V2_SIGNATURE) {
+        checkState(idx.getInt(4) == 2, "unsupported pack index version in", idxName);
+        mFanout = 8;
+      } else
+        mFanout = 0;
+      mCount = idx.getInt(mFanout + 255 * 4);
+      if (mFanout == 0) {
+        mHashes = 256 * 4 + 4;
+        mHashStride = HASH_LENGTH + 4;
+      } else {
+        mHashes = mFanout + 256 * 4;
+        mHashStride = HASH_LENGTH;
+      }
+    }
+
+    /**
+     * Find an object's offset within the pack, or -1
+     */
+    long find(byte[] id) {
+      int first = id[0] & 0xff;
+      int lo = (first == 0) ? 0 : mIdx.getInt(mFanout + (first - 1) * 4);
+      int hi = mIdx.getInt(mFanout + first * 4) - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        int cmp = compareHash(mid, id);
+        if (cmp < 0)
+          lo = mid + 1;
+        else if (cmp > 0)
+          hi = mid - 1;
+        else
+          return offset(mid);
+      }
+      return -1;
+    }
+
+    private int compareHash(int i, byte[] id) {
+      int pos = mHashes + i * mHashStride;
+      for (int j = 0; j < HASH_LENGTH; j++) {
+        int a = mIdx.get(pos + j) & 0xff;
+        int b = id[j] & 0xff;
+        if (a != b)
+          return a - b;
+      }
+      return 0;
+    }
+
+    private long offset(int i) {
+      if (mFanout == 0)
+        return mIdx.getInt(256 * 4 + i * (HASH_LENGTH + 4)) & 0xffffffffL;
+      int offsets = mHashes + mCount * (HASH_LENGTH + 4);
+      int value = mIdx.getInt(offsets + i * 4);
+      if (value >= 0)
+        return value;
+      // The offset is in the table of large offsets
+      int largeOffsets = offsets + mCount * 4;
+      return mIdx.getLong(largeOffsets + (value & 0x7fffffff) * 8);
+    }
+
+    /**
+     * Parse the header of the object at an offset: returns its type, its
+     * (inflated) size, the offset of its compressed data, and for deltas, the
+     * offset of its base (OFS_DELTA) or of its base's id (REF_DELTA)
+     */
+    long[] header(long offset) {
+      int p = checkedOffset(offset);
+      int c = mPack.get(p++) & 0xff;
+      int type = (c >> 4) & 7;
+      long size = c & 15;
+      int shift = 4;
+      while ((c & 0x80) != 0) {
+        c = mPack.get(p++) & 0xff;
+        size |= (long) (c & 0x7f) << shift;
+        shift += 7;
+      }
+      long base = 0;
+      if (type == TYPE_OFS_DELTA) {
+        c = mPack.get(p++) & 0xff;
+        long distance = c & 0x7f;
+        while ((c & 0x80) != 0) {
+          c = mPack.get(p++) & 0xff;
+          distance = ((distance + 1) << 7) | (c & 0x7f);
+        }
+        base = offset - distance;
+      } else if (type == TYPE_REF_DELTA) {
+        base = p;
+        p += HASH_LENGTH;
+      }
+      return new long[] { type, size, p, base };
+    }
+
+    byte[] bytes(long offset, int length) {
+      byte[] result = new byte[length];
+      ByteBuffer b = mPack.duplicate();
+      b.position(checkedOffset(offset));
+      b.get(result);
+      return result;
+    }
+
+    byte[] inflate(Inflater inflater, long offset, long size) {
+      checkState(size <= Integer.MAX_VALUE, "object too large in", mIdxName);
+      ByteBuffer input = mPack.duplicate();
+      input.position(checkedOffset(offset));
+      inflater.setInput(input);
+      byte[] out = new byte[(int) size];
+      ObjectReader.inflate(inflater, out, 0, out.length);
+      return out;
+    }
+
+    private int checkedOffset(long offset) {
+      checkState(offset >= 0 && offset < mPack.limit(), "bad offset in", mIdxName);
+      return (int) offset;
+    }
+
+    final String mIdxName;
+    final int mNumber;
+    private final MappedByteBuffer mIdx;
+    private final MappedByteBuffer mPack;
+    private final int mFanout;
+    private final int mCount;
+    private final int mHashes;
+    private final int mHashStride;
+  }
+
+  // ------------------------------------------------------------------
+  // Delta base cache
+  // ------------------------------------------------------------------
+
+  private static Long cacheKey(Pack pack, long offset) {
+    return ((long) pack.mNumber << 32) | offset;
+  }
+
+  private void cacheBase(Long key, RawObject base) {
+    long size = base.content().length;
+    if (size > mCacheBytes / 4 || mDeltaBaseCache.containsKey(key))
+      return;
+    mDeltaBaseCache.put(key, base);
+    mCachedBytes += size;
+    Iterator<RawObject> it = mDeltaBaseCache.values().iterator();
+    while (mCachedBytes > mCacheBytes) {
+      mCachedBytes -= it.next().content().length;
+      it.remove();
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Utilities
+  // ------------------------------------------------------------------
+
+  private Inflater inflater() {
+    if (mInflater == null)
+      mInflater = new Inflater();
+    mInflater.reset();
+    return mInflater;
+  }
+
+  /**
+   * Inflate until a number of bytes have been produced or the stream ends;
+   * returns the number produced
+   */
+  private static int inflate(Inflater inflater, byte[] out, int offset, int length) {
+    int total = 0;
+    try {
+      while (total < length && !inflater.finished()) {
+        int n = inflater.inflate(out, offset + total, length - total);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          throw badState("truncated object data");
+        total += n;
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException(e);
+    }
+    return total;
+  }
+
+  private static byte[] parseHex(String hex) {
+    byte[] result = new byte[hex.length() / 2];
+    for (int i = 0; i < result.length; i++)
+      result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    return result;
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+    return sb.toString();
+  }
+
+  private final File mObjectsDirectory;
+  private final long mCacheBytes;
+  private List<Pack> mPacks;
+  private long mPackDirModified;
+  private int mNextPackNumber;
+  private List<ObjectReader> mAlternates;
+  private Inflater mInflater;
+  // Resolved delta bases, keyed by pack and offset, in order of least recent use
+  private final Map<Long, RawObject> mDeltaBaseCache = new LinkedHashMap<>(64, 0.75f, true);
+  private long mCachedBytes;
+}
@@ -0,0 +1,231 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.util.List;
+
+import gitutil.gen.Hunk;
+
+/**
+ * A hunk whose lines are kept packed (as a PackedLines) rather than as a list
+ * of Strings, for holding large diffs; a Hunk is produced from it only when
+ * one is asked for.
+ *
+ * It is immutable, and converting it to a builder and back shares the lines
+ * rather than copying them. Its hash code is computed once, from the lines'
+ * bytes, and equals that of the Hunk it produces.
+ */
+public final class PackedHunk {
+
+  private static final PackedLines EMPTY_LINES = PackedLines.newBuilder().build();
+
+  public static final PackedHunk DEFAULT_INSTANCE = newBuilder().build();
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Pack a Hunk's lines
+   */
+  public static PackedHunk of(Hunk hunk) {
+    PackedLines.Builder lines = PackedLines.newBuilder();
+    for (String line : hunk.lines())
+      lines.add(line);
+    return newBuilder().filename(hunk.filename()).r1Begin(hunk.r1Begin()).r1Count(hunk.r1Count())
+        .r2Begin(hunk.r2Begin()).r2Count(hunk.r2Count()).lines(lines.build())
+        .missingNewline1(hunk.missingNewline1()).missingNewline2(hunk.missingNewline2()).build();
+  }
+
+  /**
+   * Produce the Hunks for a list of PackedHunks
+   */
+  public static List<Hunk> toHunks(List<PackedHunk> hunks) {
+    List<Hunk> result = arrayList();
+    for (PackedHunk h : hunks)
+      result.add(h.toHunk());
+    return result;
+  }
+
+  public String filename() {
+    return mFilename;
+  }
+
+  public int r1Begin() {
+    return mR1Begin;
+  }
+
+  public int r1Count() {
+    return mR1Count;
+  }
+
+  public int r2Begin() {
+    return mR2Begin;
+  }
+
+  public int r2Count() {
+    return mR2Count;
+  }
+
+  public PackedLines lines() {
+    return mLines;
+  }
+
+  public boolean missingNewline1() {
+    return mMissingNewline1;
+  }
+
+  public boolean missingNewline2() {
+    return mMissingNewline2;
+  }
+
+  /**
+   * Produce the equivalent Hunk, decoding the lines
+   */
+  public Hunk toHunk() {
+    return Hunk.newBuilder().filename(mFilename).r1Begin(mR1Begin).r1Count(mR1Count).r2Begin(mR2Begin)
+        .r2Count(mR2Count).lines(mLines).missingNewline1(mMissingNewline1).missingNewline2(mMissingNewline2)
+        .build();
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  @Override
+  public String toString() {
+    return toHunk().toString();
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (!(object instanceof PackedHunk))
+      return false;
+    PackedHunk other = (PackedHunk) object;
+    return other.hashCode() == hashCode() && mFilename.equals(other.mFilename) && mR1Begin == other.mR1Begin
+        && mR1Count == other.mR1Count && mR2Begin == other.mR2Begin && mR2Count == other.mR2Count
+        && mMissingNewline1 == other.mMissingNewline1 && mMissingNewline2 == other.mMissingNewline2
+        && mLines.equals(other.mLines);
+  }
+
+  @Override
+  public int hashCode() {
+    int r = mHashCode;
+    if (r == 0) {
+      // As Hunk computes it
+      r = 1;
+      r = r * 37 + mFilename.hashCode();
+      r = r * 37 + mR1Begin;
+      r = r * 37 + mR1Count;
+      r = r * 37 + mR2Begin;
+      r = r * 37 + mR2Count;
+      r = mLines.foldHash(r);
+      r = r * 37 + (mMissingNewline1 ? 1 : 0);
+      r = r * 37 + (mMissingNewline2 ? 1 : 0);
+      mHashCode = r;
+    }
+    return r;
+  }
+
+  public static final class Builder {
+
+    private Builder() {
+    }
+
+    private Builder(PackedHunk m) {
+      mFilename = m.mFilename;
+      mR1Begin = m.mR1Begin;
+      mR1Count = m.mR1Count;
+      mR2Begin = m.mR2Begin;
+      mR2Count = m.mR2Count;
+      mLines = m.mLines;
+      mMissingNewline1 = m.mMissingNewline1;
+      mMissingNewline2 = m.mMissingNewline2;
+    }
+
+    public PackedHunk build() {
+      return new PackedHunk(this);
+    }
+
+    public Builder filename(String x) {
+      mFilename = (x == null) ? "" : x;
+      return this;
+    }
+
+    public Builder r1Begin(int x) {
+      mR1Begin = x;
+      return this;
+    }
+
+    public Builder r1Count(int x) {
+      mR1Count = x;
+      return this;
+    }
+
+    public Builder r2Begin(int x) {
+      mR2Begin = x;
+      return this;
+    }
+
+    public Builder r2Count(int x) {
+      mR2Count = x;
+      return this;
+    }
+
+    public Builder lines(PackedLines x) {
+      mLines = (x == null) ? EMPTY_LINES : x;
+      return this;
+    }
+
+    public Builder missingNewline1(boolean x) {
+      mMissingNewline1 = x;
+      return this;
+    }
+
+    public Builder missingNewline2(boolean x) {
+      mMissingNewline2 = x;
+      return this;
+    }
+
+    // For DiffParser, which reads the counts back while parsing the lines
+    int r1Count() {
+      return mR1Count;
+    }
+
+    int r2Count() {
+      return mR2Count;
+    }
+
+    private String mFilename = "";
+    private int mR1Begin;
+    private int mR1Count;
+    private int mR2Begin;
+    private int mR2Count;
+    private PackedLines mLines = EMPTY_LINES;
+    private boolean mMissingNewline1;
+    private boolean mMissingNewline2;
+  }
+
+  private PackedHunk(Builder b) {
+    mFilename = b.mFilename;
+    mR1Begin = b.mR1Begin;
+    mR1Count = b.mR1Count;
+    mR2Begin = b.mR2Begin;
+    mR2Count = b.mR2Count;
+    mLines = b.mLines;
+    mMissingNewline1 = b.mMissingNewline1;
+    mMissingNewline2 = b.mMissingNewline2;
+  }
+
+  private final String mFilename;
+  private final int mR1Begin;
+  private final int mR1Count;
+  private final int mR2Begin;
+  private final int mR2Count;
+  private final PackedLines mLines;
+  private final boolean mMissingNewline1;
+  private final boolean mMissingNewline2;
+  private int mHashCode;
+}
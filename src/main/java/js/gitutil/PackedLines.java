@@ -0,0 +1,188 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of lines stored as their UTF-8 bytes, packed end to end in
+ * a single array with a table of offsets; each line is decoded to a String only
+ * when it is asked for.
+ *
+ * PackedHunk holds its lines in this form, and hashes them using the lines'
+ * hash codes, which are computed from the bytes once and remembered.
+ */
+public final class PackedLines extends AbstractList<String> implements RandomAccess {
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+
+    private Builder() {
+    }
+
+    public Builder add(String line) {
+      byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+      return add(bytes, 0, bytes.length);
+    }
+
+    public Builder add(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, mData, mDataLength, length);
+      mDataLength += length;
+      return endLine();
+    }
+
+    /**
+     * Add a line consisting of a prefix character (e.g. '+') followed by some
+     * bytes
+     */
+    public Builder add(char prefix, byte[] bytes, int offset, int length) {
+      checkArgument(prefix < 0x80, "prefix must be ASCII");
+      ensureCapacity(length + 1);
+      mData[mDataLength++] = (byte) prefix;
+      System.arraycopy(bytes, offset, mData, mDataLength, length);
+      mDataLength += length;
+      return endLine();
+    }
+
+    public int size() {
+      return mCount;
+    }
+
+    public PackedLines build() {
+      return new PackedLines(Arrays.copyOf(mData, mDataLength), Arrays.copyOf(mOffsets, mCount + 1), mCount);
+    }
+
+    private void ensureCapacity(int length) {
+      if (mDataLength + length > mData.length)
+        mData = Arrays.copyOf(mData, Math.max(mDataLength + length, mData.length * 2));
+    }
+
+    private Builder endLine() {
+      if (mCount + 1 == mOffsets.length)
+        mOffsets = Arrays.copyOf(mOffsets, mOffsets.length * 2);
+      mOffsets[++mCount] = mDataLength;
+      return this;
+    }
+
+    private byte[] mData = new byte[256];
+    private int mDataLength;
+    private int[] mOffsets = new int[16];
+    private int mCount;
+  }
+
+  private PackedLines(byte[] data, int[] offsets, int count) {
+    mData = data;
+    mOffsets = offsets;
+    mCount = count;
+  }
+
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  @Override
+  public String get(int index) {
+    checkIndex(index);
+    return new String(mData, mOffsets[index], mOffsets[index + 1] - mOffsets[index], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get the hash code a generated class (e.g. Hunk) would compute by folding
+   * each line's hash code into a running value r, i.e. r = r * 37 +
+   * line.hashCode()
+   */
+  int foldHash(int r) {
+    int[] hashes = lineHashes();
+    for (int h : hashes)
+      r = r * 37 + h;
+    return r;
+  }
+
+  @Override
+  public int hashCode() {
+    // As List.hashCode() specifies
+    int r = 1;
+    for (int h : lineHashes())
+      r = r * 31 + h;
+    return r;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object)
+      return true;
+    if (object instanceof PackedLines) {
+      PackedLines other = (PackedLines) object;
+      if (other.mCount != mCount)
+        return false;
+      // Identical bytes make identical lines (though, as invalid UTF-8 is
+      // decoded to replacement characters, different bytes may too)
+      if (Arrays.equals(mOffsets, 0, mCount + 1, other.mOffsets, 0, mCount + 1)
+          && Arrays.equals(mData, 0, mOffsets[mCount], other.mData, 0, other.mOffsets[mCount]))
+        return true;
+    }
+    return super.equals(object);
+  }
+
+  // ------------------------------------------------------------------
+  // Access to the raw bytes, for EntryCodec
+  // ------------------------------------------------------------------
+
+  byte[] data() {
+    return mData;
+  }
+
+  int start(int index) {
+    checkIndex(index);
+    return mOffsets[index];
+  }
+
+  int end(int index) {
+    checkIndex(index);
+    return mOffsets[index + 1];
+  }
+
+  /**
+   * Get each line's String hash code, computing them the first time
+   */
+  private int[] lineHashes() {
+    int[] hashes = mLineHashes;
+    if (hashes == null) {
+      hashes = new int[mCount];
+      for (int i = 0; i < mCount; i++)
+        hashes[i] = lineHash(i);
+      mLineHashes = hashes;
+    }
+    return hashes;
+  }
+
+  private int lineHash(int index) {
+    int h = 0;
+    for (int i = mOffsets[index]; i < mOffsets[index + 1]; i++) {
+      byte b = mData[i];
+      // An ASCII byte is a single UTF-16 char; otherwise, decode the line
+      if (b < 0)
+        return get(index).hashCode();
+      h = 31 * h + b;
+    }
+    return h;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= mCount)
+      throw new IndexOutOfBoundsException("index " + index + ", size " + mCount);
+  }
+
+  private final byte[] mData;
+  private final int[] mOffsets;
+  private final int mCount;
+  private volatile int[] mLineHashes;
+}
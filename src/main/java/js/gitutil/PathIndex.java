@@ -0,0 +1,272 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.RepoSnapshot;
+import js.data.DataUtil;
+
+/**
+ * An index of a snapshot's status entries by path, for answering "what
+ * changed under this directory?" without a pass over every entry.
+ *
+ * The entries are sorted by path, so those within a directory form a
+ * contiguous range, found by binary search. Each state (that is, the working
+ * tree state, FileEntry.state()) has a bit set of the entries in it, as do the
+ * marked entries (which are only determined when first asked for). The number
+ * of entries in each state within every directory is counted when the index is
+ * built.
+ *
+ * Directories are given relative to the repository root, with or without a
+ * trailing '/'; the root itself is "".
+ */
+public final class PathIndex {
+
+  private static final FileState[] STATES = FileState.values();
+
+  /**
+   * The index into a directory's counts of its total entry count
+   */
+  private static final int TOTAL = STATES.length;
+
+  public static PathIndex of(RepoSnapshot snapshot) {
+    return of(snapshot, () -> DataUtil.emptyList());
+  }
+
+  /**
+   * Construct an index of a snapshot, with a supplier of its marked entries
+   * (e.g. GitRepo.markedFiles()), called the first time markedUnder() is
+   */
+  public static PathIndex of(RepoSnapshot snapshot, Supplier<List<FileEntry>> marked) {
+    return new PathIndex(snapshot, marked);
+  }
+
+  private PathIndex(RepoSnapshot snapshot, Supplier<List<FileEntry>> marked) {
+    mSnapshot = snapshot;
+    mMarkedSupplier = marked;
+    int n = snapshot.entries().size();
+    mEntries = snapshot.entries().toArray(new FileEntry[n]);
+    Arrays.sort(mEntries, (a, b) -> a.path().compareTo(b.path()));
+    mPaths = new String[n];
+    for (int i = 0; i < n; i++)
+      mPaths[i] = mEntries[i].path();
+
+    mStates = new BitSet[STATES.length];
+    for (int s = 0; s < STATES.length; s++)
+      mStates[s] = new BitSet(n);
+    for (int i = 0; i < n; i++) {
+      int state = mEntries[i].state().ordinal();
+      mStates[state].set(i);
+      countInDirectories(mPaths[i], state);
+    }
+  }
+
+  /**
+   * Get the snapshot this is an index of
+   */
+  public RepoSnapshot snapshot() {
+    return mSnapshot;
+  }
+
+  /**
+   * Get the entry for a path, or null if it has none
+   */
+  public FileEntry get(String path) {
+    int i = Arrays.binarySearch(mPaths, path);
+    return (i < 0) ? null : mEntries[i];
+  }
+
+  /**
+   * Get the entries within a directory, ordered by path
+   */
+  public List<FileEntry> under(String directory) {
+    String prefix = prefix(directory);
+    return new EntryRange(start(prefix), end(prefix));
+  }
+
+  /**
+   * Get the entries within a directory that are in a particular state, ordered
+   * by path
+   */
+  public List<FileEntry> under(String directory, FileState state) {
+    return select(directory, mStates[state.ordinal()]);
+  }
+
+  /**
+   * Get the marked entries within a directory, ordered by path
+   */
+  public List<FileEntry> markedUnder(String directory) {
+    return select(directory, marked());
+  }
+
+  private synchronized BitSet marked() {
+    if (mMarked == null) {
+      BitSet bits = new BitSet(mPaths.length);
+      for (FileEntry ent : mMarkedSupplier.get()) {
+        int i = Arrays.binarySearch(mPaths, ent.path());
+        if (i >= 0)
+          bits.set(i);
+      }
+      mMarked = bits;
+    }
+    return mMarked;
+  }
+
+  /**
+   * Get the number of entries within a directory
+   */
+  public int count(String directory) {
+    return counts(directory)[TOTAL];
+  }
+
+  /**
+   * Get the number of entries within a directory that are in a particular
+   * state
+   */
+  public int count(String directory, FileState state) {
+    return counts(directory)[state.ordinal()];
+  }
+
+  /**
+   * Get the number of entries within a directory in each state (omitting
+   * states with none)
+   */
+  public Map<FileState, Integer> stateCounts(String directory) {
+    int[] counts = counts(directory);
+    Map<FileState, Integer> result = treeMap();
+    for (int s = 0; s < STATES.length; s++)
+      if (counts[s] != 0)
+        result.put(STATES[s], counts[s]);
+    return result;
+  }
+
+  // ------------------------------------------------------------------
+  // Ranges
+  // ------------------------------------------------------------------
+
+  /**
+   * Convert a directory to the prefix its paths start with: "" for the root,
+   * otherwise the directory followed by '/'
+   */
+  private static String prefix(String directory) {
+    String dir = directory;
+    while (dir.endsWith("/"))
+      dir = dir.substring(0, dir.length() - 1);
+    if (dir.isEmpty() || dir.equals("."))
+      return "";
+    return dir + "/";
+  }
+
+  /**
+   * Find the position of the first path not less than a string
+   */
+  private int start(String s) {
+    int lo = 0;
+    int hi = mPaths.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mPaths[mid].compareTo(s) < 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * Find the position following the last path starting with a prefix
+   */
+  private int end(String prefix) {
+    if (prefix.isEmpty())
+      return mPaths.length;
+    // The paths starting with "dir/" are those less than "dir0", as '0'
+    // follows '/'
+    return start(prefix.substring(0, prefix.length() - 1) + '0');
+  }
+
+  private List<FileEntry> select(String directory, BitSet bits) {
+    String prefix = prefix(directory);
+    int end = end(prefix);
+    List<FileEntry> result = arrayList();
+    for (int i = bits.nextSetBit(start(prefix)); i >= 0 && i < end; i = bits.nextSetBit(i + 1))
+      result.add(mEntries[i]);
+    return result;
+  }
+
+  /**
+   * A view of a range of the sorted entries
+   */
+  private final class EntryRange extends AbstractList<FileEntry> implements RandomAccess {
+
+    EntryRange(int start, int end) {
+      mStart = start;
+      mEnd = end;
+    }
+
+    @Override
+    public FileEntry get(int index) {
+      if (index < 0 || index >= size())
+        throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+      return mEntries[mStart + index];
+    }
+
+    @Override
+    public int size() {
+      return mEnd - mStart;
+    }
+
+    private final int mStart;
+    private final int mEnd;
+  }
+
+  // ------------------------------------------------------------------
+  // Directory counts
+  // ------------------------------------------------------------------
+
+  /**
+   * Count an entry in the root and in each directory containing it. An
+   * untracked directory's path ends with '/', so (as with under()) it is
+   * counted within itself
+   */
+  private void countInDirectories(String path, int state) {
+    count("", state);
+    for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1))
+      count(path.substring(0, i), state);
+  }
+
+  private void count(String directory, int state) {
+    int[] counts = mDirectoryCounts.get(directory);
+    if (counts == null) {
+      counts = new int[TOTAL + 1];
+      mDirectoryCounts.put(directory, counts);
+    }
+    counts[state]++;
+    counts[TOTAL]++;
+  }
+
+  private int[] counts(String directory) {
+    String prefix = prefix(directory);
+    String dir = prefix.isEmpty() ? "" : prefix.substring(0, prefix.length() - 1);
+    int[] counts = mDirectoryCounts.get(dir);
+    return (counts == null) ? NO_COUNTS : counts;
+  }
+
+  private static final int[] NO_COUNTS = new int[TOTAL + 1];
+
+  private final RepoSnapshot mSnapshot;
+  private final FileEntry[] mEntries;
+  private final String[] mPaths;
+  private final BitSet[] mStates;
+  private final Supplier<List<FileEntry>> mMarkedSupplier;
+  private BitSet mMarked;
+  private final Map<String, int[]> mDirectoryCounts = hashMap();
+}
@@ -0,0 +1,222 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+
+/**
+ * Parses the output of `git status --porcelain=v2 -z` as it streams from the
+ * process, without splitting it into lines or strings first.
+ *
+ * See: https://git-scm.com/docs/git-status#_porcelain_format_version_2
+ *
+ * With -z, records are terminated by NUL and paths are neither quoted nor
+ * escaped, so paths containing newlines or other special characters are
+ * handled.
+ */
+final class PorcelainParser implements Iterator<FileEntry> {
+
+  PorcelainParser(InputStream input) {
+    mInput = input;
+  }
+
+  /**
+   * Decode a status character (an 'X' or 'Y' of an 'XY' field)
+   */
+  static FileState fileState(int code) {
+    FileState result = (code >= 0 && code < STATE_BY_CODE.length) ? STATE_BY_CODE[code] : null;
+    if (result == null)
+      throw badArg("Unrecognized file state key:", (char) code);
+    return result;
+  }
+
+  private static final FileState[] STATE_BY_CODE = new FileState[128];
+
+  static {
+    FileState[] t = STATE_BY_CODE;
+    // Version 1 uses ' ' for unmodified, version 2 uses '.'
+    t[' '] = FileState.UNMODIFIED;
+    t['.'] = FileState.UNMODIFIED;
+    t['?'] = FileState.UNTRACKED;
+    t['M'] = FileState.MODIFIED;
+    // A type change (e.g. file to symlink) is reported as a modification
+    t['T'] = FileState.MODIFIED;
+    t['A'] = FileState.ADDED;
+    t['D'] = FileState.DELETED;
+    t['R'] = FileState.RENAMED;
+    t['C'] = FileState.COPIED;
+    t['U'] = FileState.UNMERGED;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null)
+      mNext = parseEntry();
+    return mNext != null;
+  }
+
+  @Override
+  public FileEntry next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    FileEntry result = mNext;
+    mNext = null;
+    return result;
+  }
+
+  /**
+   * Parse the next entry, or return null if there are no more
+   */
+  private FileEntry parseEntry() {
+    while (true) {
+      int type = read();
+      if (type < 0)
+        return null;
+      if (type == '#') {
+        // Header, e.g. "# branch.oid ..."
+        skipTo(NUL);
+        continue;
+      }
+      expect(' ');
+      FileEntry.Builder b = FileEntry.newBuilder();
+      switch (type) {
+      case '?':
+        b.oldState(FileState.UNTRACKED).state(FileState.UNTRACKED);
+        b.path(readPath());
+        break;
+      case '!':
+        // Ignored files are only listed if asked for; skip them
+        skipTo(NUL);
+        continue;
+      case '1':
+      case '2':
+        readStates(b);
+        skipField(); // <sub>
+        b.oldMode(readMode()); // <mH>
+        skipField(); // <mI>
+        b.mode(readMode()); // <mW>
+        skipField(); // <hH>
+        skipField(); // <hI>
+        if (type == '2')
+          skipField(); // <X><score>
+        b.path(readPath());
+        if (type == '2')
+          b.origPath(readPath());
+        break;
+      case 'u':
+        readStates(b);
+        skipField(); // <sub>
+        skipField(); // <m1>
+        b.oldMode(readMode()); // <m2>, i.e. ours
+        skipField(); // <m3>
+        b.mode(readMode()); // <mW>
+        skipField(); // <h1>
+        skipField(); // <h2>
+        skipField(); // <h3>
+        b.path(readPath());
+        break;
+      default:
+        throw badState("Unrecognized status record type:", (char) type);
+      }
+      return b.build();
+    }
+  }
+
+  private void readStates(FileEntry.Builder b) {
+    b.oldState(fileState(read()));
+    b.state(fileState(read()));
+    expect(' ');
+  }
+
+  // ------------------------------------------------------------------
+  // Byte-level input
+  // ------------------------------------------------------------------
+
+  private static final int NUL = 0;
+
+  private int read() {
+    if (mCursor == mLimit) {
+      try {
+        mLimit = mInput.read(mBuffer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      mCursor = 0;
+      if (mLimit <= 0) {
+        mLimit = 0;
+        return -1;
+      }
+    }
+    return mBuffer[mCursor++] & 0xff;
+  }
+
+  private void expect(int expected) {
+    int c = read();
+    if (c != expected)
+      throw badState("Expected", (char) expected, "but got", c, "in status output");
+  }
+
+  private void skipTo(int terminator) {
+    while (true) {
+      int c = read();
+      if (c == terminator)
+        return;
+      if (c < 0)
+        throw badState("Unexpected end of status output");
+    }
+  }
+
+  private void skipField() {
+    skipTo(' ');
+  }
+
+  /**
+   * Read a NUL-terminated path
+   */
+  private String readPath() {
+    int length = 0;
+    while (true) {
+      int c = read();
+      if (c == NUL)
+        break;
+      if (c < 0)
+        throw badState("Unexpected end of status output");
+      if (length == mPathBuffer.length)
+        mPathBuffer = Arrays.copyOf(mPathBuffer, length * 2);
+      mPathBuffer[length++] = (byte) c;
+    }
+    return new String(mPathBuffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read an octal mode field
+   */
+  private String readMode() {
+    int mode = 0;
+    while (true) {
+      int c = read();
+      if (c == ' ')
+        break;
+      if (c < '0' || c > '7')
+        throw badState("Bad mode in status output");
+      mode = (mode << 3) | (c - '0');
+    }
+    return GitIndex.modeText(mode);
+  }
+
+  private final InputStream mInput;
+  private final byte[] mBuffer = new byte[64 * 1024];
+  private int mCursor;
+  private int mLimit;
+  private byte[] mPathBuffer = new byte[256];
+  private FileEntry mNext;
+}
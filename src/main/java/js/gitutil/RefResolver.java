@@ -0,0 +1,223 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import gitutil.gen.HeadInfo;
+
+/**
+ * Resolves HEAD and other refs by reading .git/HEAD, the loose ref files and
+ * .git/packed-refs directly, without forking git.
+ *
+ * The contents of each file read are cached, and reread only when the file's
+ * modification time or size changes. The packed refs are kept as sorted arrays
+ * for binary search.
+ */
+final class RefResolver {
+
+  private static final String REF_PREFIX = "ref: ";
+  private static final String HEADS_PREFIX = "refs/heads/";
+  private static final int MAX_SYMREF_DEPTH = 5;
+
+  /**
+   * @param gitDirectory
+   *          the repository's git directory, which holds HEAD
+   * @param commonDirectory
+   *          the directory holding the shared refs; differs from gitDirectory
+   *          only for linked worktrees
+   */
+  RefResolver(File gitDirectory, File commonDirectory) {
+    mGitDirectory = gitDirectory;
+    mCommonDirectory = commonDirectory;
+  }
+
+  /**
+   * Determine the current branch (if any) and commit. Throws
+   * IllegalStateException if HEAD can't be resolved this way (e.g. the
+   * repository uses a ref storage format other than files)
+   */
+  synchronized HeadInfo head() {
+    HeadInfo.Builder b = HeadInfo.newBuilder();
+    String value = readRefFile(new File(mGitDirectory, "HEAD"));
+    checkState(value != null, "no HEAD file in", mGitDirectory);
+    if (value.startsWith(REF_PREFIX)) {
+      String refName = value.substring(REF_PREFIX.length());
+      if (refName.startsWith(HEADS_PREFIX))
+        b.branch(refName.substring(HEADS_PREFIX.length()));
+      else
+        b.branch(refName);
+      // The commit id is left empty for an unborn branch
+      b.commitId(resolve(refName));
+    } else {
+      b.detached(true);
+      b.commitId(value);
+    }
+    return b.build();
+  }
+
+  /**
+   * Resolve a full ref name (e.g. "refs/heads/master") to a commit id, or null
+   * if no such ref exists
+   */
+  synchronized String resolve(String refName) {
+    for (int depth = 0; depth < MAX_SYMREF_DEPTH; depth++) {
+      String value = readRefFile(refFile(refName));
+      if (value == null)
+        return packedRefs().lookup(refName);
+      if (!value.startsWith(REF_PREFIX)) {
+        checkState(isObjectId(value), "bad ref", refName, ":", value);
+        return value;
+      }
+      refName = value.substring(REF_PREFIX.length());
+    }
+    throw badState("symbolic ref loop at:", refName);
+  }
+
+  private File refFile(String refName) {
+    // Per-worktree refs live in the git directory, the rest in the common one
+    if (refName.equals("HEAD") || refName.startsWith("refs/bisect/") || refName.startsWith("refs/worktree/"))
+      return new File(mGitDirectory, refName);
+    return new File(mCommonDirectory, refName);
+  }
+
+  static boolean isObjectId(String text) {
+    if (text.length() != 40 && text.length() != 64)
+      return false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+        return false;
+    }
+    return true;
+  }
+
+  // ------------------------------------------------------------------
+  // Cached file contents
+  // ------------------------------------------------------------------
+
+  private static class CachedFile {
+    long modified;
+    long size;
+    Object fileKey;
+    String content;
+
+    boolean matches(BasicFileAttributes attr) {
+      return modified == attr.lastModifiedTime().to(TimeUnit.NANOSECONDS) && size == attr.size()
+          && Objects.equals(fileKey, attr.fileKey());
+    }
+
+    void setStat(BasicFileAttributes attr) {
+      modified = attr.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+      size = attr.size();
+      fileKey = attr.fileKey();
+    }
+  }
+
+  /**
+   * Read the trimmed contents of a loose ref file, or null if it doesn't exist
+   */
+  private String readRefFile(File file) {
+    BasicFileAttributes attr = attributes(file);
+    String key = file.getPath();
+    if (attr == null || !attr.isRegularFile()) {
+      mFileCache.remove(key);
+      return null;
+    }
+    CachedFile c = mFileCache.get(key);
+    // Git replaces ref files by renaming a lock file over them, so the file key
+    // (inode) changes even when the modification time's resolution is coarse
+    if (c == null || !c.matches(attr)) {
+      c = new CachedFile();
+      c.setStat(attr);
+      c.content = readString(file).trim();
+      mFileCache.put(key, c);
+    }
+    return c.content;
+  }
+
+  private static BasicFileAttributes attributes(File file) {
+    try {
+      return java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String readString(File file) {
+    try {
+      return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Packed refs
+  // ------------------------------------------------------------------
+
+  private static final class PackedRefs extends CachedFile {
+
+    String lookup(String refName) {
+      int i = Arrays.binarySearch(names, refName);
+      return (i < 0) ? null : ids[i];
+    }
+
+    String[] names = new String[0];
+    String[] ids = new String[0];
+  }
+
+  private PackedRefs packedRefs() {
+    File file = new File(mCommonDirectory, "packed-refs");
+    BasicFileAttributes attr = attributes(file);
+    if (attr == null) {
+      mPackedRefs = new PackedRefs();
+      return mPackedRefs;
+    }
+    if (mPackedRefs.matches(attr))
+      return mPackedRefs;
+
+    List<String[]> refs = arrayList();
+    boolean sorted = false;
+    for (String line : split(readString(file), '\n')) {
+      if (line.isEmpty() || line.startsWith("^"))
+        continue;
+      if (line.startsWith("#")) {
+        sorted |= line.contains(" sorted");
+        continue;
+      }
+      int space = line.indexOf(' ');
+      checkState(space > 0, "bad packed-refs line:", line);
+      refs.add(new String[] { line.substring(space + 1), line.substring(0, space) });
+    }
+    if (!sorted)
+      refs.sort((a, b) -> a[0].compareTo(b[0]));
+
+    PackedRefs p = new PackedRefs();
+    p.setStat(attr);
+    p.names = new String[refs.size()];
+    p.ids = new String[refs.size()];
+    for (int i = 0; i < refs.size(); i++) {
+      p.names[i] = refs.get(i)[0];
+      p.ids[i] = refs.get(i)[1];
+    }
+    mPackedRefs = p;
+    return p;
+  }
+
+  private final File mGitDirectory;
+  private final File mCommonDirectory;
+  private final Map<String, CachedFile> mFileCache = hashMap();
+  private PackedRefs mPackedRefs = new PackedRefs();
+}
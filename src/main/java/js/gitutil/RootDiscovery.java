@@ -0,0 +1,252 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the repository containing a directory, and the repositories within a
+ * tree.
+ *
+ * A repository's .git may be a directory, or (for linked worktrees and
+ * submodules) a file containing a "gitdir:" line naming the git directory
+ * elsewhere. A linked worktree's git directory contains a "commondir" file
+ * naming the directory that holds the objects and refs it shares with the main
+ * worktree.
+ *
+ * Locations are cached for every directory on the path from the one asked
+ * about up to its repository root, so locating a sibling (or any other
+ * directory already passed through) costs a map lookup rather than a walk up
+ * the parents. A cached location is used only if its .git and git directory
+ * still exist; a repository created since, between a directory and the root
+ * it was cached with, isn't noticed.
+ *
+ * The cache holds at most MAX_CACHED_DIRECTORIES directories; once full, the
+ * least recently used directory is evicted as each new one is added. A
+ * directory whose repository no longer exists is evicted when it is next
+ * looked up.
+ */
+final class RootDiscovery {
+
+  private static final String GITDIR_PREFIX = "gitdir:";
+
+  static final int MAX_CACHED_DIRECTORIES = 10000;
+
+  /**
+   * Where a repository's working tree and git directories are
+   */
+  static final class Location {
+
+    Location(File root, File gitDirectory, File commonDirectory) {
+      mRoot = root;
+      mGitDirectory = gitDirectory;
+      mCommonDirectory = commonDirectory;
+    }
+
+    File root() {
+      return mRoot;
+    }
+
+    /**
+     * The directory holding HEAD and the index
+     */
+    File gitDirectory() {
+      return mGitDirectory;
+    }
+
+    /**
+     * The directory holding the objects and refs; differs from gitDirectory()
+     * only for linked worktrees
+     */
+    File commonDirectory() {
+      return mCommonDirectory;
+    }
+
+    /**
+     * Determine if the repository is still where it was found
+     */
+    boolean exists() {
+      return new File(mRoot, ".git").exists() && mGitDirectory.isDirectory();
+    }
+
+    private final File mRoot;
+    private final File mGitDirectory;
+    private final File mCommonDirectory;
+  }
+
+  /**
+   * Locate the repository containing an (absolute) directory
+   */
+  static Location locate(File directory) {
+    List<String> visited = arrayList();
+    File dir = directory;
+    Location result;
+    while (true) {
+      String key = dir.getPath();
+      result = cached(key);
+      if (result != null) {
+        if (result.exists())
+          break;
+        // The repository has been deleted or moved since
+        synchronized (sCache) {
+          sCache.remove(key);
+        }
+      }
+      visited.add(key);
+      result = repositoryAt(dir);
+      if (result != null)
+        break;
+      dir = dir.getParentFile();
+      checkState(dir != null, "No .git directory found in parents of:", directory);
+    }
+    for (String key : visited)
+      cache(key, result);
+    return result;
+  }
+
+  /**
+   * Determine the number of directories cached; for tests
+   */
+  static int cacheSize() {
+    synchronized (sCache) {
+      return sCache.size();
+    }
+  }
+
+  /**
+   * Find the roots of all the repositories (including nested repositories and
+   * submodules) within a tree, listing its directories in parallel. The roots
+   * are returned in sorted order
+   */
+  static List<File> findAll(File tree, int parallelism) {
+    ConcurrentLinkedQueue<File> roots = new ConcurrentLinkedQueue<>();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.invoke(new Search(tree.toPath(), roots));
+    } finally {
+      pool.shutdown();
+    }
+    List<File> result = arrayList();
+    result.addAll(roots);
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Determine the location of the repository whose root is a directory, or
+   * null if it isn't one
+   */
+  private static Location repositoryAt(File dir) {
+    File dotGit = new File(dir, ".git");
+    if (dotGit.isDirectory())
+      return new Location(dir, dotGit, commonDirectory(dotGit));
+    if (!dotGit.isFile())
+      return null;
+    String content = readText(dotGit).trim();
+    checkState(content.startsWith(GITDIR_PREFIX), "unrecognized .git file:", dotGit);
+    File gitDir = resolve(dir, content.substring(GITDIR_PREFIX.length()).trim());
+    return new Location(dir, gitDir, commonDirectory(gitDir));
+  }
+
+  private static File commonDirectory(File gitDirectory) {
+    File commonDir = new File(gitDirectory, "commondir");
+    if (!commonDir.isFile())
+      return gitDirectory;
+    return resolve(gitDirectory, readText(commonDir).trim());
+  }
+
+  /**
+   * Resolve a path that may be relative to a directory, removing any "." and
+   * ".." components
+   */
+  private static File resolve(File directory, String path) {
+    return directory.toPath().resolve(path).normalize().toFile();
+  }
+
+  private static Location cached(String directory) {
+    synchronized (sCache) {
+      return sCache.get(directory);
+    }
+  }
+
+  private static void cache(String directory, Location location) {
+    synchronized (sCache) {
+      sCache.put(directory, location);
+      Iterator<Location> it = sCache.values().iterator();
+      while (sCache.size() > MAX_CACHED_DIRECTORIES) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  private static String readText(File file) {
+    try {
+      return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Searches a directory for repositories, forking a search of each
+   * subdirectory
+   */
+  private static final class Search extends RecursiveAction {
+
+    Search(Path directory, ConcurrentLinkedQueue<File> roots) {
+      mDirectory = directory;
+      mRoots = roots;
+    }
+
+    @Override
+    protected void compute() {
+      List<Search> children = arrayList();
+      try (DirectoryStream<Path> entries = java.nio.file.Files.newDirectoryStream(mDirectory)) {
+        for (Path entry : entries) {
+          String name = entry.getFileName().toString();
+          if (name.equals(".git")) {
+            File root = mDirectory.toFile();
+            mRoots.add(root);
+            try {
+              Location location = repositoryAt(root);
+              if (location != null)
+                cache(root.getPath(), location);
+            } catch (RuntimeException e) {
+              // Leave a malformed .git file to be reported if it's used
+            }
+            continue;
+          }
+          // Don't follow symbolic links, which might lead to cycles
+          if (java.nio.file.Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+            children.add(new Search(entry, mRoots));
+        }
+      } catch (IOException e) {
+        // The directory may be unreadable, or have been deleted since it was
+        // listed
+        return;
+      }
+      invokeAll(children);
+    }
+
+    private final Path mDirectory;
+    private final ConcurrentLinkedQueue<File> mRoots;
+  }
+
+  // Locations keyed by directory, in order of least recent use
+  private static final Map<String, Location> sCache = new LinkedHashMap<>(256, 0.75f, true);
+}
@@ -0,0 +1,99 @@
+package js.gitutil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import gitutil.gen.RepoSnapshot;
+
+/**
+ * Publishes a repository's latest RepoSnapshot, and computes new ones in the
+ * background.
+ *
+ * Readers get the published snapshot from an atomic reference, so they never
+ * block or see one partly built. Refresh requests are coalesced: requests made
+ * before a computation starts share it, and requests made while one is running
+ * (which may have already read the state they want to see) share the single
+ * computation that follows it. So at most one computation is running, and at
+ * most one more is waiting, however many threads ask.
+ */
+final class SnapshotRefresher {
+
+  SnapshotRefresher(Supplier<RepoSnapshot> compute, Executor executor) {
+    mCompute = compute;
+    mExecutor = executor;
+  }
+
+  /**
+   * Get the published snapshot, or null if none has been computed yet
+   */
+  RepoSnapshot current() {
+    return mCurrent.get();
+  }
+
+  /**
+   * Request a snapshot reflecting the repository's state at some point after
+   * this call; the future completes when it has been published
+   */
+  synchronized CompletableFuture<RepoSnapshot> refresh() {
+    if (mPending != null)
+      return mPending;
+    mPending = new CompletableFuture<>();
+    CompletableFuture<RepoSnapshot> result = mPending;
+    if (!mRunning)
+      startPending();
+    return result;
+  }
+
+  /**
+   * Request a snapshot, sharing the one being computed if there is one (even
+   * if it began before this call)
+   */
+  synchronized CompletableFuture<RepoSnapshot> refreshOrJoin() {
+    if (mRunning)
+      return mRunningFuture;
+    return refresh();
+  }
+
+  /**
+   * Start computing the pending snapshot; the caller must hold the lock
+   */
+  private void startPending() {
+    CompletableFuture<RepoSnapshot> future = mPending;
+    mPending = null;
+    mRunning = true;
+    mRunningFuture = future;
+    try {
+      mExecutor.execute(() -> run(future));
+    } catch (RuntimeException e) {
+      mRunning = false;
+      mRunningFuture = null;
+      future.completeExceptionally(e);
+    }
+  }
+
+  private void run(CompletableFuture<RepoSnapshot> future) {
+    try {
+      RepoSnapshot snapshot = mCompute.get();
+      mCurrent.set(snapshot);
+      future.complete(snapshot);
+    } catch (Throwable t) {
+      future.completeExceptionally(t);
+    } finally {
+      synchronized (this) {
+        mRunning = false;
+        mRunningFuture = null;
+        if (mPending != null)
+          startPending();
+      }
+    }
+  }
+
+  private final Supplier<RepoSnapshot> mCompute;
+  private final Executor mExecutor;
+  private final AtomicReference<RepoSnapshot> mCurrent = new AtomicReference<>();
+  private CompletableFuture<RepoSnapshot> mPending;
+  private boolean mRunning;
+  private CompletableFuture<RepoSnapshot> mRunningFuture;
+}
@@ -0,0 +1,186 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of marker scan results that persists across runs, in a file within
+ * the .git directory. Each result is keyed by the file's path and its stat
+ * data (mtime, size and inode), so a file is only rescanned once it changes.
+ *
+ * The file is written to a temporary file and renamed into place, so
+ * concurrent processes never see a partially written cache (the last to write
+ * wins). A cache that can't be read, or that was written for a different
+ * version or marker, is ignored, and one that can't be written is dropped.
+ */
+final class StatusCache {
+
+  static final String FILENAME = "gitutil-status.cache";
+
+  private static final int MAGIC = 0x47555343; // "GUSC"
+  private static final int VERSION = 1;
+
+  /**
+   * Results for files modified this recently (relative to when the cache is
+   * written) are not saved, as a further change within the file system's
+   * timestamp granularity wouldn't alter their stat data
+   */
+  private static final long RACY_NANOS = 2_000_000_000L;
+
+  /**
+   * Read the cache from a .git directory; if it doesn't exist or is unusable,
+   * the cache starts out empty
+   */
+  static StatusCache read(File gitDirectory, String marker) {
+    StatusCache cache = new StatusCache(gitDirectory, marker);
+    try (InputStream in = java.nio.file.Files.newInputStream(cache.mFile)) {
+      cache.load(new DataInputStream(new BufferedInputStream(in)));
+    } catch (NoSuchFileException e) {
+      // No cache yet
+    } catch (IOException | RuntimeException e) {
+      cache.mEntries.clear();
+    }
+    return cache;
+  }
+
+  private StatusCache(File gitDirectory, String marker) {
+    mFile = new File(gitDirectory, FILENAME).toPath();
+    mMarker = marker;
+  }
+
+  /**
+   * Get the cached result for a file, or null if there is none or the file's
+   * stat data has changed
+   */
+  Boolean marked(String path, GitIndex.Stat stat) {
+    Entry ent = mEntries.get(path);
+    if (ent == null || stat == null || ent.mtimeNanos != stat.mtimeNanos || ent.size != stat.size
+        || ent.ino != stat.ino)
+      return null;
+    return ent.marked;
+  }
+
+  /**
+   * Record the result of scanning a file
+   */
+  void put(String path, GitIndex.Stat stat, boolean marked) {
+    if (stat == null)
+      return;
+    Entry ent = new Entry();
+    ent.mtimeNanos = stat.mtimeNanos;
+    ent.size = stat.size;
+    ent.ino = stat.ino;
+    ent.marked = marked;
+    mEntries.put(path, ent);
+    mModified = true;
+  }
+
+  /**
+   * Keep only the results for a set of paths, e.g. those currently of
+   * interest
+   */
+  void retainAll(Set<String> paths) {
+    if (mEntries.keySet().retainAll(paths))
+      mModified = true;
+  }
+
+  /**
+   * Write the cache, if it has changed since it was read; returns false if it
+   * couldn't be written
+   */
+  boolean write() {
+    if (!mModified)
+      return true;
+    Path temp = null;
+    try {
+      temp = java.nio.file.Files.createTempFile(mFile.getParent(), FILENAME, ".tmp");
+      try (OutputStream out = java.nio.file.Files.newOutputStream(temp)) {
+        DataOutputStream d = new DataOutputStream(new BufferedOutputStream(out));
+        save(d);
+        d.flush();
+      }
+      try {
+        java.nio.file.Files.move(temp, mFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        java.nio.file.Files.move(temp, mFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+      mModified = false;
+      return true;
+    } catch (IOException e) {
+      // A read-only .git directory, a full disk, a path too long to save, etc.
+      return false;
+    } finally {
+      if (temp != null)
+        temp.toFile().delete();
+    }
+  }
+
+  // ------------------------------------------------------------------
+  // Binary format
+  // ------------------------------------------------------------------
+
+  // magic, version, marker, entry count, then for each entry:
+  // path, mtime (nanos), size, inode, marked
+
+  private void load(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(mMarker))
+      return;
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String path = in.readUTF();
+      Entry ent = new Entry();
+      ent.mtimeNanos = in.readLong();
+      ent.size = in.readLong();
+      ent.ino = in.readLong();
+      ent.marked = in.readBoolean();
+      mEntries.put(path, ent);
+    }
+  }
+
+  private void save(DataOutputStream out) throws IOException {
+    long racyLimit = System.currentTimeMillis() * 1_000_000L - RACY_NANOS;
+    Map<String, Entry> saved = hashMap();
+    for (Map.Entry<String, Entry> e : mEntries.entrySet())
+      if (e.getValue().mtimeNanos < racyLimit)
+        saved.put(e.getKey(), e.getValue());
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(mMarker);
+    out.writeInt(saved.size());
+    for (Map.Entry<String, Entry> e : saved.entrySet()) {
+      Entry ent = e.getValue();
+      out.writeUTF(e.getKey());
+      out.writeLong(ent.mtimeNanos);
+      out.writeLong(ent.size);
+      out.writeLong(ent.ino);
+      out.writeBoolean(ent.marked);
+    }
+  }
+
+  private static final class Entry {
+    long mtimeNanos;
+    long size;
+    long ino;
+    boolean marked;
+  }
+
+  private final Path mFile;
+  private final String mMarker;
+  private final Map<String, Entry> mEntries = hashMap();
+  private boolean mModified;
+}
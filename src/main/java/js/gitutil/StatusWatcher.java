@@ -0,0 +1,349 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import js.data.DataUtil;
+
+/**
+ * Keeps the results of `git status` current by watching the working tree and
+ * the .git directory for changes.
+ *
+ * Events are drained whenever the entries are asked for; the paths they name
+ * are marked dirty, and only those paths are passed to `git status`. A change
+ * to the index, HEAD, the refs or an ignore file (or an event queue overflow)
+ * instead causes a full status. Events are delivered asynchronously by the
+ * file system, so a change made a moment before a query may not yet be seen.
+ *
+ * Git reports a directory containing no tracked files as a whole ("dir/"), so
+ * a path within one is refreshed by refreshing the highest such directory,
+ * which is found using the directories in the index. Ignored directories with
+ * no tracked files aren't watched.
+ */
+final class StatusWatcher {
+
+  /**
+   * If more paths than this are dirty, a full status is cheaper
+   */
+  private static final int MAX_DIRTY_PATHS = 1000;
+
+  StatusWatcher(File rootDirectory, File gitDirectory, File commonDirectory, GitCommandPool pool) {
+    mRoot = rootDirectory.toPath();
+    mGitDir = gitDirectory.toPath();
+    mCommonDir = commonDirectory.toPath();
+    mPool = pool;
+    try {
+      mWatchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    readIndex();
+    mIgnoreMatcher = new IgnoreMatcher(rootDirectory, commonDirectory);
+    registerTree(mRoot);
+    register(mGitDir);
+    if (!mCommonDir.equals(mGitDir))
+      register(mCommonDir);
+    register(mCommonDir.resolve("info"));
+    registerTree(mCommonDir.resolve("refs"));
+    mFullRefreshNeeded = true;
+  }
+
+  /**
+   * Get the current status entries, refreshing those that may have changed.
+   * Returns the same list as the previous call if nothing has changed
+   */
+  synchronized List<FileEntry> entries() {
+    checkState(mWatchService != null, "watcher is closed");
+    drainEvents();
+    if (!mDirtyPaths.isEmpty() && (mDirtyPaths.size() > MAX_DIRTY_PATHS || mTrackedDirectories == null))
+      mFullRefreshNeeded = true;
+    if (mFullRefreshNeeded) {
+      mFullRefreshNeeded = false;
+      readIndex();
+      if (mIgnoreRulesChanged) {
+        mIgnoreRulesChanged = false;
+        mIgnoreMatcher = new IgnoreMatcher(mRoot.toFile(), mCommonDir.toFile());
+        // Directories that were ignored may not be now
+        registerTree(mRoot);
+      }
+      mDirtyPaths.clear();
+      mTracked.clear();
+      mUntracked.clear();
+      runStatus(DataUtil.emptyList());
+      mEntries = null;
+    } else if (!mDirtyPaths.isEmpty()) {
+      List<String> pathspecs = arrayList();
+      Set<String> refreshed = hashSet();
+      for (String path : mDirtyPaths) {
+        // If the path lies within a directory with no tracked files, git
+        // reports the directory as a whole, so refresh that instead
+        String untrackedDir = untrackedDirectoryContaining(path);
+        if (untrackedDir != null)
+          path = untrackedDir;
+        if (!refreshed.add(path))
+          continue;
+        FileEntry existing = mTracked.get(path);
+        if (existing != null && !existing.origPath().isEmpty()) {
+          pathspecs.add(":(literal)" + existing.origPath());
+          removeUnder(mTracked, existing.origPath());
+        }
+        pathspecs.add(":(literal)" + path);
+        removeUnder(mTracked, path);
+        removeUnder(mUntracked, path);
+      }
+      mDirtyPaths.clear();
+      runStatus(pathspecs);
+      mEntries = null;
+    }
+    if (mEntries == null) {
+      List<FileEntry> entries = arrayList();
+      entries.addAll(mTracked.values());
+      entries.addAll(mUntracked.values());
+      mEntries = Collections.unmodifiableList(entries);
+    }
+    return mEntries;
+  }
+
+  synchronized void close() {
+    if (mWatchService == null)
+      return;
+    try {
+      mWatchService.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    mWatchService = null;
+    mKeys.clear();
+  }
+
+  /**
+   * Get the directories being watched
+   */
+  synchronized Set<Path> watchedDirectories() {
+    Set<Path> result = hashSet();
+    result.addAll(mKeys.values());
+    return result;
+  }
+
+  private void runStatus(List<String> pathspecs) {
+    List<String> args = arrayList();
+    // Otherwise git may rewrite the index, which would look like a change
+    args.add("--no-optional-locks");
+    args.add("status");
+    args.add("--porcelain=v2");
+    args.add("-z");
+    if (!pathspecs.isEmpty()) {
+      args.add("--");
+      args.addAll(pathspecs);
+    }
+    mPool.stream(in -> {
+      PorcelainParser parser = new PorcelainParser(in);
+      while (parser.hasNext()) {
+        FileEntry ent = parser.next();
+        (ent.state() == FileState.UNTRACKED ? mUntracked : mTracked).put(ent.path(), ent);
+      }
+      return null;
+    }, args.toArray(new String[0]));
+  }
+
+  /**
+   * Find the highest directory containing a path that has no tracked files, or
+   * null if there is none
+   */
+  private String untrackedDirectoryContaining(String path) {
+    for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+      String dir = path.substring(0, i);
+      if (!mTrackedDirectories.contains(dir))
+        return dir;
+    }
+    return null;
+  }
+
+  /**
+   * Determine which directories contain tracked files, from the index; if it
+   * can't be read, they are unknown (null), and every refresh is a full one
+   */
+  private void readIndex() {
+    File indexFile = mGitDir.resolve("index").toFile();
+    Set<String> dirs = hashSet();
+    if (indexFile.exists()) {
+      try {
+        GitIndex index = GitIndex.read(indexFile);
+        for (int i = 0; i < index.size(); i++) {
+          String path = index.path(i);
+          for (int j = path.indexOf('/'); j >= 0; j = path.indexOf('/', j + 1))
+            dirs.add(path.substring(0, j));
+        }
+      } catch (RuntimeException e) {
+        dirs = null;
+      }
+    }
+    mTrackedDirectories = dirs;
+  }
+
+  /**
+   * Remove the entries for a path, and (if it is a directory) for any paths
+   * within it
+   */
+  private static void removeUnder(SortedMap<String, FileEntry> map, String path) {
+    map.remove(path);
+    // '0' is the character following '/'
+    map.subMap(path + "/", path + "0").clear();
+  }
+
+  // ------------------------------------------------------------------
+  // Watching
+  // ------------------------------------------------------------------
+
+  private void drainEvents() {
+    while (true) {
+      WatchKey key = mWatchService.poll();
+      if (key == null)
+        break;
+      Path dir = mKeys.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          mFullRefreshNeeded = true;
+          continue;
+        }
+        if (dir == null)
+          continue;
+        Path child = dir.resolve((Path) event.context());
+        if (inGitDirectory(child))
+          gitDirectoryChanged(child, event.kind());
+        else
+          workingTreeChanged(child, event.kind());
+      }
+      if (!key.reset()) {
+        // The directory is no longer accessible (e.g. it was deleted)
+        mKeys.remove(key);
+        if (dir != null && !inGitDirectory(dir) && !dir.equals(mRoot))
+          mDirtyPaths.add(relativePath(dir));
+      }
+    }
+  }
+
+  private boolean inGitDirectory(Path path) {
+    return path.startsWith(mGitDir) || path.startsWith(mCommonDir);
+  }
+
+  private void gitDirectoryChanged(Path path, WatchEvent.Kind<?> kind) {
+    String name = path.getFileName().toString();
+    if (name.endsWith(".lock"))
+      return;
+    if (path.startsWith(mCommonDir.resolve("refs"))) {
+      if (kind == StandardWatchEventKinds.ENTRY_CREATE && path.toFile().isDirectory())
+        registerTree(path);
+      mFullRefreshNeeded = true;
+      return;
+    }
+    if (path.getParent().equals(mGitDir) && (name.equals("index") || name.equals("HEAD")))
+      mFullRefreshNeeded = true;
+    else if (path.getParent().equals(mCommonDir) && name.equals("packed-refs"))
+      mFullRefreshNeeded = true;
+    else if (path.equals(mCommonDir.resolve("info").resolve("exclude"))) {
+      mFullRefreshNeeded = true;
+      mIgnoreRulesChanged = true;
+    }
+  }
+
+  private void workingTreeChanged(Path path, WatchEvent.Kind<?> kind) {
+    if (path.getFileName().toString().equals(".gitignore")) {
+      mFullRefreshNeeded = true;
+      mIgnoreRulesChanged = true;
+      return;
+    }
+    if (kind == StandardWatchEventKinds.ENTRY_CREATE && path.toFile().isDirectory())
+      registerTree(path);
+    mDirtyPaths.add(relativePath(path));
+  }
+
+  private String relativePath(Path path) {
+    String s = mRoot.relativize(path).toString();
+    if (File.separatorChar != '/')
+      s = s.replace(File.separatorChar, '/');
+    return s;
+  }
+
+  /**
+   * Watch a directory and its subdirectories, other than any .git directories,
+   * and (within the working tree) ignored directories with no tracked files
+   */
+  private void registerTree(Path root) {
+    try {
+      java.nio.file.Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (!dir.equals(root) && dir.getFileName().toString().equals(".git"))
+            return FileVisitResult.SKIP_SUBTREE;
+          if (!dir.equals(mRoot) && !inGitDirectory(dir) && ignored(relativePath(dir)))
+            return FileVisitResult.SKIP_SUBTREE;
+          register(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          // The directory may have been deleted since it was listed
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private boolean ignored(String directory) {
+    if (mTrackedDirectories == null || mTrackedDirectories.contains(directory))
+      return false;
+    return mIgnoreMatcher.isIgnored(directory, true);
+  }
+
+  private void register(Path dir) {
+    try {
+      WatchKey key = dir.register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+      mKeys.put(key, dir);
+    } catch (java.nio.file.NoSuchFileException e) {
+      // It was deleted before we could watch it; its parent's event covers it
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private final Path mRoot;
+  private final Path mGitDir;
+  private final Path mCommonDir;
+  private final GitCommandPool mPool;
+  private WatchService mWatchService;
+  private final Map<WatchKey, Path> mKeys = hashMap();
+  private final Set<String> mDirtyPaths = hashSet();
+  private boolean mFullRefreshNeeded;
+  private boolean mIgnoreRulesChanged;
+  private IgnoreMatcher mIgnoreMatcher;
+  // The directories containing tracked files, or null if unknown
+  private Set<String> mTrackedDirectories;
+  private final SortedMap<String, FileEntry> mTracked = new TreeMap<>(GitIndex::comparePaths);
+  private final SortedMap<String, FileEntry> mUntracked = new TreeMap<>(GitIndex::comparePaths);
+  private List<FileEntry> mEntries;
+}
@@ -0,0 +1,67 @@
+package js.gitutil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds a single pattern, examining a word (eight bytes) at a time.
+ *
+ * Each step loads the words where the pattern's first and last bytes would lie
+ * for eight consecutive alignments, and uses SWAR ('SIMD within a register')
+ * arithmetic to find the alignments where both bytes match. Only those
+ * candidates are compared in full.
+ */
+final class SwarMarkerEngine implements MarkerEngine {
+
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  SwarMarkerEngine(byte[] pattern) {
+    mPattern = pattern.clone();
+    mFirst = LOW_BITS * (pattern[0] & 0xff);
+    mLast = LOW_BITS * (pattern[pattern.length - 1] & 0xff);
+  }
+
+  @Override
+  public int maxPatternLength() {
+    return mPattern.length;
+  }
+
+  @Override
+  public boolean scan(ByteBuffer bytes, int start, int end, long baseOffset, Listener listener) {
+    ByteBuffer buf = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    byte[] pattern = mPattern;
+    int lastOffset = pattern.length - 1;
+    int i = start;
+    // Process eight alignments at a time while both words are within the region
+    for (; i + lastOffset + Long.BYTES <= end; i += Long.BYTES) {
+      long x = (buf.getLong(i) ^ mFirst) | (buf.getLong(i + lastOffset) ^ mLast);
+      // Set the high bit of each byte that is zero (plus, possibly, some bytes
+      // above a zero byte; those false positives are weeded out by verify())
+      long zeros = (x - LOW_BITS) & ~x & HIGH_BITS;
+      while (zeros != 0) {
+        int k = Long.numberOfTrailingZeros(zeros) >>> 3;
+        if (verify(buf, i + k) && !listener.match(0, baseOffset + i + k))
+          return false;
+        zeros &= zeros - 1;
+      }
+    }
+    for (; i + lastOffset < end; i++) {
+      if (verify(buf, i) && !listener.match(0, baseOffset + i))
+        return false;
+    }
+    return true;
+  }
+
+  private boolean verify(ByteBuffer buf, int position) {
+    byte[] pattern = mPattern;
+    for (int j = 0; j < pattern.length; j++)
+      if (buf.get(position + j) != pattern[j])
+        return false;
+    return true;
+  }
+
+  private final byte[] mPattern;
+  private final long mFirst;
+  private final long mLast;
+}
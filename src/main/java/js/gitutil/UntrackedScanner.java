@@ -0,0 +1,138 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+
+/**
+ * Lists a working tree's untracked files without forking git, by walking the
+ * tree (in parallel) and consulting the index and an IgnoreMatcher.
+ *
+ * The results are those of `git status` with the default
+ * --untracked-files=normal: a directory containing no tracked files is
+ * reported as a whole (as "dir/") if it contains any untracked files, and
+ * otherwise not at all. Ignored directories are not entered, and nor are
+ * nested repositories, which are reported as untracked directories.
+ */
+final class UntrackedScanner {
+
+  UntrackedScanner(Path rootDirectory, GitIndex index, IgnoreMatcher matcher) {
+    mRoot = rootDirectory;
+    mMatcher = matcher;
+    mTracked = hashSet();
+    mTrackedDirectories = hashSet();
+    for (int i = 0; i < index.size(); i++) {
+      String path = index.path(i);
+      mTracked.add(path);
+      for (int j = path.indexOf('/'); j >= 0; j = path.indexOf('/', j + 1))
+        mTrackedDirectories.add(path.substring(0, j));
+    }
+  }
+
+  /**
+   * List the untracked files and directories, ordered by path
+   */
+  List<FileEntry> scan(ForkJoinPool pool) {
+    ConcurrentLinkedQueue<String> found = new ConcurrentLinkedQueue<>();
+    pool.invoke(new Walk("", mRoot, found));
+    List<String> paths = arrayList();
+    paths.addAll(found);
+    paths.sort(GitIndex::comparePaths);
+    List<FileEntry> result = arrayList();
+    for (String path : paths)
+      result.add(FileEntry.newBuilder().oldState(FileState.UNTRACKED).state(FileState.UNTRACKED).path(path).build());
+    return result;
+  }
+
+  /**
+   * Lists a directory containing tracked files, forking a walk of each
+   * subdirectory that also does
+   */
+  private final class Walk extends RecursiveAction {
+
+    Walk(String directory, Path path, ConcurrentLinkedQueue<String> found) {
+      mDirectory = directory;
+      mPath = path;
+      mFound = found;
+    }
+
+    @Override
+    protected void compute() {
+      List<Walk> children = arrayList();
+      try (DirectoryStream<Path> entries = java.nio.file.Files.newDirectoryStream(mPath)) {
+        for (Path entry : entries) {
+          String name = entry.getFileName().toString();
+          if (name.equals(".git"))
+            continue;
+          String path = mDirectory + name;
+          if (mTracked.contains(path))
+            continue;
+          // Symbolic links are never followed, as git treats them as files
+          boolean isDirectory = java.nio.file.Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+          if (mMatcher.ignored(mDirectory, path, name, isDirectory))
+            continue;
+          if (!isDirectory)
+            mFound.add(path);
+          else if (mTrackedDirectories.contains(path))
+            children.add(new Walk(path + "/", entry, mFound));
+          else if (containsUntracked(path + "/", entry))
+            mFound.add(path + "/");
+        }
+      } catch (IOException e) {
+        // The directory may be unreadable, or have been deleted since it was
+        // listed
+        return;
+      }
+      invokeAll(children);
+    }
+
+    private final String mDirectory;
+    private final Path mPath;
+    private final ConcurrentLinkedQueue<String> mFound;
+  }
+
+  /**
+   * Determine whether a directory with no tracked files contains any files
+   * that aren't ignored (or is itself a repository)
+   */
+  private boolean containsUntracked(String directory, Path path) {
+    if (java.nio.file.Files.exists(path.resolve(".git"), LinkOption.NOFOLLOW_LINKS))
+      return true;
+    List<Path> subdirectories = arrayList();
+    List<String> names = arrayList();
+    try (DirectoryStream<Path> entries = java.nio.file.Files.newDirectoryStream(path)) {
+      for (Path entry : entries) {
+        String name = entry.getFileName().toString();
+        boolean isDirectory = java.nio.file.Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+        if (mMatcher.ignored(directory, directory + name, name, isDirectory))
+          continue;
+        if (!isDirectory)
+          return true;
+        subdirectories.add(entry);
+        names.add(name);
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    for (int i = 0; i < subdirectories.size(); i++)
+      if (containsUntracked(directory + names.get(i) + "/", subdirectories.get(i)))
+        return true;
+    return false;
+  }
+
+  private final Path mRoot;
+  private final IgnoreMatcher mMatcher;
+  private final Set<String> mTracked;
+  private final Set<String> mTrackedDirectories;
+}
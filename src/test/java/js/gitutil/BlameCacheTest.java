@@ -0,0 +1,61 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.BlameRange;
+import js.testutil.MyTestCase;
+
+public class BlameCacheTest extends MyTestCase {
+
+  @Test
+  public void roundTrip() {
+    BlameCache cache = new BlameCache(TestRepo.tempDirectory("blame"));
+    String key = BlameCache.key("a.txt", "1234", "5678");
+    assertNull(cache.get(key));
+    List<BlameRange> ranges = List.of(range("c1", 1, 2), range("c2", 3, 1));
+    assertTrue(cache.put(key, ranges));
+    assertEquals(ranges, cache.get(key));
+    assertNull(cache.get(BlameCache.key("a.txt", "1234", "")));
+  }
+
+  /**
+   * A result that can't be written is dropped
+   */
+  @Test
+  public void writeFailureIsIgnored() throws Exception {
+    File notDirectory = new File(TestRepo.tempDirectory("blame"), "file");
+    java.nio.file.Files.write(notDirectory.toPath(), new byte[0]);
+    BlameCache cache = new BlameCache(notDirectory);
+    String key = BlameCache.key("a.txt", "1234", "5678");
+    assertFalse(cache.put(key, List.of(range("c1", 1, 1))));
+    assertNull(cache.get(key));
+  }
+
+  /**
+   * After HEAD is rewritten (here, amended without changing the file), the
+   * lines are attributed to the new commit, not the unreachable old one
+   */
+  @Test
+  public void amendedCommitIsNotServedFromCache() {
+    TestRepo testRepo = new TestRepo();
+    testRepo.write("a.txt", "one\ntwo\n");
+    String first = testRepo.commit("first");
+    GitRepo repo = new GitRepo(testRepo.root());
+    assertEquals(first, repo.blame("a.txt").get(0).commit());
+    testRepo.git("commit", "-q", "--amend", "-m", "amended");
+    String amended = testRepo.git("rev-parse", "HEAD");
+    assertNotEquals(first, amended);
+    assertEquals(amended, repo.blame("a.txt").get(0).commit());
+    repo.close();
+  }
+
+  private static BlameRange range(String commit, int line, int count) {
+    return BlameRange.newBuilder().commit(commit).line(line).count(count).origPath("a.txt").origLine(line)
+        .author("a").authorMail("a@example.com").authorTime(1000).summary("s").build();
+  }
+}
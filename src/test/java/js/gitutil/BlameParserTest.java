@@ -0,0 +1,80 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import static js.base.Tools.*;
+
+import gitutil.gen.BlameRange;
+import js.testutil.MyTestCase;
+
+public class BlameParserTest extends MyTestCase {
+
+  private static final String A = "0a20bdae8d39c611760d59ff5b68e29cc28a4050";
+  private static final String ZERO = "0000000000000000000000000000000000000000";
+
+  @Test
+  public void remembersCommitDetails() {
+    List<BlameRange> ranges = parse(ZERO + " 2 2 1\n" //
+        + "author Not Committed Yet\n" //
+        + "author-mail <not.committed.yet>\n" //
+        + "author-time 1700000100\n" //
+        + "author-tz +0000\n" //
+        + "summary Version of t.txt from t.txt\n" //
+        + "previous " + A + " t.txt\n" //
+        + "filename t.txt\n" //
+        + A + " 1 1 1\n" //
+        + "author Al\n" //
+        + "author-mail <al@example.com>\n" //
+        + "author-time 1700000000\n" //
+        + "committer Al\n" //
+        + "summary add t\n" //
+        + "boundary\n" //
+        + "filename t.txt\n" //
+        + A + " 2 3 4\n" //
+        + "filename \"old\\tname.txt\"\n");
+    assertEquals(3, ranges.size());
+
+    BlameRange r = ranges.get(0);
+    assertEquals(ZERO, r.commit());
+    assertEquals(2, r.line());
+    assertEquals("Not Committed Yet", r.author());
+
+    r = ranges.get(1);
+    assertEquals(A, r.commit());
+    assertEquals(1, r.line());
+    assertEquals(1, r.count());
+    assertEquals("Al", r.author());
+    assertEquals("al@example.com", r.authorMail());
+    assertEquals(1700000000L, r.authorTime());
+    assertEquals("add t", r.summary());
+    assertEquals("t.txt", r.origPath());
+
+    // A commit's details are only given the first time it appears
+    r = ranges.get(2);
+    assertEquals(3, r.line());
+    assertEquals(4, r.count());
+    assertEquals(2, r.origLine());
+    assertEquals("Al", r.author());
+    assertEquals("add t", r.summary());
+    assertEquals("old\tname.txt", r.origPath());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void truncatedOutputFails() {
+    parse(A + " 1 1 1\nauthor Al\n");
+  }
+
+  private static List<BlameRange> parse(String text) {
+    BlameParser parser = new BlameParser(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    List<BlameRange> result = arrayList();
+    while (parser.hasNext())
+      result.add(parser.next());
+    return result;
+  }
+}
@@ -0,0 +1,47 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Test;
+
+import js.data.DataUtil;
+import js.testutil.MyTestCase;
+
+public class BlobHasherTest extends MyTestCase {
+
+  @Test
+  public void hashesMatchGit() throws Exception {
+    File dir = Files.createTempDirectory("hasher").toFile();
+    Path empty = write(dir, "empty", new byte[0]);
+    Path hello = write(dir, "hello", DataUtil.toByteArray("hello\n"));
+    // Larger than SMALL_FILE_SIZE, so it is mapped
+    byte[] content = new byte[200000];
+    for (int i = 0; i < content.length; i++)
+      content[i] = (byte) ((i * 31 + 7) % 251);
+    Path large = write(dir, "large", content);
+    Path link = Files.createSymbolicLink(new File(dir, "link").toPath(), Paths.get("target.txt"));
+    Path missing = new File(dir, "missing").toPath();
+
+    BlobHasher hasher = new BlobHasher();
+    byte[][] hashes = hasher.hashAll(List.of(empty, hello, large, link, missing),
+        new boolean[] { false, false, false, true, false });
+    assertEquals("e69de29bb2d1d6434b8b29ae775ad8c2e48c5391", BlobHasher.toHex(hashes[0]));
+    assertEquals("ce013625030ba8dba906f756967f9e9ca394464a", BlobHasher.toHex(hashes[1]));
+    assertEquals("7908b97f5c0761935fec1565cdec83fc87627d8e", BlobHasher.toHex(hashes[2]));
+    assertEquals("4cbb553f3f4ac2ee7b01ff6c951d6bf583c39c15", BlobHasher.toHex(hashes[3]));
+    assertNull(hashes[4]);
+
+    assertEquals(5L, hasher.stats().getLong("files"));
+    assertEquals(6L + content.length + 10, hasher.stats().getLong("bytes"));
+  }
+
+  private static Path write(File dir, String name, byte[] content) throws Exception {
+    return Files.write(new File(dir, name).toPath(), content);
+  }
+}
@@ -0,0 +1,132 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import js.testutil.MyTestCase;
+
+public class CommitAncestryTest extends MyTestCase {
+
+  @Test
+  public void singleGraph() {
+    TestRepo repo = new TestRepo();
+    firstHistory(repo);
+    secondHistory(repo);
+    repo.git("commit-graph", "write", "--reachable");
+    assertEquals(commits(repo).size(), CommitGraph.open(objects(repo)).size());
+    checkAgainstGit(repo);
+  }
+
+  /**
+   * A chain of two graph layers, and commits made since it was written
+   */
+  @Test
+  public void splitGraph() throws Exception {
+    TestRepo repo = new TestRepo();
+    firstHistory(repo);
+    repo.git("commit-graph", "write", "--reachable", "--split");
+    secondHistory(repo);
+    repo.git("commit-graph", "write", "--reachable", "--split=no-merge");
+    File chain = new File(objects(repo), "info/commit-graphs/commit-graph-chain");
+    assertEquals(2, Files.readAllLines(chain.toPath()).size());
+    assertEquals(commits(repo).size(), CommitGraph.open(objects(repo)).size());
+
+    repo.git("checkout", "-q", "feature");
+    commit(repo, "f4");
+    repo.git("checkout", "-q", "main");
+    commit(repo, "c6");
+    repo.git("merge", "-q", "--no-ff", "-m", "m3", "feature");
+    checkAgainstGit(repo);
+  }
+
+  /**
+   * Compare the answers for every pair of commits with git's
+   */
+  private static void checkAgainstGit(TestRepo repo) {
+    List<String> commits = commits(repo);
+    CommitAncestry ancestry = CommitAncestry.open(objects(repo),
+        new ObjectReader(objects(repo), ObjectReader.DEFAULT_CACHE_BYTES));
+    assertNotNull(ancestry);
+    for (String b : commits) {
+      Set<String> reachable = hashSet();
+      reachable.addAll(split(repo.git("rev-list", b), '\n'));
+      for (String a : commits) {
+        String pair = a + " " + b;
+        assertEquals(pair, reachable.contains(a), ancestry.isAncestor(a, b));
+
+        String bases = repo.gitOrNull("merge-base", "--all", a, b);
+        String base = ancestry.mergeBase(a, b);
+        if (bases == null)
+          assertNull(pair, base);
+        else
+          assertTrue(pair, split(bases, '\n').contains(base));
+
+        String counts = repo.git("rev-list", "--left-right", "--count", a + "..." + b);
+        int[] aheadBehind = ancestry.aheadBehind(a, b);
+        assertEquals(pair, counts, aheadBehind[0] + "\t" + aheadBehind[1]);
+      }
+    }
+  }
+
+  /**
+   * Two branches
+   */
+  private static void firstHistory(TestRepo repo) {
+    commit(repo, "c0");
+    commit(repo, "c1");
+    repo.git("checkout", "-q", "-b", "feature");
+    commit(repo, "f1");
+    commit(repo, "f2");
+    repo.git("checkout", "-q", "main");
+    commit(repo, "c2");
+  }
+
+  /**
+   * Merges (including a criss-cross merge, whose commits have two merge bases),
+   * and an unrelated history
+   */
+  private static void secondHistory(TestRepo repo) {
+    repo.git("checkout", "-q", "-b", "other", "feature~1");
+    commit(repo, "o1");
+    repo.git("checkout", "-q", "feature");
+    commit(repo, "f3");
+    repo.git("checkout", "-q", "main");
+    repo.git("merge", "-q", "--no-ff", "-m", "m1", "feature");
+    commit(repo, "c5");
+    repo.git("merge", "-q", "--no-ff", "-m", "m2", "other");
+
+    repo.git("checkout", "-q", "-b", "x", "main");
+    String x1 = commit(repo, "x1");
+    repo.git("checkout", "-q", "-b", "y", "main");
+    commit(repo, "y1");
+    repo.git("checkout", "-q", "x");
+    repo.git("merge", "-q", "--no-ff", "-m", "mx", "y");
+    repo.git("checkout", "-q", "y");
+    repo.git("merge", "-q", "--no-ff", "-m", "my", x1);
+
+    repo.git("checkout", "-q", "--orphan", "lonely");
+    commit(repo, "r0");
+    commit(repo, "r1");
+    repo.git("checkout", "-q", "-f", "main");
+  }
+
+  private static String commit(TestRepo repo, String name) {
+    repo.write(name + ".txt", name + "\n");
+    return repo.commit(name);
+  }
+
+  private static List<String> commits(TestRepo repo) {
+    return split(repo.git("rev-list", "--all"), '\n');
+  }
+
+  private static File objects(TestRepo repo) {
+    return new File(repo.root(), ".git/objects");
+  }
+}
@@ -0,0 +1,63 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.Hunk;
+import js.data.DataUtil;
+import js.testutil.MyTestCase;
+
+public class DiffEngineTest extends MyTestCase {
+
+  @Test
+  public void separateHunksAndMissingNewline() {
+    List<Hunk> hunks = diff("a\nb\nc\nd\ne\nf\ng\nh\ni\nj\nk\nl\nm", "a\nB\nc\nd\ne\nf\ng\nh\ni\nj\nk\nl\nm\n");
+    assertEquals(2, hunks.size());
+    Hunk h = hunks.get(0);
+    assertEquals(1, h.r1Begin());
+    assertEquals(5, h.r1Count());
+    assertEquals(1, h.r2Begin());
+    assertEquals(5, h.r2Count());
+    assertEquals(List.of(" a", "-b", "+B", " c", " d", " e"), h.lines());
+    h = hunks.get(1);
+    assertEquals(10, h.r1Begin());
+    assertEquals(4, h.r1Count());
+    assertEquals(List.of(" j", " k", " l", "-m", "+m"), h.lines());
+    assertTrue(h.missingNewline1());
+    assertFalse(h.missingNewline2());
+  }
+
+  @Test
+  public void ambiguousChangeAlignedAsGitDoes() {
+    List<Hunk> hunks = diff("{\n\n\na\nc\na\nd\n", "}\n\n\na\nc\nd\n\nd\n");
+    assertEquals(1, hunks.size());
+    Hunk h = hunks.get(0);
+    assertEquals(7, h.r1Count());
+    assertEquals(8, h.r2Count());
+    assertEquals(List.of("-{", "+}", " ", " ", " a", " c", "-a", "+d", "+", " d"), h.lines());
+  }
+
+  @Test
+  public void insertionIntoEmptyFile() {
+    List<Hunk> hunks = diff("", "x\ny\n");
+    assertEquals(1, hunks.size());
+    Hunk h = hunks.get(0);
+    assertEquals(0, h.r1Begin());
+    assertEquals(0, h.r1Count());
+    assertEquals(1, h.r2Begin());
+    assertEquals(2, h.r2Count());
+  }
+
+  @Test
+  public void identicalFilesHaveNoHunks() {
+    assertTrue(diff("a\nb\n", "a\nb\n").isEmpty());
+  }
+
+  private static List<Hunk> diff(String oldText, String newText) {
+    return DiffEngine.diff("f", DataUtil.toByteArray(oldText), DataUtil.toByteArray(newText),
+        DiffEngine.DEFAULT_CONTEXT);
+  }
+}
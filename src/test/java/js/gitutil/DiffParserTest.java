@@ -0,0 +1,107 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import static js.base.Tools.*;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.Hunk;
+import js.testutil.MyTestCase;
+
+public class DiffParserTest extends MyTestCase {
+
+  private static final String DIFF = "diff --git a/a.txt b/a.txt\n" //
+      + "index 7898192..20cbb4d 100644\n" //
+      + "--- a/a.txt\n" //
+      + "+++ b/a.txt\n" //
+      + "@@ -1,3 +1,3 @@ section\n" //
+      + " one\n" //
+      + "-two\n" //
+      + "+TWO\n" //
+      + " three\n" //
+      + "@@ -10 +10 @@\n" //
+      + "-ten\n" //
+      + "\\ No newline at end of file\n" //
+      + "+TEN\n" //
+      + "diff --git \"a/tab\\there\" \"b/tab\\there\"\n" //
+      + "new file mode 100755\n" //
+      + "index 0000000..8ba3a16\n" //
+      + "--- /dev/null\n" //
+      + "+++ \"b/tab\\there\"\n" //
+      + "@@ -0,0 +1 @@\n" //
+      + "+new\n" //
+      + "diff --git a/old name b/new name\n" //
+      + "similarity index 90%\n" //
+      + "rename from old name\n" //
+      + "rename to new name\n";
+
+  @Test
+  public void parsesFilesAndHunks() {
+    List<FileEntry> files = parse(DIFF, 1000);
+    assertEquals(3, files.size());
+
+    FileEntry f = files.get(0);
+    assertEquals("a.txt", f.path());
+    assertEquals(FileState.MODIFIED, f.state());
+    assertEquals(2, f.hunks().size());
+    Hunk h = f.hunks().get(0);
+    assertEquals(1, h.r1Begin());
+    assertEquals(3, h.r1Count());
+    assertEquals(List.of(" one", "-two", "+TWO", " three"), h.lines());
+    h = f.hunks().get(1);
+    assertEquals(10, h.r2Begin());
+    assertEquals(1, h.r2Count());
+    assertTrue(h.missingNewline1());
+    assertFalse(h.missingNewline2());
+
+    f = files.get(1);
+    assertEquals("tab\there", f.path());
+    assertEquals(FileState.ADDED, f.state());
+    assertEquals("100755", f.mode());
+    assertEquals(List.of("+new"), f.hunks().get(0).lines());
+
+    f = files.get(2);
+    assertEquals(FileState.RENAMED, f.state());
+    assertEquals("new name", f.path());
+    assertEquals("old name", f.origPath());
+    assertTrue(f.hunks().isEmpty());
+  }
+
+  @Test
+  public void linesBeyondLimitAreDropped() {
+    FileEntry f = parse(DIFF, 5).get(0);
+    assertEquals(4, f.hunks().get(0).lines().size());
+    Hunk h = f.hunks().get(1);
+    assertTrue(h.lines().isEmpty());
+    assertEquals(10, h.r1Begin());
+  }
+
+  @Test
+  public void packedHunksMatchHunks() {
+    List<FileEntry> files = parse(DIFF, 1000);
+    DiffParser p = new DiffParser(new ByteArrayInputStream(DIFF.getBytes(StandardCharsets.UTF_8)), 1000);
+    for (FileEntry f : files) {
+      FileEntry packed = p.nextPacked();
+      assertTrue(packed.hunks().isEmpty());
+      assertEquals(f.path(), packed.path());
+      assertEquals(f.hunks(), PackedHunk.toHunks(p.packedHunks()));
+    }
+    assertFalse(p.hasNext());
+  }
+
+  private static List<FileEntry> parse(String diff, int maxLines) {
+    DiffParser p = new DiffParser(new ByteArrayInputStream(diff.getBytes(StandardCharsets.UTF_8)), maxLines);
+    List<FileEntry> result = arrayList();
+    while (p.hasNext())
+      result.add(p.next());
+    return result;
+  }
+
+}
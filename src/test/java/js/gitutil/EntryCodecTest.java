@@ -0,0 +1,93 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.Hunk;
+import js.testutil.MyTestCase;
+
+public class EntryCodecTest extends MyTestCase {
+
+  @Test
+  public void roundTripMatchesJson() {
+    List<FileEntry> entries = sampleEntries();
+    List<FileEntry> decoded = EntryCodec.decode(EntryCodec.encode(entries));
+    assertEquals(entries, decoded);
+    for (int i = 0; i < entries.size(); i++)
+      assertEquals(entries.get(i).toJson().toString(), decoded.get(i).toJson().toString());
+  }
+
+  @Test
+  public void emptyList() {
+    assertTrue(EntryCodec.decode(EntryCodec.encode(List.of())).isEmpty());
+  }
+
+  @Test
+  public void streamsEntries() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EntryCodec.Encoder encoder = new EntryCodec.Encoder(out);
+    for (FileEntry ent : sampleEntries())
+      encoder.write(ent);
+    encoder.close();
+
+    EntryCodec.Decoder decoder = new EntryCodec.Decoder(new ByteArrayInputStream(out.toByteArray()));
+    assertTrue(decoder.hasNext());
+    assertEquals("src/main.c", decoder.next().path());
+    assertEquals("src/main.c", decoder.next().origPath());
+    assertEquals("café.txt", decoder.next().path());
+    assertFalse(decoder.hasNext());
+  }
+
+  /**
+   * Packed hunks are written and read as bytes, in the same form as Hunks
+   */
+  @Test
+  public void packedHunks() {
+    List<FileEntry> entries = sampleEntries();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    EntryCodec.Encoder encoder = new EntryCodec.Encoder(out);
+    for (FileEntry ent : entries) {
+      List<PackedHunk> hunks = arrayList();
+      for (Hunk h : ent.hunks())
+        hunks.add(PackedHunk.of(h));
+      encoder.write(ent.toBuilder().hunks(null).build(), hunks);
+    }
+    encoder.close();
+    assertArrayEquals(EntryCodec.encode(entries), out.toByteArray());
+
+    EntryCodec.Decoder decoder = new EntryCodec.Decoder(new ByteArrayInputStream(out.toByteArray()));
+    for (FileEntry ent : entries) {
+      FileEntry packed = decoder.nextPacked();
+      assertEquals(ent.toBuilder().hunks(null).build(), packed);
+      assertEquals(ent.hunks(), PackedHunk.toHunks(decoder.packedHunks()));
+    }
+    assertFalse(decoder.hasNext());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsTruncatedInput() {
+    byte[] bytes = EntryCodec.encode(sampleEntries());
+    byte[] truncated = new byte[bytes.length / 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    EntryCodec.decode(truncated);
+  }
+
+  private static List<FileEntry> sampleEntries() {
+    Hunk hunk = Hunk.newBuilder().filename("src/main.c").r1Begin(1).r1Count(2).r2Begin(1).r2Count(3)
+        .lines(List.of(" a", "-b", "+B", "+c")).missingNewline2(true).build();
+    FileEntry modified = FileEntry.newBuilder().state(FileState.MODIFIED).path("src/main.c").oldMode("100644")
+        .mode("100644").hunks(List.of(hunk, hunk)).build();
+    FileEntry renamed = FileEntry.newBuilder().oldState(FileState.RENAMED).path("src/other.c")
+        .origPath("src/main.c").oldMode("100644").mode("100755").build();
+    FileEntry untracked = FileEntry.newBuilder().state(FileState.UNTRACKED).path("café.txt").build();
+    return List.of(modified, renamed, untracked);
+  }
+}
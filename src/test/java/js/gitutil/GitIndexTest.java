@@ -0,0 +1,204 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import js.testutil.MyTestCase;
+
+public class GitIndexTest extends MyTestCase {
+
+  @Test
+  public void readVersion2() {
+    TestRepo repo = repo();
+    checkAgainstGit(repo, 2);
+  }
+
+  /**
+   * Version 3 adds extended flags (here, for skip-worktree and intent-to-add
+   * entries)
+   */
+  @Test
+  public void readVersion3() {
+    TestRepo repo = repo();
+    addExtendedFlags(repo);
+    GitIndex index = checkAgainstGit(repo, 3);
+    assertTrue(index.skipWorktree(index.indexOf("b.txt")));
+    assertFalse(index.intentToAdd(index.indexOf("b.txt")));
+    assertTrue(index.intentToAdd(index.indexOf("new.txt")));
+    assertFalse(index.skipWorktree(index.indexOf("new.txt")));
+    assertFalse(index.skipWorktree(index.indexOf("a")));
+  }
+
+  /**
+   * Version 4 compresses each path relative to the previous one, and doesn't
+   * pad entries
+   */
+  @Test
+  public void readVersion4() {
+    TestRepo repo = repo();
+    addExtendedFlags(repo);
+    GitIndex index = checkAgainstGit(repo, 4);
+    assertTrue(index.skipWorktree(index.indexOf("b.txt")));
+    assertTrue(index.intentToAdd(index.indexOf("new.txt")));
+  }
+
+  @Test
+  public void readUnmergedEntries() {
+    TestRepo repo = repo();
+    repo.git("checkout", "-q", "-b", "other");
+    repo.write("a", "theirs\n").commit("theirs");
+    repo.git("checkout", "-q", "main");
+    repo.write("a", "ours\n").commit("ours");
+    assertNull(repo.gitOrNull("merge", "-q", "other"));
+    // (Without extended flags, git writes version 3 as version 2)
+    for (int version : new int[] { 2, 4 }) {
+      GitIndex index = checkAgainstGit(repo, version);
+      int i = index.indexOf("a");
+      assertEquals(1, index.stage(i));
+      assertEquals(2, index.stage(i + 1));
+      assertEquals(3, index.stage(i + 2));
+      List<FileEntry> changes = index.worktreeChanges(repo.root(), new BlobHasher());
+      assertEquals(1, changes.size());
+      assertEquals(FileState.UNMERGED, changes.get(0).state());
+    }
+  }
+
+  /**
+   * A file modified (keeping its size and mtime) in the same second the index
+   * was written is rehashed, rather than assumed clean from its stat data
+   */
+  @Test
+  public void racilyCleanEntryIsRehashed() throws Exception {
+    TestRepo repo = new TestRepo();
+    File file = repo.file("f.txt");
+    FileTime past = FileTime.fromMillis((System.currentTimeMillis() / 1000 - 100) * 1000);
+    repo.write("f.txt", "aaaa\n");
+    Files.setLastModifiedTime(file.toPath(), past);
+    repo.commit("initial");
+
+    repo.write("f.txt", "bbbb\n");
+    Files.setLastModifiedTime(file.toPath(), past);
+    File indexFile = repo.file(".git/index");
+
+    // The index is newer than the file, so its stat data is trusted
+    GitIndex index = GitIndex.read(indexFile);
+    assertEquals(GitIndex.StatResult.CLEAN, index.compareStat(0, GitIndex.stat(file.toPath())));
+    assertTrue(index.worktreeChanges(repo.root(), new BlobHasher()).isEmpty());
+
+    Files.setLastModifiedTime(indexFile.toPath(), past);
+    index = GitIndex.read(indexFile);
+    assertEquals(GitIndex.StatResult.SUSPECT, index.compareStat(0, GitIndex.stat(file.toPath())));
+    List<FileEntry> changes = index.worktreeChanges(repo.root(), new BlobHasher());
+    assertEquals(1, changes.size());
+    assertEquals("f.txt", changes.get(0).path());
+    assertEquals(FileState.MODIFIED, changes.get(0).state());
+  }
+
+  @Test
+  public void rejectMalformedIndexes() throws Exception {
+    File dir = TestRepo.tempDirectory("index");
+    checkRejected(dir, Arrays.copyOf(header(0x44495243, 5, 0), 32));
+    checkRejected(dir, Arrays.copyOf(header(0x12345678, 2, 0), 32));
+    checkRejected(dir, new byte[10]);
+    // Version 2 with extended flags
+    ByteBuffer b = ByteBuffer.wrap(new byte[12 + 72 + 20]);
+    b.put(header(0x44495243, 2, 1));
+    b.putShort(12 + 60, (short) 0x4001);
+    checkRejected(dir, b.array());
+  }
+
+  private static void checkRejected(File dir, byte[] content) throws Exception {
+    File file = new File(dir, "index");
+    Files.write(file.toPath(), content);
+    try {
+      GitIndex.read(file);
+      fail("expected failure");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  private static byte[] header(int signature, int version, int count) {
+    return ByteBuffer.allocate(12).putInt(signature).putInt(version).putInt(count).array();
+  }
+
+  /**
+   * A repository whose paths have every amount of padding in versions 2 and 3,
+   * long shared prefixes (so version 4 strips more than 127 bytes, which needs
+   * a two byte varint), an executable and a symbolic link
+   */
+  private static TestRepo repo() {
+    TestRepo repo = new TestRepo();
+    String name = "";
+    for (int i = 0; i < 9; i++) {
+      name += (char) ('a' + i);
+      repo.write(name, name + "\n");
+    }
+    String deep = "deep/" + "x".repeat(150) + "/";
+    repo.write(deep + "one.txt", "1\n");
+    repo.write(deep + "two.txt", "2\n");
+    repo.write("dir/file1", "1\n");
+    repo.write("dir/file10", "10\n");
+    repo.write("dir/sub/file1", "1\n");
+    repo.write("b.txt", "b\n");
+    repo.write("run.sh", "#!/bin/sh\n");
+    repo.file("run.sh").setExecutable(true);
+    try {
+      Files.createSymbolicLink(repo.file("link").toPath(), Paths.get("b.txt"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    repo.commit("initial");
+    return repo;
+  }
+
+  private static void addExtendedFlags(TestRepo repo) {
+    repo.git("update-index", "--skip-worktree", "b.txt");
+    repo.write("new.txt", "new\n");
+    repo.git("add", "-N", "new.txt");
+  }
+
+  /**
+   * Rewrite the index in a particular version, and compare what is read from
+   * it with `git ls-files --stage`
+   */
+  private static GitIndex checkAgainstGit(TestRepo repo, int version) {
+    repo.git("update-index", "--index-version", Integer.toString(version));
+    File indexFile = repo.file(".git/index");
+    try {
+      assertEquals(version, Files.readAllBytes(indexFile.toPath())[7]);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    GitIndex index = GitIndex.read(indexFile);
+
+    List<String> expected = split(repo.git("ls-files", "--stage"), '\n');
+    List<String> actual = arrayList();
+    for (int i = 0; i < index.size(); i++)
+      actual.add(GitIndex.modeText(index.mode(i)) + " " + index.objectId(i) + " " + index.stage(i) + "\t"
+          + index.path(i));
+    assertEquals(String.join("\n", expected), String.join("\n", actual));
+    for (int i = 0; i < index.size(); i++) {
+      int first = i;
+      while (first > 0 && index.path(first - 1).equals(index.path(i)))
+        first--;
+      assertEquals(first, index.indexOf(index.path(i)));
+    }
+    assertEquals(-1, index.indexOf("missing"));
+    return index;
+  }
+}
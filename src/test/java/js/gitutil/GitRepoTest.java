@@ -0,0 +1,186 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import gitutil.gen.RepoSnapshot;
+import js.testutil.MyTestCase;
+
+public class GitRepoTest extends MyTestCase {
+
+  @Test
+  public void identicalQueriesAreMerged() {
+    GitRepo repo = repo(3);
+    Metrics metrics = new Metrics();
+    repo.withMetrics(metrics).withExecutor(mTasks::add);
+    CompletableFuture<String> a = repo.pastCommitNameAsync(-2);
+    CompletableFuture<String> b = repo.pastCommitNameAsync(-2);
+    CompletableFuture<String> c = repo.pastCommitNameAsync(-1);
+    // The queries run on the executor
+    assertEquals(2, mTasks.size());
+    assertFalse(a.isDone());
+    assertNotSame(a, b);
+    runAll();
+    assertEquals(mTestRepo.git("log", "-1", "--format=%h", "HEAD~1"), a.join());
+    assertEquals(a.join(), b.join());
+    assertEquals(mTestRepo.git("log", "-1", "--format=%h", "HEAD"), c.join());
+    assertEquals(1, metrics.snapshot().getMap("counters").getLong("query.merged"));
+
+    // Once a query has finished, an identical one runs again
+    repo.pastCommitNameAsync(-2);
+    assertEquals(1, mTasks.size());
+    runAll();
+    repo.close();
+  }
+
+  @Test
+  public void cancellingOneCallerDoesNotAffectOthers() {
+    GitRepo repo = repo(2);
+    repo.withExecutor(mTasks::add);
+    CompletableFuture<String> a = repo.pastCommitNameAsync(-1);
+    CompletableFuture<String> b = repo.pastCommitNameAsync(-1);
+    a.cancel(true);
+    runAll();
+    assertTrue(a.isCancelled());
+    assertEquals(mTestRepo.git("log", "-1", "--format=%h"), b.join());
+
+    CompletableFuture<RepoSnapshot> r1 = repo.refresh();
+    CompletableFuture<RepoSnapshot> r2 = repo.refresh();
+    assertNotSame(r1, r2);
+    r1.cancel(true);
+    RepoSnapshot snapshot = r2.join();
+    assertSame(snapshot, repo.snapshot());
+    repo.close();
+  }
+
+  /**
+   * While watching, a query that doesn't depend on the status doesn't wait for
+   * a snapshot (here, one that never finishes)
+   */
+  @Test
+  public void queryDoesNotWaitForSnapshot() throws Exception {
+    GitRepo repo = repo(2);
+    File hook = mTestRepo.file(".git/hang.sh");
+    java.nio.file.Files.write(hook.toPath(), "#!/bin/sh\nexec sleep 60 >/dev/null 2>&1\n".getBytes());
+    hook.setExecutable(true);
+    mTestRepo.git("config", "core.fsmonitor", hook.getPath());
+
+    repo.startWatching();
+    CompletableFuture<?> entries = repo.fileEntriesAsync();
+    assertEquals(mTestRepo.git("log", "-1", "--format=%h"), repo.pastCommitNameAsync().get(10, TimeUnit.SECONDS));
+    assertEquals("main", repo.branchNameAsync().get(10, TimeUnit.SECONDS));
+    assertFalse(entries.isDone());
+    repo.close();
+  }
+
+  /**
+   * A short name is taken to mean a tag before a branch, as git does
+   */
+  @Test
+  public void tagsTakePrecedenceOverBranches() {
+    GitRepo repo = repo(3);
+    String head = mTestRepo.git("rev-parse", "HEAD");
+    String previous = mTestRepo.git("rev-parse", "HEAD~1");
+    mTestRepo.git("branch", "x", previous);
+    mTestRepo.git("tag", "x", head);
+    mTestRepo.git("branch", "y", previous);
+    mTestRepo.git("tag", "-a", "-m", "annotated", "y", head);
+    assertEquals(head, repo.mergeBase("x", "x"));
+    assertEquals(head, repo.mergeBase("y", "y"));
+    assertEquals(previous, repo.mergeBase("refs/heads/x", "refs/heads/x"));
+    assertEquals(previous, repo.mergeBase("heads/y", "heads/y"));
+    assertEquals(previous, repo.mergeBase("main~1", "main~1"));
+    repo.close();
+  }
+
+  /**
+   * The status cache is only an optimization, so failing to write it doesn't
+   * fail the query
+   */
+  @Test
+  public void unwritableStatusCacheIsIgnored() {
+    GitRepo repo = repo(1);
+    // A (non-empty) directory where the cache would be written
+    mTestRepo.write(".git/" + StatusCache.FILENAME + "/x", "x\n");
+    mTestRepo.write("f.txt", "changed\n" + GitRepo.MARK_SENTINEL_TEXT + "\n");
+    repo.withStatusCache(true);
+    assertEquals(1, repo.markedFiles().size());
+    assertEquals("f.txt", repo.markedFiles().get(0).path());
+    repo.close();
+  }
+
+  /**
+   * Once closed, a pool won't start another cat-file process
+   */
+  @Test
+  public void closedPoolStartsNoBatch() {
+    repo(1).close();
+    GitCommandPool pool = new GitCommandPool(mTestRepo.root(), false);
+    pool.close();
+    try {
+      pool.batchCheck(Arrays.asList("HEAD"));
+      fail("expected an exception");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("closed"));
+    }
+  }
+
+  /**
+   * Without an index (as before the first commit), the untracked files are
+   * found by git status instead
+   */
+  @Test
+  public void missingIndexFallsBackToStatus() {
+    GitRepo repo = repo(0);
+    mTestRepo.write("a.txt", "a\n");
+    assertEquals(repo.untrackedFiles(), repo.findUntrackedFiles());
+    assertEquals("a.txt", repo.findUntrackedFiles().get(0).path());
+    repo.close();
+  }
+
+  /**
+   * An error scanning the working tree isn't mistaken for an unreadable index
+   */
+  @Test
+  public void scanErrorIsReported() {
+    // A file that exists, but can't be read
+    File unreadable = new File("/proc/self/mem");
+    assumeTrue(unreadable.isFile());
+    GitRepo repo = repo(1);
+    mTestRepo.git("config", "core.excludesFile", unreadable.getPath());
+    try {
+      repo.findUntrackedFiles();
+      fail("expected an exception");
+    } catch (UncheckedIOException e) {
+      // expected
+    }
+    repo.close();
+  }
+
+  private GitRepo repo(int commits) {
+    mTestRepo = new TestRepo();
+    for (int i = 0; i < commits; i++) {
+      mTestRepo.write("f.txt", "version " + i + "\n");
+      mTestRepo.commit("commit " + i);
+    }
+    return new GitRepo(mTestRepo.root());
+  }
+
+  private void runAll() {
+    while (!mTasks.isEmpty())
+      mTasks.remove().run();
+  }
+
+  private TestRepo mTestRepo;
+  private final Queue<Runnable> mTasks = new ArrayDeque<>();
+}
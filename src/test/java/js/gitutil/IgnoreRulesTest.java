@@ -0,0 +1,92 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import js.testutil.MyTestCase;
+
+public class IgnoreRulesTest extends MyTestCase {
+
+  @Test
+  public void basenamePatternsMatchAtAnyDepth() {
+    IgnoreRules r = IgnoreRules.parse("", "*.o\nbuild\n");
+    assertIgnored(r, "x.o", false);
+    assertIgnored(r, "a/b/x.o", false);
+    assertIgnored(r, "a/build", true);
+    assertNotMatched(r, "x.oo", false);
+  }
+
+  @Test
+  public void slashAnchorsPattern() {
+    IgnoreRules r = IgnoreRules.parse("", "/top\ndoc/*.md\n");
+    assertIgnored(r, "top", false);
+    assertNotMatched(r, "a/top", false);
+    assertIgnored(r, "doc/x.md", false);
+    assertNotMatched(r, "a/doc/x.md", false);
+    assertNotMatched(r, "doc/a/x.md", false);
+  }
+
+  @Test
+  public void rulesOfSubdirectoryAreRelativeToIt() {
+    IgnoreRules r = IgnoreRules.parse("src/", "/gen\nlib/*.jar\n");
+    assertIgnored(r, "src/gen", true);
+    assertIgnored(r, "src/lib/x.jar", false);
+    assertNotMatched(r, "src/a/gen", true);
+  }
+
+  @Test
+  public void trailingSlashMatchesDirectoriesOnly() {
+    IgnoreRules r = IgnoreRules.parse("", "out/\n");
+    assertIgnored(r, "out", true);
+    assertNotMatched(r, "out", false);
+  }
+
+  @Test
+  public void lastMatchingPatternWins() {
+    IgnoreRules r = IgnoreRules.parse("", "*.log\n!keep.log\n");
+    assertIgnored(r, "a.log", false);
+    assertEquals(IgnoreRules.INCLUDED, r.match("keep.log", "keep.log", false));
+  }
+
+  @Test
+  public void doubleAsterisks() {
+    IgnoreRules r = IgnoreRules.parse("", "**/tmp\na/**/b\nc/**\n");
+    assertIgnored(r, "tmp", true);
+    assertIgnored(r, "x/y/tmp", true);
+    assertIgnored(r, "a/b", true);
+    assertIgnored(r, "a/x/y/b", true);
+    assertIgnored(r, "c/x/y", false);
+    assertNotMatched(r, "c", true);
+  }
+
+  @Test
+  public void wildcardsAndEscapes() {
+    IgnoreRules r = IgnoreRules.parse("", "[a-c]?.txt\n*.[!ch]x\n\\#hash\n\\!bang\ntrail\\ \nspace   \n");
+    assertIgnored(r, "b1.txt", false);
+    assertNotMatched(r, "d1.txt", false);
+    assertIgnored(r, "z.qx", false);
+    assertNotMatched(r, "z.cx", false);
+    assertIgnored(r, "#hash", false);
+    assertIgnored(r, "!bang", false);
+    assertIgnored(r, "trail ", false);
+    assertIgnored(r, "space", false);
+  }
+
+  @Test
+  public void commentsAndBlankLinesIgnored() {
+    assertTrue(IgnoreRules.parse("", "# comment\n\n   \n").isEmpty());
+  }
+
+  private static void assertIgnored(IgnoreRules r, String path, boolean isDirectory) {
+    assertEquals(path, IgnoreRules.IGNORED, r.match(path, name(path), isDirectory));
+  }
+
+  private static void assertNotMatched(IgnoreRules r, String path, boolean isDirectory) {
+    assertEquals(path, IgnoreRules.NO_MATCH, r.match(path, name(path), isDirectory));
+  }
+
+  private static String name(String path) {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+}
@@ -0,0 +1,108 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static js.base.Tools.*;
+
+import gitutil.gen.MarkerMatch;
+import js.data.DataUtil;
+import js.testutil.MyTestCase;
+
+public class MarkerEngineTest extends MyTestCase {
+
+  @Test
+  public void singlePatternMatchesNaiveSearch() {
+    verifyRandom(List.of(DataUtil.toByteArray("abca")));
+  }
+
+  @Test
+  public void multiplePatternsMatchNaiveSearch() {
+    verifyRandom(List.of(DataUtil.toByteArray("abca"), DataUtil.toByteArray("bc"), DataUtil.toByteArray("cab"),
+        DataUtil.toByteArray("c")));
+  }
+
+  @Test
+  public void nonAsciiPatterns() {
+    verifyRandom(List.of(DataUtil.toByteArray("\u00e9a"), new byte[] { (byte) 0xff, 'a', (byte) 0x80 }));
+  }
+
+  @Test
+  public void sentinelFoundAtEveryOffset() {
+    byte[] marker = DataUtil.toByteArray(GitRepo.MARK_SENTINEL_TEXT);
+    MarkerEngine engine = MarkerEngine.forPatterns(List.of(marker));
+    for (int pos = 0; pos < 40; pos++) {
+      byte[] bytes = new byte[marker.length + 40];
+      System.arraycopy(marker, 0, bytes, pos, marker.length);
+      assertEquals("" + pos, List.of((long) pos), matches(engine, bytes));
+    }
+  }
+
+  @Test
+  public void markerStraddlingChunkBoundary() throws Exception {
+    byte[] marker = DataUtil.toByteArray(GitRepo.MARK_SENTINEL_TEXT);
+    byte[] bytes = new byte[MarkerScanner.CHUNK_SIZE * 2 + 100];
+    int[] positions = { 10, MarkerScanner.CHUNK_SIZE - marker.length + 1, MarkerScanner.CHUNK_SIZE + 10,
+        bytes.length - marker.length };
+    for (int pos : positions)
+      System.arraycopy(marker, 0, bytes, pos, marker.length);
+    File dir = java.nio.file.Files.createTempDirectory("markers").toFile();
+    java.nio.file.Files.write(new File(dir, "big.txt").toPath(), bytes);
+    java.nio.file.Files.write(new File(dir, "small.txt").toPath(), marker);
+
+    List<MarkerMatch> found = new MarkerScanner(MarkerEngine.forPatterns(List.of(marker))).findAll(dir,
+        List.of("big.txt", "small.txt", "missing.txt"));
+    assertEquals(positions.length + 1, found.size());
+    for (int i = 0; i < positions.length; i++)
+      assertEquals(positions[i], found.get(i).offset());
+    assertEquals("small.txt", found.get(positions.length).path());
+
+    boolean[] marked = MarkerScanner.DEFAULT.containsAny(List.of(new File(dir, "big.txt"), new File(dir, "missing.txt")));
+    assertTrue(marked[0]);
+    assertFalse(marked[1]);
+  }
+
+  private static void verifyRandom(List<byte[]> patterns) {
+    Random r = new Random(1965);
+    MarkerEngine engine = MarkerEngine.forPatterns(patterns);
+    for (int trial = 0; trial < 200; trial++) {
+      byte[] bytes = new byte[r.nextInt(300)];
+      for (int i = 0; i < bytes.length; i++) {
+        byte[] source = patterns.get(r.nextInt(patterns.size()));
+        bytes[i] = source[r.nextInt(source.length)];
+      }
+      List<String> expected = arrayList();
+      for (int i = 0; i < bytes.length; i++)
+        for (int p = 0; p < patterns.size(); p++)
+          if (startsWith(bytes, i, patterns.get(p)))
+            expected.add(i + ":" + p);
+      List<String> actual = arrayList();
+      engine.scan(ByteBuffer.wrap(bytes), 0, bytes.length, 0, (pattern, offset) -> actual.add(offset + ":" + pattern));
+      expected.sort(null);
+      actual.sort(null);
+      assertEquals(expected, actual);
+    }
+  }
+
+  private static boolean startsWith(byte[] bytes, int offset, byte[] pattern) {
+    if (offset + pattern.length > bytes.length)
+      return false;
+    for (int i = 0; i < pattern.length; i++)
+      if (bytes[offset + i] != pattern[i])
+        return false;
+    return true;
+  }
+
+  private static List<Long> matches(MarkerEngine engine, byte[] bytes) {
+    List<Long> result = arrayList();
+    engine.scan(ByteBuffer.wrap(bytes), 0, bytes.length, 0, (pattern, offset) -> result.add(offset));
+    return result;
+  }
+
+}
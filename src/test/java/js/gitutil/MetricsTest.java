@@ -0,0 +1,57 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import js.json.JSMap;
+import js.testutil.MyTestCase;
+
+public class MetricsTest extends MyTestCase {
+
+  @Test
+  public void histogramPercentiles() {
+    Metrics m = new Metrics();
+    for (int i = 1; i <= 100; i++)
+      m.record("op", i * 1000L);
+    JSMap h = m.snapshot().getMap("histograms").getMap("op");
+    assertEquals(100, h.getLong("count"));
+    assertEquals(5050, h.getLong("total_us"));
+    assertEquals(100, h.getLong("max_us"));
+    // Percentiles are the upper bounds of power-of-two buckets
+    assertEquals(65, h.getLong("p50_us"));
+    assertEquals(100, h.getLong("p99_us"));
+  }
+
+  @Test
+  public void forksAttributedToEnclosingScopes() {
+    Metrics m = new Metrics();
+    try (Metrics.Scope outer = m.begin("outer")) {
+      try (Metrics.Scope inner = m.begin("inner")) {
+        m.recordFork("status", 1000, 10, 500);
+      }
+      m.recordFork("log", 1000, 20, -1);
+    }
+    m.recordFork("log", 1000, 30, -1);
+    JSMap counters = m.snapshot().getMap("counters");
+    assertEquals(2, counters.getLong("outer.forks"));
+    assertEquals(1, counters.getLong("inner.forks"));
+    assertEquals(50, counters.getLong("git.log.stdout_bytes"));
+    assertTrue(m.snapshot().getMap("histograms").containsKey("git.status.parse"));
+    assertFalse(m.snapshot().getMap("histograms").containsKey("git.log.parse"));
+  }
+
+  @Test
+  public void resetAndDisabled() {
+    Metrics m = new Metrics();
+    m.count("c", 3);
+    m.reset();
+    assertTrue(m.snapshot().getMap("counters").size() == 0);
+    Metrics.DISABLED.count("c", 3);
+    try (Metrics.Scope s = Metrics.DISABLED.begin("op")) {
+      Metrics.DISABLED.recordFork("status", 1000, 10, 500);
+    }
+    assertTrue(Metrics.DISABLED.snapshot().getMap("counters").size() == 0);
+    assertTrue(Metrics.DISABLED.snapshot().getMap("histograms").size() == 0);
+  }
+}
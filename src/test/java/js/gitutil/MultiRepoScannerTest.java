@@ -0,0 +1,51 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.RepoScanResult;
+import js.testutil.MyTestCase;
+
+public class MultiRepoScannerTest extends MyTestCase {
+
+  /**
+   * A repository whose `git status` hangs is abandoned when it times out, and
+   * its thread is freed to scan the next one
+   */
+  @Test
+  public void hungRepositoryTimesOut() throws Exception {
+    TestRepo hung = new TestRepo();
+    hung.commit("initial");
+    // git status waits for the fsmonitor hook, which sleeps
+    File hook = hung.file(".git/hang.sh");
+    java.nio.file.Files.write(hook.toPath(), "#!/bin/sh\nexec sleep 60 >/dev/null 2>&1\n".getBytes());
+    hook.setExecutable(true);
+    hung.git("config", "core.fsmonitor", hook.getPath());
+
+    TestRepo ok = new TestRepo();
+    ok.write("a.txt", "a\n");
+    ok.commit("initial");
+    ok.write("b.txt", "b\n");
+
+    List<RepoScanResult> results = arrayList();
+    long startTime = System.currentTimeMillis();
+    new MultiRepoScanner().withThreads(1).withTimeout(1000).scan(List.of(hung.root(), ok.root()), results::add);
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    assertTrue("scan took " + elapsed + " ms", elapsed < 20000);
+    assertEquals(2, results.size());
+    RepoScanResult first = results.get(0);
+    assertEquals(hung.root().getPath(), first.root());
+    assertTrue(first.error(), first.error().startsWith("timed out"));
+    RepoScanResult second = results.get(1);
+    assertEquals(ok.root().getPath(), second.root());
+    assertEquals("", second.error());
+    assertEquals("main", second.branch());
+    assertEquals("b.txt", second.entries().get(0).path());
+  }
+}
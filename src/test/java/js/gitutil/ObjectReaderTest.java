@@ -0,0 +1,190 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import js.data.DataUtil;
+import js.testutil.MyTestCase;
+
+public class ObjectReaderTest extends MyTestCase {
+
+  @Test
+  public void applyDelta() {
+    byte[] base = DataUtil.toByteArray("hello, world");
+    byte[] delta = new byte[] { //
+        12, // base size
+        13, // result size
+        (byte) 0x91, 0, 5, // copy 5 bytes from offset 0
+        3, ',', ' ', 'W', // insert 3 bytes
+        (byte) 0x91, 8, 4, // copy 4 bytes from offset 8
+        1, '!', // insert 1 byte
+    };
+    assertEquals("hello, World!", new String(ObjectReader.applyDelta(base, delta)));
+  }
+
+  @Test
+  public void readLooseObject() throws Exception {
+    File objects = Files.createTempDirectory("objects").toFile();
+    // The id of the blob "hello\n"
+    String id = "ce013625030ba8dba906f756967f9e9ca394464a";
+    File file = new File(objects, id.substring(0, 2) + "/" + id.substring(2));
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), deflate(DataUtil.toByteArray("blob 6\0hello\n")));
+
+    ObjectReader reader = new ObjectReader(objects, ObjectReader.DEFAULT_CACHE_BYTES);
+    ObjectReader.RawObject obj = reader.read(id);
+    assertEquals(ObjectReader.TYPE_BLOB, obj.type());
+    assertEquals("hello\n", new String(obj.content()));
+    assertNull(reader.read("0000000000000000000000000000000000000000"));
+  }
+
+  @Test
+  public void readOffsetDeltaChains() {
+    checkPackedVersions(true);
+  }
+
+  @Test
+  public void readRefDeltaChains() {
+    checkPackedVersions(false);
+  }
+
+  /**
+   * Commit many versions of a file, repack them (as chains of deltas), and
+   * check each version can be read, twice (the second time using the cached
+   * bases)
+   */
+  private void checkPackedVersions(boolean offsetDeltas) {
+    TestRepo repo = new TestRepo();
+    int versions = 30;
+    String[] ids = new String[versions];
+    String[] contents = new String[versions];
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < versions; i++) {
+      sb.append("line ").append(i).append(" of a file that changes a little in each commit\n");
+      contents[i] = sb.toString();
+      repo.write("f.txt", contents[i]);
+      repo.commit("version " + i);
+      ids[i] = repo.git("rev-parse", "HEAD:f.txt");
+    }
+    repo.git("-c", "repack.useDeltaBaseOffset=" + offsetDeltas, "repack", "-adfq", "--depth=50", "--window=50");
+    assertTrue("expected delta chains", maxDeltaDepth(repo) >= 2);
+
+    ObjectReader reader = new ObjectReader(new File(repo.root(), ".git/objects"), ObjectReader.DEFAULT_CACHE_BYTES);
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < versions; i++) {
+        ObjectReader.RawObject obj = reader.read(ids[i]);
+        assertEquals(ObjectReader.TYPE_BLOB, obj.type());
+        assertEquals(contents[i], new String(obj.content()));
+      }
+    }
+  }
+
+  private static int maxDeltaDepth(TestRepo repo) {
+    File packDir = new File(repo.root(), ".git/objects/pack");
+    int max = 0;
+    for (File f : packDir.listFiles()) {
+      if (!f.getName().endsWith(".idx"))
+        continue;
+      // Deltas are listed as "<id> <type> <size> <packed size> <offset> <depth> <base id>"
+      for (String line : repo.git("verify-pack", "-v", f.getPath()).split("\n")) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length == 7)
+          max = Math.max(max, Integer.parseInt(fields[5]));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * A REF_DELTA whose base is a loose object, which can't be cached by its
+   * position in the pack
+   */
+  @Test
+  public void readRefDeltaWithBaseOutsidePack() throws Exception {
+    File objects = Files.createTempDirectory("objects").toFile();
+    byte[] baseContent = DataUtil.toByteArray("hello, world");
+    byte[] baseId = blobId(baseContent);
+    File loose = new File(objects, hex(baseId).substring(0, 2) + "/" + hex(baseId).substring(2));
+    loose.getParentFile().mkdirs();
+    Files.write(loose.toPath(), deflate(DataUtil.toByteArray("blob 12\0hello, world")));
+
+    byte[] delta = new byte[] { //
+        12, 13, //
+        (byte) 0x91, 0, 5, //
+        3, ',', ' ', 'W', //
+        (byte) 0x91, 8, 4, //
+        1, '!', //
+    };
+    byte[] resultId = blobId(DataUtil.toByteArray("hello, World!"));
+    writePack(new File(objects, "pack"), resultId, baseId, delta);
+
+    ObjectReader reader = new ObjectReader(objects, ObjectReader.DEFAULT_CACHE_BYTES);
+    for (int pass = 0; pass < 2; pass++) {
+      ObjectReader.RawObject obj = reader.read(hex(resultId));
+      assertEquals(ObjectReader.TYPE_BLOB, obj.type());
+      assertEquals("hello, World!", new String(obj.content()));
+    }
+    assertEquals("hello, world", new String(reader.read(hex(baseId)).content()));
+  }
+
+  /**
+   * Write a pack (and version 2 index) containing a single REF_DELTA
+   */
+  private static void writePack(File packDir, byte[] id, byte[] baseId, byte[] delta) throws Exception {
+    packDir.mkdirs();
+    ByteArrayOutputStream pack = new ByteArrayOutputStream();
+    DataOutputStream p = new DataOutputStream(pack);
+    p.writeInt(0x5041434b);
+    p.writeInt(2);
+    p.writeInt(1);
+    int offset = p.size();
+    // Type 7 (REF_DELTA), and the delta's size (which is less than 16)
+    p.writeByte((7 << 4) | delta.length);
+    p.write(baseId);
+    p.write(deflate(delta));
+    p.write(new byte[20]);
+    Files.write(new File(packDir, "pack-test.pack").toPath(), pack.toByteArray());
+
+    ByteArrayOutputStream idx = new ByteArrayOutputStream();
+    DataOutputStream x = new DataOutputStream(idx);
+    x.writeInt(0xff744f63);
+    x.writeInt(2);
+    for (int i = 0; i < 256; i++)
+      x.writeInt((id[0] & 0xff) <= i ? 1 : 0);
+    x.write(id);
+    x.writeInt(0); // crc
+    x.writeInt(offset);
+    x.write(new byte[40]);
+    Files.write(new File(packDir, "pack-test.idx").toPath(), idx.toByteArray());
+  }
+
+  private static byte[] blobId(byte[] content) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    digest.update(DataUtil.toByteArray("blob " + content.length + "\0"));
+    return digest.digest(content);
+  }
+
+  private static String hex(byte[] bytes) {
+    return BlobHasher.toHex(bytes);
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] buffer = new byte[data.length + 64];
+    int length = deflater.deflate(buffer);
+    deflater.end();
+    byte[] result = new byte[length];
+    System.arraycopy(buffer, 0, result, 0, length);
+    return result;
+  }
+}
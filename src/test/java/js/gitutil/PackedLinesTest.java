@@ -0,0 +1,53 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.Hunk;
+import js.testutil.MyTestCase;
+
+public class PackedLinesTest extends MyTestCase {
+
+  @Test
+  public void decodesLinesOnAccess() {
+    byte[] bytes = "xx+añadir".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    PackedLines lines = PackedLines.newBuilder().add(" a").add('-', bytes, 0, 2).add(bytes, 2, bytes.length - 2)
+        .add("").build();
+    assertEquals(List.of(" a", "-xx", "+añadir", ""), lines);
+    assertEquals(List.of(" a", "-xx", "+añadir", "").hashCode(), lines.hashCode());
+  }
+
+  @Test
+  public void packedHunkMatchesHunk() {
+    Hunk plain = Hunk.newBuilder().filename("f").r1Begin(1).r1Count(2).lines(List.of(" context", "-old", "+new ✓"))
+        .missingNewline2(true).build();
+    PackedHunk packed = PackedHunk.of(plain);
+    assertEquals(plain, packed.toHunk());
+    assertEquals(plain.hashCode(), packed.hashCode());
+    assertEquals(packed, PackedHunk.of(packed.toHunk()));
+    assertNotEquals(packed, packed.toBuilder().missingNewline2(false).build());
+  }
+
+  @Test
+  public void builderRoundTripSharesLines() {
+    PackedLines lines = PackedLines.newBuilder().add("+x").build();
+    PackedHunk h = PackedHunk.newBuilder().lines(lines).build();
+    assertSame(lines, h.lines());
+    assertSame(lines, h.toBuilder().build().lines());
+  }
+
+  /**
+   * A Hunk produced from a PackedHunk is an ordinary one, with its own lines
+   */
+  @Test
+  public void producedHunkIsIndependent() {
+    PackedHunk packed = PackedHunk.newBuilder().lines(PackedLines.newBuilder().add("+x").build()).build();
+    Hunk.Builder b = packed.toHunk().toBuilder();
+    b.lines().add("+y");
+    assertEquals(List.of("+x", "+y"), b.build().lines());
+    assertEquals(List.of("+x"), packed.lines());
+  }
+}
@@ -0,0 +1,71 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import gitutil.gen.RepoSnapshot;
+import js.testutil.MyTestCase;
+
+public class PathIndexTest extends MyTestCase {
+
+  @Test
+  public void lookupByPath() {
+    PathIndex index = index();
+    assertEquals(FileState.ADDED, index.get("services/foo/b.c").state());
+    assertNull(index.get("services/foo"));
+    assertNull(index.get("nope"));
+  }
+
+  @Test
+  public void entriesUnderDirectory() {
+    PathIndex index = index();
+    assertEquals(List.of("services/foo/a.c", "services/foo/b.c", "services/foo/sub/c.c"),
+        paths(index.under("services/foo/")));
+    assertEquals(paths(index.under("services/foo/")), paths(index.under("services/foo")));
+    // A sibling whose name extends the directory's isn't within it
+    assertEquals(List.of("services/foobar.c"), paths(index.under("services", FileState.DELETED)));
+    assertEquals(7, index.under("").size());
+    assertTrue(index.under("services/none").isEmpty());
+    assertEquals(List.of("services/foo/a.c"), paths(index.under("services/foo", FileState.MODIFIED)));
+    assertEquals(List.of("services/foo/sub/c.c"), paths(index.markedUnder("services/foo")));
+  }
+
+  @Test
+  public void directoryCounts() {
+    PathIndex index = index();
+    assertEquals(7, index.count(""));
+    assertEquals(4, index.count("services"));
+    assertEquals(3, index.count("services/foo"));
+    assertEquals(2, index.count("services/foo", FileState.MODIFIED) + index.count("services/foo", FileState.ADDED));
+    assertEquals(1, index.count("tmp/", FileState.UNTRACKED));
+    assertEquals(0, index.count("missing"));
+    assertEquals(Integer.valueOf(2), index.stateCounts("").get(FileState.UNTRACKED));
+    assertFalse(index.stateCounts("").containsKey(FileState.COPIED));
+  }
+
+  private static PathIndex index() {
+    List<FileEntry> entries = List.of(entry("services/foo/b.c", FileState.ADDED),
+        entry("services/foo/a.c", FileState.MODIFIED), entry("services/foobar.c", FileState.DELETED),
+        entry("services/foo/sub/c.c", FileState.UNMERGED), entry("README", FileState.MODIFIED),
+        entry("tmp/", FileState.UNTRACKED), entry("x.txt", FileState.UNTRACKED));
+    RepoSnapshot snapshot = RepoSnapshot.newBuilder().entries(entries).build();
+    return PathIndex.of(snapshot, () -> List.of(entries.get(3)));
+  }
+
+  private static FileEntry entry(String path, FileState state) {
+    return FileEntry.newBuilder().path(path).state(state).build();
+  }
+
+  private static List<String> paths(List<FileEntry> entries) {
+    List<String> result = new ArrayList<>();
+    for (FileEntry ent : entries)
+      result.add(ent.path());
+    return result;
+  }
+}
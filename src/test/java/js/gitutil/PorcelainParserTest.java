@@ -0,0 +1,67 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import static js.base.Tools.*;
+
+import gitutil.gen.FileEntry;
+import gitutil.gen.FileState;
+import js.testutil.MyTestCase;
+
+public class PorcelainParserTest extends MyTestCase {
+
+  @Test
+  public void parsesEachRecordType() {
+    List<FileEntry> entries = parse("# branch.oid abc\0" //
+        + "1 .M N... 100644 100644 100755 aaaa bbbb src/run.sh\0" //
+        + "2 R. N... 100644 100644 100644 aaaa bbbb R100 new name.txt\0old name.txt\0" //
+        + "u UU N... 100644 100644 100644 100644 aaaa bbbb cccc conflict.txt\0" //
+        + "? with\nnewline\0" //
+        + "! ignored.o\0");
+    assertEquals(4, entries.size());
+
+    FileEntry e = entries.get(0);
+    assertEquals(FileState.UNMODIFIED, e.oldState());
+    assertEquals(FileState.MODIFIED, e.state());
+    assertEquals("src/run.sh", e.path());
+    assertEquals("100644", e.oldMode());
+    assertEquals("100755", e.mode());
+
+    e = entries.get(1);
+    assertEquals(FileState.RENAMED, e.oldState());
+    assertEquals("new name.txt", e.path());
+    assertEquals("old name.txt", e.origPath());
+
+    assertEquals(FileState.UNMERGED, entries.get(2).state());
+    assertEquals("conflict.txt", entries.get(2).path());
+
+    e = entries.get(3);
+    assertEquals(FileState.UNTRACKED, e.state());
+    assertEquals("with\nnewline", e.path());
+  }
+
+  @Test
+  public void emptyOutput() {
+    assertTrue(parse("").isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void truncatedOutput() {
+    parse("1 .M N... 100644 100644 100644 aaaa bbbb unterminated");
+  }
+
+  private static List<FileEntry> parse(String output) {
+    PorcelainParser p = new PorcelainParser(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+    List<FileEntry> result = arrayList();
+    while (p.hasNext())
+      result.add(p.next());
+    return result;
+  }
+
+}
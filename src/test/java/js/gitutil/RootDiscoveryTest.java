@@ -0,0 +1,116 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import js.testutil.MyTestCase;
+
+public class RootDiscoveryTest extends MyTestCase {
+
+  @Test
+  public void locateMainWorktree() {
+    TestRepo repo = new TestRepo();
+    repo.write("a/b/c.txt", "c\n");
+    RootDiscovery.Location loc = RootDiscovery.locate(repo.file("a/b"));
+    assertEquals(repo.root(), loc.root());
+    assertEquals(repo.file(".git"), loc.gitDirectory());
+    assertEquals(repo.file(".git"), loc.commonDirectory());
+    // A sibling, found in the cache
+    repo.write("a/d/e.txt", "e\n");
+    assertEquals(repo.root(), RootDiscovery.locate(repo.file("a/d")).root());
+  }
+
+  /**
+   * A linked worktree's .git is a file naming its git directory, which in turn
+   * names the common directory in a commondir file
+   */
+  @Test
+  public void locateLinkedWorktree() {
+    TestRepo repo = new TestRepo();
+    repo.write("sub/f.txt", "f\n").commit("initial");
+    File worktree = new File(TestRepo.tempDirectory("worktrees"), "wt");
+    repo.git("worktree", "add", "-q", worktree.getPath());
+    assertTrue(new File(worktree, ".git").isFile());
+
+    RootDiscovery.Location loc = RootDiscovery.locate(new File(worktree, "sub"));
+    assertEquals(worktree, loc.root());
+    assertEquals(repo.file(".git/worktrees/wt"), loc.gitDirectory());
+    assertEquals(repo.file(".git"), loc.commonDirectory());
+
+    assertEquals(List.of(worktree), RootDiscovery.findAll(worktree.getParentFile(), 2));
+  }
+
+  /**
+   * Relative paths in the .git and commondir files are relative to the
+   * directories containing them
+   */
+  @Test
+  public void resolveRelativePaths() throws Exception {
+    File dir = TestRepo.tempDirectory("relative");
+    File gitDir = new File(dir, "store/linked");
+    gitDir.mkdirs();
+    new File(dir, "store/common").mkdirs();
+    Files.write(new File(gitDir, "commondir").toPath(), "../common\n".getBytes());
+    File root = new File(dir, "tree");
+    root.mkdirs();
+    Files.write(new File(root, ".git").toPath(), "gitdir: ../store/./linked\n".getBytes());
+
+    RootDiscovery.Location loc = RootDiscovery.locate(root);
+    assertEquals(root, loc.root());
+    assertEquals(gitDir, loc.gitDirectory());
+    assertEquals(new File(dir, "store/common"), loc.commonDirectory());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectMalformedGitFile() throws Exception {
+    File dir = TestRepo.tempDirectory("malformed");
+    Files.write(new File(dir, ".git").toPath(), "not a gitdir line\n".getBytes());
+    RootDiscovery.locate(dir);
+  }
+
+  /**
+   * Once a repository is deleted, directories cached as being within it are
+   * located afresh
+   */
+  @Test
+  public void staleEntryIsNotUsed() throws Exception {
+    TestRepo outer = new TestRepo();
+    File innerRoot = outer.file("inner");
+    innerRoot.mkdirs();
+    TestRepo inner = new TestRepo(innerRoot);
+    inner.git("init", "-q");
+    inner.write("d/f.txt", "f\n");
+    assertEquals(innerRoot, RootDiscovery.locate(inner.file("d")).root());
+
+    delete(inner.file(".git"));
+    RootDiscovery.Location loc = RootDiscovery.locate(inner.file("d"));
+    assertEquals(outer.root(), loc.root());
+    assertEquals(outer.file(".git"), loc.gitDirectory());
+  }
+
+  /**
+   * The least recently used directories are evicted once the cache is full
+   */
+  @Test
+  public void cacheIsBounded() {
+    TestRepo repo = new TestRepo();
+    for (int i = 0; i < RootDiscovery.MAX_CACHED_DIRECTORIES + 100; i++)
+      assertEquals(repo.root(), RootDiscovery.locate(repo.file("d" + i)).root());
+    assertEquals(RootDiscovery.MAX_CACHED_DIRECTORIES, RootDiscovery.cacheSize());
+    assertEquals(repo.root(), RootDiscovery.locate(repo.file("d0")).root());
+  }
+
+  private static void delete(File tree) throws Exception {
+    try (Stream<Path> paths = Files.walk(tree.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package js.gitutil;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import gitutil.gen.RepoSnapshot;
+import js.testutil.MyTestCase;
+
+public class SnapshotRefresherTest extends MyTestCase {
+
+  @Test
+  public void laterRequestWaitsForNextComputation() {
+    SnapshotRefresher r = refresher();
+    CompletableFuture<RepoSnapshot> a = r.refresh();
+    // The first computation has been handed to the executor, and may already
+    // have read the state, so a second request must wait for another
+    CompletableFuture<RepoSnapshot> b = r.refresh();
+    assertNotSame(a, b);
+    runAll();
+    assertEquals(2, mComputed.get());
+    assertSame(b.join(), r.current());
+  }
+
+  @Test
+  public void requestsWhileRunningAreMerged() {
+    SnapshotRefresher r = refresher();
+    r.refresh();
+    CompletableFuture<RepoSnapshot> first = null;
+    for (int i = 0; i < 10; i++) {
+      CompletableFuture<RepoSnapshot> f = r.refresh();
+      if (first == null)
+        first = f;
+      assertSame(first, f);
+    }
+    runAll();
+    assertEquals(2, mComputed.get());
+    assertEquals(2, first.join().timestampMs());
+  }
+
+  @Test
+  public void joinSharesRunningComputation() {
+    SnapshotRefresher r = refresher();
+    assertNull(r.current());
+    CompletableFuture<RepoSnapshot> a = r.refresh();
+    assertSame(a, r.refreshOrJoin());
+    runAll();
+    assertEquals(1, mComputed.get());
+    assertSame(a.join(), r.current());
+  }
+
+  private SnapshotRefresher refresher() {
+    return new SnapshotRefresher(
+        () -> RepoSnapshot.newBuilder().timestampMs(mComputed.incrementAndGet()).build(),
+        mTasks::add);
+  }
+
+  private void runAll() {
+    while (!mTasks.isEmpty())
+      mTasks.remove().run();
+  }
+
+  private final AtomicInteger mComputed = new AtomicInteger();
+  private final Queue<Runnable> mTasks = new ArrayDeque<>();
+}
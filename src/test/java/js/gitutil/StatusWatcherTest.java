@@ -0,0 +1,94 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import gitutil.gen.FileEntry;
+import js.testutil.MyTestCase;
+
+public class StatusWatcherTest extends MyTestCase {
+
+  @Test
+  public void matchesFullStatus() throws Exception {
+    TestRepo repo = new TestRepo();
+    repo.write("a/tracked.txt", "one\n");
+    repo.write(".gitignore", "build/\n");
+    repo.commit("initial");
+    repo.write("build/out/x.class", "");
+
+    GitCommandPool pool = new GitCommandPool(repo.root(), false);
+    try {
+      StatusWatcher watcher = new StatusWatcher(repo.root(), new File(repo.root(), ".git"),
+          new File(repo.root(), ".git"), pool);
+      assertEquals(List.of(), paths(watcher.entries()));
+      assertFalse(watcher.watchedDirectories().contains(repo.file("build").toPath()));
+      assertFalse(watcher.watchedDirectories().contains(repo.file("build/out").toPath()));
+      assertTrue(watcher.watchedDirectories().contains(repo.file("a").toPath()));
+
+      // A directory with no tracked files is reported as a whole, even if it
+      // was being watched (i.e. was empty) when files appeared within it
+      repo.file("nd").mkdir();
+      awaitWatching(watcher, repo.file("nd"));
+      repo.write("nd/g", "g\n");
+      repo.write("nd/sub/h", "h\n");
+      repo.write("a/new/i", "i\n");
+      repo.write("a/tracked.txt", "two\n");
+      awaitFullStatus(repo, watcher);
+      assertEquals(List.of("a/tracked.txt", "a/new/", "nd/"), paths(watcher.entries()));
+
+      repo.write("nd/sub/more/j", "j\n");
+      repo.file("a/new/i").delete();
+      repo.file("a/new").delete();
+      awaitFullStatus(repo, watcher);
+      assertEquals(List.of("a/tracked.txt", "nd/"), paths(watcher.entries()));
+      watcher.close();
+    } finally {
+      pool.close();
+    }
+  }
+
+  private static void awaitWatching(StatusWatcher watcher, File dir) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!watcher.watchedDirectories().contains(dir.toPath()) && System.currentTimeMillis() < deadline) {
+      watcher.entries();
+      Thread.sleep(20);
+    }
+    assertTrue(watcher.watchedDirectories().contains(dir.toPath()));
+  }
+
+  /**
+   * Wait for the watcher to see the changes made, i.e. to agree with a full
+   * status
+   */
+  private static void awaitFullStatus(TestRepo repo, StatusWatcher watcher) throws InterruptedException {
+    List<String> expected = fullStatus(repo);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!paths(watcher.entries()).equals(expected) && System.currentTimeMillis() < deadline)
+      Thread.sleep(20);
+    assertEquals(expected, paths(watcher.entries()));
+  }
+
+  /**
+   * Get the paths a full status reports, without updating the index (which
+   * the watcher would see as a change)
+   */
+  private static List<String> fullStatus(TestRepo repo) {
+    List<String> result = arrayList();
+    for (String line : repo.git("--no-optional-locks", "status", "--porcelain").split("\n"))
+      if (!line.isEmpty())
+        result.add(line.substring(3));
+    return result;
+  }
+
+  private static List<String> paths(List<FileEntry> entries) {
+    List<String> result = arrayList();
+    for (FileEntry ent : entries)
+      result.add(ent.path());
+    return result;
+  }
+}
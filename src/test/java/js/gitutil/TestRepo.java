@@ -0,0 +1,114 @@
+package js.gitutil;
+
+import static js.base.Tools.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * A git repository in a temporary directory, for tests that need data written
+ * by git itself (packs, indexes, commit graphs, etc.)
+ */
+final class TestRepo {
+
+  TestRepo() {
+    this(tempDirectory("gitutil"));
+    git("init", "-q");
+    git("symbolic-ref", "HEAD", "refs/heads/main");
+  }
+
+  /**
+   * Wrap an existing directory (e.g. a worktree) without initializing it
+   */
+  TestRepo(File root) {
+    mRoot = root;
+  }
+
+  File root() {
+    return mRoot;
+  }
+
+  File file(String path) {
+    return new File(mRoot, path);
+  }
+
+  TestRepo write(String path, String content) {
+    File file = file(path);
+    file.getParentFile().mkdirs();
+    try {
+      Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  /**
+   * Stage everything and commit it; returns the new commit's id
+   */
+  String commit(String message) {
+    git("add", "-A");
+    git("commit", "-q", "--allow-empty", "-m", message);
+    return git("rev-parse", "HEAD");
+  }
+
+  /**
+   * Run git in the repository, failing the test if it fails; returns its
+   * output, without trailing whitespace
+   */
+  String git(String... args) {
+    String out = gitOrNull(args);
+    assertNotNull("git " + String.join(" ", args) + " failed", out);
+    return out;
+  }
+
+  /**
+   * Run git in the repository; returns its output (without trailing
+   * whitespace), or null if it fails
+   */
+  String gitOrNull(String... args) {
+    List<String> cmd = arrayList();
+    cmd.add("git");
+    cmd.add("-c");
+    cmd.add("user.name=test");
+    cmd.add("-c");
+    cmd.add("user.email=test@example.com");
+    for (String a : args)
+      cmd.add(a);
+    ProcessBuilder pb = new ProcessBuilder(cmd).directory(mRoot).redirectError(ProcessBuilder.Redirect.DISCARD);
+    pb.environment().put("GIT_CONFIG_NOSYSTEM", "1");
+    try {
+      Process p = pb.start();
+      p.getOutputStream().close();
+      String out = read(p.getInputStream());
+      return (p.waitFor() == 0) ? out.stripTrailing() : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static File tempDirectory(String prefix) {
+    try {
+      return Files.createTempDirectory(prefix).toFile().getCanonicalFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    in.transferTo(out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private final File mRoot;
+}